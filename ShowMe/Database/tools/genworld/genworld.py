@@ -0,0 +1,239 @@
+#!/usr/bin/env python
+"""
+Makes up a world of hills, historic sites and places for load testing: as many as you like, in
+the same forms as the real data - a mountains table in an SQLite database the app can use as
+its asset database, and/or a ~ delimited csv for importing (see how_to_update_database.txt).
+
+The points aren't spread evenly. Peaks sit along made-up mountain ranges - wandering ridges
+with a crest height that falls away to either side - and a few ranges are much busier than
+the rest, the way the Alps are next to the Pennines. Historic sites and places cluster round
+made-up towns in between. So there are dense spots and empty ones, as the index, cache and
+query code would see with real OSM data.
+
+Same seed and options, same output, every time.
+
+  python genworld.py --points 20000000 --db world.db --csv world.csv --seed 7
+  python genworld.py --points 500000 --region=-11,49,2,61 --db uk.db --lists
+
+Run with --help for everything else. A few million points a minute, more without --db.
+"""
+
+from __future__ import print_function
+
+import argparse
+import bisect
+import math
+import random
+import sqlite3
+import sys
+
+try:
+	range = xrange # python 2, so ten million points don't make a ten million long list
+except NameError:
+	pass
+
+# matches mDatabaseVersion in HillDatabase.java, so the app takes the file as it is
+DB_VERSION = 9
+
+KM_PER_DEGREE = 111.0
+
+SYLLABLES = [ 'ben', 'car', 'dor', 'ach', 'mor', 'glas', 'ven', 'tor', 'ard', 'fell',
+	'kar', 'ala', 'rin', 'sto', 'mun', 'hel', 'pic', 'val', 'ber', 'gan', 'lo', 'ska',
+	'tin', 'dru', 'mar', 'els', 'hor', 'nan', 'qui', 'zel', 'ost', 'ura', 'wen', 'yar' ]
+PEAK_WORDS = [ 'Mount %s', 'Monte %s', 'Pic %s', 'Pico %s', 'Cerro %s', 'Beinn %s', 'Sgurr %s',
+	'%s Peak', '%s Hill', '%s Fell', '%sberg', '%s Pike', '%s Knott', '%s Dome' ]
+HISTORIC_WORDS = [ '%s Castle', '%s Abbey', '%s Fort', '%s Cairn', 'Chapel of %s', '%s Tower',
+	'%s Standing Stones', '%s Priory', 'Old %s Bridge' ]
+PLACE_WORDS = [ '%s', '%s', '%ston', '%sby', '%sville', '%s Green', 'Upper %s', 'Lower %s' ]
+
+# the lists in baggersarray (preference_arrays.xml), and how a made-up peak gets on them
+LISTS = [
+	('Munros', lambda h, r: h >= 914),
+	('Corbetts', lambda h, r: 762 <= h < 914),
+	('Hewitts', lambda h, r: h >= 610 and r.random() < 0.5),
+	('Marilyns', lambda h, r: r.random() < 0.1),
+	('Wainwrights', lambda h, r: 300 <= h < 1000 and r.random() < 0.05),
+]
+
+def Word(rnd):
+	w = ''.join(rnd.choice(SYLLABLES) for i in range(rnd.randint(1, 3)))
+	return w.capitalize()
+
+def Name(rnd, words):
+	return rnd.choice(words) % Word(rnd)
+
+def Clamp(v, lo, hi):
+	return max(lo, min(hi, v))
+
+def Offset(lon, lat, northKm, eastKm):
+	"""lon, lat moved by the given distances, near enough"""
+	lat2 = Clamp(lat + northKm / KM_PER_DEGREE, -89.9, 89.9)
+	lon2 = lon + eastKm / (KM_PER_DEGREE * max(0.05, math.cos(math.radians(lat))))
+	lon2 = (lon2 + 540) % 360 - 180
+	return lon2, lat2
+
+class Range(object):
+	"""
+	A mountain range: a ridge wandering for a few hundred km, peaks scattered either side of it
+	with heights falling off away from the crest.
+	"""
+	def __init__(self, rnd, region):
+		lon = rnd.uniform(region[0], region[2])
+		lat = rnd.uniform(region[1], region[3])
+		heading = rnd.uniform(0, 2 * math.pi)
+		self.ridge = [(lon, lat)]
+		for i in range(rnd.randint(3, 30)):
+			heading += rnd.gauss(0, 0.4)
+			step = rnd.uniform(10, 60)
+			lon, lat = Offset(lon, lat, step * math.cos(heading), step * math.sin(heading))
+			self.ridge.append((lon, lat))
+		self.width = rnd.uniform(5, 40)
+		self.crest = Clamp(rnd.lognormvariate(math.log(1500), 0.6), 300, 8800)
+		# a few ranges are far busier than the rest
+		self.weight = rnd.paretovariate(1.2) * len(self.ridge)
+
+	def Point(self, rnd):
+		i = rnd.randrange(len(self.ridge) - 1)
+		t = rnd.random()
+		(lon1, lat1), (lon2, lat2) = self.ridge[i], self.ridge[i + 1]
+		lon = lon1 + (lon2 - lon1) * t
+		lat = lat1 + (lat2 - lat1) * t
+		north = rnd.gauss(0, self.width)
+		east = rnd.gauss(0, self.width)
+		lon, lat = Offset(lon, lat, north, east)
+		off = math.hypot(north, east) / self.width
+		height = self.crest * math.exp(-off * off / 2) * rnd.uniform(0.4, 1.0)
+		return lon, lat, max(10, int(height))
+
+class Town(object):
+	"""Somewhere people live, with the places and historic sites round about."""
+	def __init__(self, rnd, region):
+		self.lon = rnd.uniform(region[0], region[2])
+		self.lat = rnd.uniform(region[1], region[3])
+		self.spread = rnd.uniform(1, 15)
+		self.ground = rnd.expovariate(1 / 150.0)
+		self.weight = rnd.paretovariate(1.1)
+
+	def Point(self, rnd):
+		lon, lat = Offset(self.lon, self.lat, rnd.gauss(0, self.spread), rnd.gauss(0, self.spread))
+		return lon, lat, int(self.ground + rnd.uniform(0, 80))
+
+class Picker(object):
+	"""Chooses one of things in proportion to its weight."""
+	def __init__(self, things):
+		self.things = things
+		self.cumulative = []
+		total = 0
+		for t in things:
+			total += t.weight
+			self.cumulative.append(total)
+		self.total = total
+
+	def Pick(self, rnd):
+		return self.things[bisect.bisect(self.cumulative, rnd.random() * self.total)]
+
+def Rows(args):
+	"""(id, name, lon, lat, height, link, itemtype, lists) for every point, in id order"""
+	rnd = random.Random(args.seed)
+	region = args.region
+	ranges = Picker([Range(rnd, region) for i in range(args.ranges or max(1, args.points // 20000))])
+	towns = Picker([Town(rnd, region) for i in range(args.towns or max(1, args.points // 5000))])
+	for n in range(args.points):
+		r = rnd.random()
+		if r < args.peaks:
+			lon, lat, height = ranges.Pick(rnd).Point(rnd)
+			itemtype, words = 'peak', PEAK_WORDS
+		else:
+			lon, lat, height = towns.Pick(rnd).Point(rnd)
+			if r < args.peaks + (1 - args.peaks) / 2:
+				itemtype, words = 'historic', HISTORIC_WORDS
+			else:
+				itemtype, words = 'places', PLACE_WORDS
+		lists = []
+		if args.lists and itemtype == 'peak':
+			lists = [name for name, test in LISTS if test(height, rnd)]
+		yield (args.start_id + n, Name(rnd, words), round(lon, 6), round(lat, 6), height, '', itemtype, lists)
+
+def OpenDb(path):
+	db = sqlite3.connect(path)
+	db.execute('pragma journal_mode = off')
+	db.execute('pragma synchronous = off')
+	for t in [ 'android_metadata', 'mountains', 'dbversions', 'hilllists' ]:
+		db.execute('drop table if exists ' + t)
+	# the same tables as the shipped databases
+	db.execute("create table android_metadata (locale TEXT DEFAULT 'en_US')")
+	db.execute("insert into android_metadata values ('en_US')")
+	db.execute('create table mountains (_id INTEGER PRIMARY KEY, name TEXT, longitude NUMERIC, latitude NUMERIC, height NUMERIC, link TEXT, itemtype TEXT)')
+	db.execute('create table dbversions (_id INTEGER PRIMARY KEY, ver NUMERIC)')
+	db.execute('insert into dbversions (ver) values (?)', (DB_VERSION,))
+	return db
+
+def Region(s):
+	r = [float(v) for v in s.split(',')]
+	if len(r) != 4 or r[0] >= r[2] or r[1] >= r[3]:
+		raise argparse.ArgumentTypeError('region is minlon,minlat,maxlon,maxlat')
+	return r
+
+def main():
+	p = argparse.ArgumentParser(description='Make up hills for load testing.')
+	p.add_argument('--points', type=int, default=10000000, help='how many rows (default 10 million)')
+	p.add_argument('--seed', type=int, default=1, help='same seed, same world')
+	p.add_argument('--region', type=Region, default=[-180, -56, 180, 72], help="minlon,minlat,maxlon,maxlat, as --region=-11,49,2,61 (default the whole world bar the poles)")
+	p.add_argument('--peaks', type=float, default=0.8, help='fraction that are peaks; the rest are half historic, half places')
+	p.add_argument('--ranges', type=int, default=0, help='mountain ranges (default one per 20000 points)')
+	p.add_argument('--towns', type=int, default=0, help='towns (default one per 5000 points)')
+	p.add_argument('--start-id', type=int, default=1, help='first _id')
+	p.add_argument('--lists', action='store_true', help='put peaks on hill lists too (hilllists table / hilllists csv)')
+	p.add_argument('--index', action='store_true', help='index latitude and longitude (the shipped databases have none)')
+	p.add_argument('--db', help='SQLite file to write')
+	p.add_argument('--csv', help='~ delimited csv to write')
+	args = p.parse_args()
+	if not args.db and not args.csv:
+		p.error('nothing to write: give --db and/or --csv')
+
+	db = OpenDb(args.db) if args.db else None
+	if db and args.lists:
+		db.execute('create table hilllists (_id INTEGER, list TEXT)')
+	out = open(args.csv, 'w') if args.csv else None
+	listsout = open(args.csv + '.hilllists', 'w') if out and args.lists else None
+
+	batch = []
+	listbatch = []
+	count = 0
+	for row in Rows(args):
+		if out:
+			out.write('%d~%s~%.6f~%.6f~%d~%s~%s\n' % row[:7])
+			if listsout:
+				for l in row[7]:
+					listsout.write('%d~%s\n' % (row[0], l))
+		if db:
+			batch.append(row[:7])
+			for l in row[7]:
+				listbatch.append((row[0], l))
+			if len(batch) >= 50000:
+				db.executemany('insert into mountains values (?,?,?,?,?,?,?)', batch)
+				if listbatch:
+					db.executemany('insert into hilllists values (?,?)', listbatch)
+				batch = []
+				listbatch = []
+		count += 1
+		if count % 1000000 == 0:
+			print('%d points' % count, file=sys.stderr)
+
+	if out:
+		out.close()
+	if listsout:
+		listsout.close()
+	if db:
+		db.executemany('insert into mountains values (?,?,?,?,?,?,?)', batch)
+		if args.lists:
+			db.executemany('insert into hilllists values (?,?)', listbatch)
+			db.execute('create index hilllists_id on hilllists (_id)')
+		if args.index:
+			db.execute('create index mountains_latlon on mountains (latitude, longitude)')
+		db.commit()
+		db.close()
+	print('wrote %d points' % count, file=sys.stderr)
+
+if __name__ == '__main__':
+	main()
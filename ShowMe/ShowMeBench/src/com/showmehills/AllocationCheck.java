@@ -0,0 +1,166 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+
+/*
+ * The paths that run for every frame or every sensor reading are meant not to allocate once
+ * they've warmed up, so the garbage collector has nothing to do while the camera view is up.
+ * This runs each of them a few thousand times after a warm-up and fails (exit code 1) if any
+ * allocated, going by the JVM's count of bytes allocated by this thread.
+ *
+ * build.xml runs it with escape analysis off: Dalvik has none, so an allocation HotSpot would
+ * optimise away still counts. AllocationStats in the app is the same check on the phone.
+ *
+ *   ant alloccheck
+ */
+public class AllocationCheck {
+
+	private interface Path {
+		void Run(int i);
+	}
+
+	private static final int WARMUP = 20000;
+	private static final int ITERATIONS = 5000;
+
+	private static final ThreadMXBean THREADS = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static final ArrayList<String> names = new ArrayList<String>();
+	private static final ArrayList<Path> paths = new ArrayList<Path>();
+
+	private static void Declare(String name, Path p) {
+		names.add(name);
+		paths.add(p);
+	}
+
+	// bytes allocated by ITERATIONS runs of p, after warming it up
+	private static long Measure(Path p) {
+		for (int i = 0; i < WARMUP; i++) p.Run(i);
+		long tid = Thread.currentThread().getId();
+		long before = THREADS.getThreadAllocatedBytes(tid);
+		for (int i = 0; i < ITERATIONS; i++) p.Run(WARMUP + i);
+		return THREADS.getThreadAllocatedBytes(tid) - before;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchData.Location where = BenchData.Location.LakeDistrict;
+
+		// a phone held up and panned slowly, readings in the order the sensors give them
+		final float[][] accel = new float[256][3];
+		final float[][] mag = new float[256][3];
+		Random r = new Random(42);
+		for (int i = 0; i < accel.length; i++) {
+			accel[i][0] = (float)(r.nextGaussian() * 0.2);
+			accel[i][1] = (float)(9.7 + r.nextGaussian() * 0.2);
+			accel[i][2] = (float)(1.0 + r.nextGaussian() * 0.2);
+			double a = i * 2 * Math.PI / mag.length;
+			mag[i][0] = (float)(20 * Math.sin(a));
+			mag[i][1] = (float)(-30 + r.nextGaussian());
+			mag[i][2] = (float)(20 * Math.cos(a));
+		}
+		final OrientationFilter filter = new OrientationFilter();
+		Declare("OrientationFilter.AddSample", new Path() {
+			public void Run(int i) {
+				long ts = i * 10000000L;
+				filter.AddSample(OrientationFilter.TYPE_ACCELEROMETER, 3, accel[i & 255], ts, OrientationFilter.ROTATION_90);
+				filter.AddSample(OrientationFilter.TYPE_MAGNETIC_FIELD, 3, mag[i & 255], ts + 5000000, OrientationFilter.ROTATION_90);
+			}
+		});
+
+		final GeoEngine engine = BenchData.LoadEngine(where);
+		final Observer observer = where.GetObserver();
+		final GeoEngine.Settings settings = new GeoEngine.Settings();
+		Declare("GeoEngine.VisibleHills", new Path() {
+			public void Run(int i) {
+				engine.VisibleHills(observer, i % 360, 50, settings);
+			}
+		});
+
+		// DrawOnTop's layout and label text, with the second line on
+		final ArrayList<Hills> hills = engine.GetHills();
+		final LabelLayout layout = new LabelLayout();
+		layout.showdir = layout.showdist = layout.showheight = true;
+		Declare("LabelLayout.Layout+Details", new Path() {
+			public void Run(int i) {
+				layout.Layout(hills, (i * 7) % 360, 300);
+				ArrayList<LabelLayout.Label> labels = layout.GetLabels();
+				for (int j = 0; j < labels.size(); j++) layout.Details(labels.get(j).h);
+			}
+		});
+
+		// drawLocationAndOrientationStatus's line
+		final StringBuilder sb = new StringBuilder(80);
+		final char[] chars = new char[80];
+		Declare("status text", new Path() {
+			public void Run(int i) {
+				sb.setLength(0);
+				LabelLayout.AppendInt(sb, i % 360).append((char)0x00B0);
+				sb.append(" (adj:");
+				LabelLayout.AppendTenths(sb, -1.25 + i % 7).append(')');
+				sb.append(" FOV: ");
+				LabelLayout.AppendTenths(sb, 50.2);
+				sb.append(" Location +/- ");
+				LabelLayout.AppendHeight(sb, i % 500, (i & 1) == 0);
+				sb.getChars(0, sb.length(), chars, 0);
+			}
+		});
+
+		FrameTimer.Get().SetEnabled(true);
+		Declare("FrameTimer.Start/Stop", new Path() {
+			public void Run(int i) {
+				FrameTimer ft = FrameTimer.Get();
+				ft.Stop(FrameTimer.Stage.Frame, ft.Start());
+			}
+		});
+
+		Metrics.Get().SetEnabled(true);
+		final LatencyHistogram h = Metrics.Get().Histogram("alloccheck");
+		final Metrics.Counter c = Metrics.Get().Counter("alloccheck");
+		Declare("Metrics.Start/Stop/Counter", new Path() {
+			public void Run(int i) {
+				Metrics.Get().Stop(h, Metrics.Get().Start());
+				c.Inc();
+			}
+		});
+
+		// what measuring costs by itself, taken off the rest
+		long baseline = Measure(new Path() {
+			public void Run(int i) { }
+		});
+
+		boolean failed = false;
+		for (int i = 0; i < paths.size(); i++) {
+			long bytes = Math.max(0, Measure(paths.get(i)) - baseline);
+			System.out.printf("%-30s %8d bytes in %d runs%s%n", names.get(i), bytes, ITERATIONS, bytes > 0 ? "  ALLOCATES" : "");
+			if (bytes > 0) failed = true;
+		}
+		if (failed) {
+			System.out.println("FAILED: paths declared allocation free allocated");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+}
@@ -0,0 +1,53 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * ObserverAltitude against TerrainCheck's made-up tile (flat ground at 100m, nothing north of
+ * it): a fix on the tile's northern edge, where one of the points looked at around it has no
+ * data, has to come out the same as one in the middle of the tile.
+ *
+ *   ant check
+ */
+public class AltitudeCheck {
+
+	static final double GPS = 150, ACCURACY = 20;
+	// 100m ground plus eye height, weighted 9:1 against the GPS height at this accuracy
+	static final double EXPECTED = 106.8;
+
+	public static void main(String[] args) throws Exception {
+		ElevationTiles dem = new ElevationTiles(TerrainCheck.WriteTile());
+
+		double middle = ObserverAltitude.Estimate(dem, 54.5, -2.6, true, GPS, ACCURACY);
+		Check.That(Math.abs(middle - EXPECTED) < 0.05, String.format("middle of the tile: %.1fm", middle));
+
+		Check.That(Double.isNaN(dem.GetElevation(55.0001, -2.6)), "no data north of the tile");
+		double edge = ObserverAltitude.Estimate(dem, 54.9999, -2.6, true, GPS, ACCURACY);
+		Check.That(Math.abs(edge - EXPECTED) < 0.05, String.format("northern edge of the tile: %.1fm", edge));
+
+		double off = ObserverAltitude.Estimate(dem, 56.5, -2.6, true, GPS, ACCURACY);
+		Check.That(off == GPS, String.format("off the tiles it's the GPS height: %.1fm", off));
+
+		double noGps = ObserverAltitude.Estimate(dem, 54.5, -2.6, false, 0, ACCURACY);
+		double eye = TerrainCheck.GROUND + HorizonProfile.EYE_HEIGHT_M;
+		Check.That(noGps == eye, String.format("without GPS height it's the ground plus eye height: %.1fm", noGps));
+		Check.Done();
+	}
+}
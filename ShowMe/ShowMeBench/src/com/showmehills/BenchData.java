@@ -0,0 +1,78 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.sql.SQLException;
+
+/*
+ * What the benchmarks share: where the apps' asset databases are, and the places to look from.
+ * The databases are found relative to showmehills.dir (the ShowMe folder, ".." when run from
+ * ShowMeBench as build.xml does).
+ */
+public class BenchData {
+
+	public static final String UK_DB = "hillsv1-uk.db";
+
+	// a dense spot and a sparse one, so the numbers cover both ends of what the query sees
+	public enum Location {
+		// Ambleside, with the Lake District fells all round
+		LakeDistrict(54.4327, -2.9631, 100),
+		// Forsinard in the Flow Country, hardly a named hill for miles
+		Highlands(58.3570, -3.8970, 150);
+
+		public final double latitude;
+		public final double longitude;
+		public final double altitude;
+
+		Location(double lat, double lon, double alt) {
+			latitude = lat;
+			longitude = lon;
+			altitude = alt;
+		}
+
+		public Observer GetObserver() {
+			return new Observer(latitude, longitude, altitude);
+		}
+	}
+
+	// an asset database by name, or any database by absolute path (e.g. one from genworld.py)
+	public static File AssetFile(String db) {
+		File given = new File(db);
+		if (given.isAbsolute()) return given;
+		String root = System.getProperty("showmehills.dir", "..");
+		File f;
+		if (db.equals(UK_DB)) f = new File(root, "ShowMeHillsUK/assets/" + db);
+		else f = new File(root, "ShowMePlaces/assets/" + db);
+		if (!f.exists()) throw new IllegalStateException("can't find " + f + ", set -Dshowmehills.dir to the ShowMe folder");
+		return f;
+	}
+
+	public static JdbcHillSource OpenAsset(String db) throws SQLException {
+		return new JdbcHillSource("jdbc:sqlite:" + AssetFile(db).getPath());
+	}
+
+	// the hills the app would have for this location with the default settings, nearest first
+	public static GeoEngine LoadEngine(Location where) throws SQLException {
+		GeoEngine engine = new GeoEngine(OpenAsset(UK_DB));
+		if (!engine.SetDirections(where.GetObserver(), new GeoEngine.Settings())) throw new IllegalStateException("couldn't read " + UK_DB);
+		return engine;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+/*
+ * Bookkeeping for the JVM checks (TerrainCheck and the rest, run by 'ant check'): each result is
+ * printed as it comes, and the run fails with exit code 1 if any didn't hold.
+ */
+class Check {
+
+	private static int failures = 0;
+
+	static void That(boolean ok, String what) {
+		System.out.println((ok ? "ok      " : "FAILED  ") + what);
+		if (!ok) failures++;
+	}
+
+	// exits, since some of what's checked leaves threads behind
+	static void Done() {
+		if (failures > 0) {
+			System.out.println(failures + " FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+		System.exit(0);
+	}
+}
@@ -0,0 +1,70 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * The compass filter, which runs for every magnetometer reading: AddLatest, and GetVariation
+ * which the status line asks for every frame. Windows from the smallest to the largest the
+ * smoothing preference offers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilteredDirectionBench {
+
+	@Param({ "10", "50", "200" })
+	public int window;
+
+	// a few degrees of noise either side of north, so the average has to cope with the wrap
+	private final double[] readings = new double[1024];
+	private FilteredDirection fd;
+	private int next = 0;
+
+	@Setup
+	public void Setup() {
+		Random r = new Random(42);
+		for (int i = 0; i < readings.length; i++) readings[i] = Math.toRadians(r.nextGaussian() * 3);
+		fd = new FilteredDirection(window);
+		for (int i = 0; i < window; i++) fd.AddLatest(readings[i % readings.length]);
+	}
+
+	@Benchmark
+	public double AddLatest() {
+		fd.AddLatest(readings[next++ & (readings.length - 1)]);
+		return fd.getDirection();
+	}
+
+	@Benchmark
+	public int GetVariation() {
+		return fd.GetVariation();
+	}
+}
@@ -0,0 +1,85 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * LocationFusion against made-up fixes: network fixes shouldn't drag a good GPS position about,
+ * old fixes count for less and very old ones not at all, and every change is a new snapshot one
+ * version on, leaving the old one as it was.
+ *
+ *   ant check
+ */
+public class FusionCheck {
+
+	static final double LAT = 54.5, LON = -3.0;
+	static final double METRES_PER_DEGREE = 111320;
+
+	// a point the given number of metres north of LAT, LON
+	static double North(double metres) {
+		return LAT + metres / METRES_PER_DEGREE;
+	}
+
+	public static void main(String[] args) {
+		// a network fix 300m away, claiming as good as the GPS one, moves the estimate less than halfway
+		LocationFusion f = new LocationFusion();
+		LocationFusion.Snapshot first = f.Add("gps", LAT, LON, true, 200, 10, 0, 0);
+		LocationFusion.Snapshot s = f.Add("network", North(300), LON, false, 0, 10, 1000, 1000);
+		double moved = LocationFusion.Distance(first, s);
+		Check.That(moved > 0 && moved < 100, String.format("a network fix 300m off moves it %.0fm", moved));
+		Check.That(first.version == 1 && s.version == 2, "versions go 1, 2 (" + first.version + ", " + s.version + ")");
+		Check.That(first.latitude == LAT && first.longitude == LON, "the first snapshot is left as it was");
+		Check.That(s.hasAltitude && s.altitude == 200, "a fix without altitude keeps the last one (" + s.altitude + ")");
+		Check.That("network".equals(s.provider), "the snapshot names the provider that moved it");
+
+		// the same GPS fix a minute old counts for less than a fresh one
+		LocationFusion fresh = new LocationFusion();
+		LocationFusion stale = new LocationFusion();
+		fresh.Add("gps", LAT, LON, false, 0, 10, 0, 0);
+		stale.Add("gps", LAT, LON, false, 0, 10, 0, 0);
+		double freshMoved = LocationFusion.Distance(LAT, LON, fresh.Add("gps", North(100), LON, false, 0, 10, 60000, 60000).latitude, LON);
+		double staleMoved = LocationFusion.Distance(LAT, LON, stale.Add("gps", North(100), LON, false, 0, 10, 1000, 60000).latitude, LON);
+		Check.That(staleMoved < freshMoved, String.format("a minute-old fix moves it %.0fm, a fresh one %.0fm", staleMoved, freshMoved));
+
+		// older than two minutes is ignored once there's a position
+		long version = stale.GetSnapshot().version;
+		Check.That(stale.Add("gps", North(500), LON, false, 0, 10, 0, 200000) == null, "a fix over two minutes old is ignored");
+		Check.That(stale.GetSnapshot().version == version, "and doesn't change the version");
+
+		// GPS and network taking turns, a second apart: the estimate stays with the GPS
+		LocationFusion turns = new LocationFusion();
+		double furthest = 0;
+		for (int i = 0; i < 40; i++) {
+			boolean gps = (i % 2 == 0);
+			LocationFusion.Snapshot t = turns.Add(gps ? "gps" : "network", gps ? LAT : North(200), LON,
+					false, 0, gps ? 5 : 30, i * 1000, i * 1000);
+			furthest = Math.max(furthest, LocationFusion.Distance(LAT, LON, t.latitude, t.longitude));
+		}
+		Check.That(furthest < 20, String.format("GPS 5m and network 30m taking turns 200m apart: at most %.1fm from the GPS", furthest));
+
+		// a step north moves it a step and makes it less certain
+		LocationFusion.Snapshot before = turns.GetSnapshot();
+		LocationFusion.Snapshot after = turns.Advance(0.75, 0, 0.3, 41000);
+		double step = (after.latitude - before.latitude) * METRES_PER_DEGREE;
+		Check.That(Math.abs(step - 0.75) < 0.001, String.format("a step north moves it %.2fm", step));
+		Check.That(after.accuracy > before.accuracy, "and makes it less certain");
+		Check.That(new LocationFusion().Advance(1, 0, 1, 0) == null, "there's nothing to step before the first fix");
+		Check.Done();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * The label's second line - direction, distance and height - which DrawOnTop builds again for
+ * every label every frame. Per label, with everything switched on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LabelFormatBench {
+
+	@Param({ "true", "false" })
+	public boolean metric;
+
+	private ArrayList<Hills> hills;
+	private final LabelLayout layout = new LabelLayout();
+	private int next = 0;
+
+	@Setup
+	public void Setup() throws Exception {
+		hills = BenchData.LoadEngine(BenchData.Location.LakeDistrict).GetHills();
+		layout.showdir = true;
+		layout.showdist = true;
+		layout.showheight = true;
+		layout.metric = metric;
+	}
+
+	@Benchmark
+	public String Details() {
+		Hills h = hills.get(next);
+		if (++next == hills.size()) next = 0;
+		return layout.Details(h);
+	}
+
+	@Benchmark
+	public String HeightText() {
+		Hills h = hills.get(next);
+		if (++next == hills.size()) next = 0;
+		return LabelLayout.HeightText(h.height, metric);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * DrawOnTop's label layout (what calculateHillsCanFitOnCanvas was), done once a frame over every
+ * hill in range. The heading turns a few degrees each call so the hills in view keep changing,
+ * as they do when the phone is panned.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LabelLayoutBench {
+
+	@Param({ "LakeDistrict", "Highlands" })
+	public BenchData.Location location;
+
+	// with the extra line the labels take twice the room, so fewer fit
+	@Param({ "true", "false" })
+	public boolean details;
+
+	// a 480x800 screen held in landscape, as DrawOnTop would start it
+	private static final int TOP_PT = (int)(480 / 1.6);
+
+	private ArrayList<Hills> hills;
+	private final LabelLayout layout = new LabelLayout();
+	private double heading = 0;
+
+	@Setup
+	public void Setup() throws Exception {
+		hills = BenchData.LoadEngine(location).GetHills();
+		layout.showdir = details;
+		layout.showdist = details;
+		layout.showheight = details;
+	}
+
+	@Benchmark
+	public int Layout() {
+		heading = (heading + 7) % 360;
+		return layout.Layout(hills, heading, TOP_PT);
+	}
+}
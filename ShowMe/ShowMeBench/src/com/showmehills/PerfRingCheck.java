@@ -0,0 +1,92 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/*
+ * PerfRing and PerfRingReader with a small ring file: writing past the end keeps the latest
+ * records, reopening starts the next session and keeps the last one's, a file of a different
+ * capacity is started afresh, and the session summary's fix accuracy median is the middle fix.
+ *
+ *   ant check
+ */
+public class PerfRingCheck {
+
+	static final int CAPACITY = 8;
+
+	static ArrayList<PerfRingReader.Entry> Of(ArrayList<PerfRingReader.Entry> all, int session, PerfRing.Type type) {
+		ArrayList<PerfRingReader.Entry> some = new ArrayList<PerfRingReader.Entry>();
+		for (PerfRingReader.Entry e : all) {
+			if (e.session == session && (type == null || e.type == type)) some.add(e);
+		}
+		return some;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File f = File.createTempFile("perf", ".ring");
+		f.deleteOnExit();
+
+		// the session record and 20 frames through 8 slots
+		PerfRing ring = PerfRing.Open(f, CAPACITY);
+		Check.That(ring.GetSession() == 1, "a new file starts at session 1");
+		for (int i = 0; i < 20; i++) ring.Record(PerfRing.Type.Frame, i, 0);
+		ArrayList<PerfRingReader.Entry> all = PerfRingReader.Read(ring.Snapshot());
+		// the oldest slot could have been half written, so it's left out
+		Check.That(all.size() == CAPACITY - 1, "after wrapping, all but the oldest slot are read (" + all.size() + ")");
+		boolean latest = true;
+		for (int i = 0; i < all.size(); i++) latest &= all.get(i).type == PerfRing.Type.Frame && all.get(i).a == 13 + i;
+		Check.That(latest, "and they're the latest frames, oldest first");
+
+		// reopening: the next session, with what's left of the last one before it
+		ring = PerfRing.Open(f, CAPACITY);
+		Check.That(ring.GetSession() == 2, "reopened, it's session 2");
+		all = PerfRingReader.Read(ring.Snapshot());
+		Check.That(Of(all, 1, PerfRing.Type.Frame).size() == CAPACITY - 2, "session 1's frames are kept, less the slot the new session took");
+		ArrayList<PerfRingReader.Entry> two = Of(all, 2, null);
+		Check.That(two.size() == 1 && two.get(0).type == PerfRing.Type.Session
+				&& Math.abs(two.get(0).a - System.currentTimeMillis() / 1000) < 60, "session 2 starts with its start time");
+		Check.That(all.get(all.size() - 1).session == 2, "after session 1's records");
+
+		// a different capacity: the old records can't be trusted, so start again
+		ring = PerfRing.Open(f, CAPACITY * 2);
+		all = PerfRingReader.Read(ring.Snapshot());
+		Check.That(ring.GetSession() == 1 && all.size() == 1 && all.get(0).type == PerfRing.Type.Session,
+				"opened at another capacity, it starts afresh at session 1 (" + all.size() + " records)");
+
+		// fixes of 3, 4, 5, 6 and 12m: the median is 5m
+		int[] dm = { 120, 30, 50, 40, 60 };
+		for (int a : dm) ring.Record(PerfRing.Type.Location, a, PerfRing.PROVIDER_GPS);
+		String summary = PerfRingReader.Summary(PerfRingReader.Read(ring.Snapshot()));
+		System.out.print(summary);
+		Check.That(summary.contains("fixes 5: median +/-5m, last +/-6m gps"), "the fix accuracy median is the middle one, 5m");
+
+		try {
+			PerfRingReader.Read(ByteBuffer.allocate(PerfRing.HEADER + CAPACITY * PerfRing.SLOT));
+			Check.That(false, "something that isn't a ring is refused");
+		} catch (IOException e) {
+			Check.That(true, "something that isn't a ring is refused");
+		}
+		Check.Done();
+	}
+}
@@ -0,0 +1,91 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * The whole of HillDatabase.SetDirections as the phone runs it whenever we move: the query on the
+ * asset database, direction and distance for every row, the filters and the sort. SQLite here is
+ * the desktop one through JDBC, so it's the Java side that compares with the phone, not the
+ * absolute time.
+ *
+ * Only hillsv1-uk.db: the ShowMePlaces hills.db has no height column, so the query can't run on it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SetDirectionsBench {
+
+	@Param({ BenchData.UK_DB })
+	public String db;
+
+	@Param({ "LakeDistrict", "Highlands" })
+	public BenchData.Location location;
+
+	// the default, and far enough for level of detail to kick in
+	@Param({ "25", "60" })
+	public float maxKm;
+
+	@Param({ "true", "false" })
+	public boolean lod;
+
+	// query timing into the Metrics registry, as with the perf HUD on; should cost well under 1%
+	@Param({ "false", "true" })
+	public boolean metrics;
+
+	private JdbcHillSource source;
+	private GeoEngine engine;
+	private Observer observer;
+	private final GeoEngine.Settings settings = new GeoEngine.Settings();
+
+	@Setup
+	public void Setup() throws Exception {
+		source = BenchData.OpenAsset(db);
+		engine = new GeoEngine(source);
+		observer = location.GetObserver();
+		settings.maxDistance = maxKm;
+		settings.lod = lod;
+		Metrics.Get().SetEnabled(metrics);
+		if (!engine.SetDirections(observer, settings)) throw new IllegalStateException("couldn't read " + db);
+	}
+
+	@TearDown
+	public void TearDown() {
+		source.Close();
+		Metrics.Get().SetEnabled(false);
+	}
+
+	@Benchmark
+	public int SetDirections() {
+		engine.SetDirections(observer, settings);
+		return engine.GetHills().size();
+	}
+}
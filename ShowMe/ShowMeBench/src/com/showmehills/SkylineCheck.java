@@ -0,0 +1,105 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * SkylineMatcher against made-up camera frames: a skyline of a few overlapping waves and a peak,
+ * drawn into a luminance image as it would look with the compass out by a known amount. The
+ * matcher has to find that amount, and has to give up on a flat skyline or a frame with no
+ * sky in it.
+ *
+ *   ant check
+ */
+public class SkylineCheck {
+
+	static final int WIDTH = 640, HEIGHT = 480, COLUMNS = 48;
+	static final double HFOV = 50, VFOV = 40;
+	static final double PITCH = Math.toRadians(2);
+	static final double CLOSE_ENOUGH_DEG = 0.3;
+
+	// horizon angle in degrees, for any bearing
+	static double Hilly(double bearing) {
+		double peak = (bearing - 120) / 4;
+		return 1.5 + 2 * Math.sin(Math.toRadians(bearing * 7)) + 1.2 * Math.sin(Math.toRadians(bearing * 17 + 40))
+				+ 3 * Math.exp(-peak * peak);
+	}
+
+	static float[] Skyline(boolean flat) {
+		float[] skyline = new float[TerrainOcclusion.BINS];
+		for (int b = 0; b < skyline.length; b++) {
+			double bearing = b * 360.0 / skyline.length;
+			skyline[b] = (float)Math.toRadians(flat ? 1.5 : Hilly(bearing));
+		}
+		return skyline;
+	}
+
+	/*
+	 * The frame the camera sees when the compass says 'heading' but it's really pointing
+	 * 'heading + offset': bright sky above the skyline, darker ground below, some noise on both.
+	 * Rows are placed the way DrawOnTop places the skyline.
+	 */
+	static byte[] Frame(float[] skyline, double heading, double offset, Random noise) {
+		byte[] lum = new byte[WIDTH * HEIGHT];
+		for (int x = 0; x < WIDTH; x++) {
+			double bearing = heading + offset + ((x + 0.5) / WIDTH - 0.5) * HFOV;
+			int bin = (int)Math.round(bearing * skyline.length / 360.0) % skyline.length;
+			if (bin < 0) bin += skyline.length;
+			double edge = 0.5 + Math.toDegrees(skyline[bin] - PITCH) / VFOV;
+			for (int y = 0; y < HEIGHT; y++) {
+				int v = ((double)y / HEIGHT < edge ? 200 : 70) + noise.nextInt(31) - 15;
+				lum[y * WIDTH + x] = (byte)v;
+			}
+		}
+		return lum;
+	}
+
+	static double Find(SkylineMatcher matcher, byte[] lum, double heading, float[] skyline) {
+		float[] edges = new float[COLUMNS];
+		matcher.FindEdge(lum, WIDTH, HEIGHT, COLUMNS, edges);
+		return matcher.Match(edges, COLUMNS, heading, PITCH, HFOV, VFOV, skyline);
+	}
+
+	public static void main(String[] args) {
+		SkylineMatcher matcher = new SkylineMatcher();
+		Random noise = new Random(1);
+		float[] hilly = Skyline(false);
+
+		// [heading the compass gives, how far out it is]; the last goes through north
+		double[][] cases = { { 100, 7.3 }, { 100, -12.5 }, { 150, 0 }, { 355, 8 } };
+		for (double[] c : cases) {
+			double found = Find(matcher, Frame(hilly, c[0], c[1], noise), c[0], hilly);
+			Check.That(Math.abs(found - c[1]) <= CLOSE_ENOUGH_DEG,
+					String.format("heading %.0f out by %.1f: found %.1f", c[0], c[1], found));
+		}
+
+		float[] flat = Skyline(true);
+		double found = Find(matcher, Frame(flat, 100, 5, noise), 100, flat);
+		Check.That(Double.isNaN(found), "no answer from a flat skyline (" + found + ")");
+
+		byte[] fog = new byte[WIDTH * HEIGHT];
+		Arrays.fill(fog, (byte)128);
+		found = Find(matcher, fog, 100, hilly);
+		Check.That(Double.isNaN(found), "no answer from a frame with no edge in it (" + found + ")");
+		Check.Done();
+	}
+}
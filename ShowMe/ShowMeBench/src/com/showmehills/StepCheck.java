@@ -0,0 +1,177 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * StepDetector and MotionStateDetector against two short accelerometer traces in the
+ * TraceRecorder format, fed in the way OrientationFilter feeds them:
+ *
+ *  walk.smht:  5s on a table, WALK_STEPS steps at STEP_S apart, then 12s back on the table
+ *  still.smht: 10s on a table, then picked up
+ *
+ * The traces are made up rather than recorded (StepCheck -write <dir> makes them again): 50
+ * readings a second, the phone held upright, each step a bounce of a few m/s^2 with some sway
+ * and noise on top. They're checked in so that the detectors are always run against the same
+ * readings.
+ *
+ *   ant check
+ */
+public class StepCheck {
+
+	static final long READING_NS = 20000000L; // 50Hz
+	static final double GRAVITY = 9.81;
+
+	static final double WALK_START_S = 5;
+	static final int WALK_STEPS = 22;
+	static final double STEP_S = 0.55;
+	static final double WALK_END_S = WALK_START_S + WALK_STEPS * STEP_S;
+	static final double WALK_TRACE_S = WALK_END_S + 12;
+	// the variance after walking takes most of this to die down, before the two quiet seconds
+	static final double SETTLE_S = 10;
+
+	static final double PICKUP_S = 10;
+	static final double STILL_TRACE_S = 11;
+
+	// the state changes seen in a trace, and when
+	static class Run {
+		int steps = 0;
+		final ArrayList<MotionStateDetector.State> states = new ArrayList<MotionStateDetector.State>();
+		final ArrayList<Double> times = new ArrayList<Double>();
+
+		// first time (s) the given state was entered at or after 'from', NaN if never
+		double Entered(MotionStateDetector.State s, double from) {
+			for (int i = 0; i < states.size(); i++) {
+				if (states.get(i) == s && times.get(i) >= from) return times.get(i);
+			}
+			return Double.NaN;
+		}
+	}
+
+	static Run Play(File trace) throws IOException {
+		StepDetector steps = new StepDetector();
+		MotionStateDetector motion = new MotionStateDetector();
+		Run run = new Run();
+		TraceReader in = new TraceReader(new FileInputStream(trace));
+		try {
+			TraceReader.Record r = new TraceReader.Record();
+			long first = -1;
+			MotionStateDetector.State last = null;
+			while (in.Next(r)) {
+				if (r.type != TraceRecorder.SENSOR || r.sensor != OrientationFilter.TYPE_ACCELEROMETER) continue;
+				if (first < 0) first = r.timestamp;
+				if (steps.AddSample(r.values[0], r.values[1], r.values[2], r.timestamp) > 0) run.steps++;
+				MotionStateDetector.State s = motion.AddSample(r.values[0], r.values[1], r.values[2],
+						r.timestamp, steps.IsWalking(r.timestamp));
+				if (s != last) {
+					run.states.add(s);
+					run.times.add((r.timestamp - first) / 1e9);
+					last = s;
+				}
+			}
+		} finally {
+			in.Close();
+		}
+		return run;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 2 && args[0].equals("-write")) {
+			Write(new File(args[1]));
+			return;
+		}
+		File dir = new File(args.length > 0 ? args[0] : "traces");
+
+		Run walk = Play(new File(dir, "walk.smht"));
+		System.out.println("walk:  " + walk.states + " at " + walk.times);
+		Check.That(walk.steps == WALK_STEPS, "walking: " + walk.steps + " of " + WALK_STEPS + " steps counted");
+		double still = walk.Entered(MotionStateDetector.State.Stationary, 0);
+		Check.That(still < WALK_START_S, String.format("stationary on the table first, from %.2fs", still));
+		double moving = walk.Entered(MotionStateDetector.State.Panning, still);
+		Check.That(moving >= WALK_START_S && moving < WALK_START_S + 0.1,
+				String.format("moving as soon as the walk starts at %.0fs: %.2fs", WALK_START_S, moving));
+		double walking = walk.Entered(MotionStateDetector.State.Walking, 0);
+		Check.That(walking < WALK_START_S + 2 * STEP_S, String.format("walking within two steps: %.2fs", walking));
+		double stopped = walk.Entered(MotionStateDetector.State.Stationary, walking);
+		Check.That(stopped > WALK_END_S && stopped < WALK_END_S + SETTLE_S,
+				String.format("stationary again within %.0fs of the walk ending at %.2fs: %.2fs", SETTLE_S, WALK_END_S, stopped));
+		Check.That(walk.states.get(walk.states.size() - 1) == MotionStateDetector.State.Stationary, "and still at the end");
+
+		Run table = Play(new File(dir, "still.smht"));
+		System.out.println("still: " + table.states + " at " + table.times);
+		Check.That(table.steps == 0, "on a table: " + table.steps + " steps counted");
+		still = table.Entered(MotionStateDetector.State.Stationary, 0);
+		Check.That(still < 4, String.format("stationary from %.2fs", still));
+		moving = table.Entered(MotionStateDetector.State.Panning, still);
+		Check.That(Math.abs(moving - PICKUP_S) < READING_NS / 1e9 / 2,
+				String.format("moving on the first reading after being picked up at %.0fs: %.2fs", PICKUP_S, moving));
+		Check.That(Double.isNaN(table.Entered(MotionStateDetector.State.Walking, 0)), "never walking");
+		Check.Done();
+	}
+
+	// makes the two traces again
+	static void Write(File dir) throws IOException {
+		dir.mkdirs();
+		Random noise = new Random(36);
+		TraceRecorder out = new TraceRecorder(new FileOutputStream(new File(dir, "walk.smht")));
+		float[] v = new float[3];
+		for (long t = 0; t < WALK_TRACE_S * 1e9; t += READING_NS) {
+			double s = t / 1e9;
+			if (s >= WALK_START_S && s < WALK_END_S) {
+				// a bounce per step, and a sway from side to side every two
+				double phase = 2 * Math.PI * (s - WALK_START_S) / STEP_S;
+				v[0] = (float)(0.8 * Math.sin(phase / 2) + 0.15 * noise.nextGaussian());
+				v[1] = (float)(GRAVITY + 3.0 * Math.sin(phase) + 0.6 * Math.sin(2 * phase) + 0.15 * noise.nextGaussian());
+				v[2] = (float)(0.5 * Math.sin(phase + 1) + 0.15 * noise.nextGaussian());
+			} else {
+				Flat(v, noise);
+			}
+			out.Sensor(OrientationFilter.TYPE_ACCELEROMETER, 3, t, v);
+		}
+		out.Close();
+
+		out = new TraceRecorder(new FileOutputStream(new File(dir, "still.smht")));
+		for (long t = 0; t < STILL_TRACE_S * 1e9; t += READING_NS) {
+			double s = t / 1e9;
+			Flat(v, noise);
+			if (s >= PICKUP_S) {
+				// lifted: a jolt upwards, then tipped towards the face
+				double since = s - PICKUP_S;
+				v[2] += (float)(1.5 * Math.exp(-since / 0.2));
+				v[1] += (float)(GRAVITY * Math.sin(Math.min(1, since / 0.8)) * 0.5);
+			}
+			out.Sensor(OrientationFilter.TYPE_ACCELEROMETER, 3, t, v);
+		}
+		out.Close();
+	}
+
+	// lying face up on a table: gravity on z and a little sensor noise
+	static void Flat(float[] v, Random noise) {
+		v[0] = (float)(0.01 * noise.nextGaussian());
+		v[1] = (float)(0.01 * noise.nextGaussian());
+		v[2] = (float)(GRAVITY + 0.01 * noise.nextGaussian());
+	}
+}
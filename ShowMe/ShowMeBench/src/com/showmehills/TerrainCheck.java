@@ -0,0 +1,163 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Terrain occlusion against a made-up elevation tile: flat ground at GROUND metres with a ridge
+ * RIDGE metres high running north-south a few km east of the observer. A hill in front of the
+ * ridge must be shown, a low one behind it hidden and a high one behind it shown. Also that the
+ * skyline table is filled in starting from the way the camera points.
+ *
+ *   ant check
+ */
+public class TerrainCheck {
+
+	static final int SIZE = 1201; // a 3" tile
+	static final int GROUND = 100;
+	static final int RIDGE = 600;
+	// the tile is N54W003; the ridge is a few hundred metres wide about -2.5
+	static final double RIDGE_LON = -2.5;
+	static final double RIDGE_HALF_WIDTH = 0.004;
+
+	static final double LAT = 54.5, LON = -2.6;
+
+	// writes the tile into a new directory and returns it
+	static File WriteTile() throws IOException {
+		File dir = File.createTempFile("dem", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		File f = new File(dir, ElevationTiles.TileName(54, -3));
+		f.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+		try {
+			for (int r = 0; r < SIZE; r++) {
+				for (int c = 0; c < SIZE; c++) {
+					double lon = -3 + (double)c / (SIZE - 1);
+					out.writeShort(Math.abs(lon - RIDGE_LON) <= RIDGE_HALF_WIDTH ? RIDGE : GROUND);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return dir;
+	}
+
+	public static void main(String[] args) throws Exception {
+		ElevationTiles dem = new ElevationTiles(WriteTile());
+		Check.That(dem.GetElevation(LAT, LON) == GROUND, "ground under the observer is " + GROUND + "m");
+		Check.That(dem.GetElevation(LAT, RIDGE_LON) == RIDGE, "the ridge is " + RIDGE + "m");
+
+		ArrayList<Hills> hills = new ArrayList<Hills>();
+		Hills front = new Hills(1, "in front", -2.55, LAT, 300);
+		Hills behind = new Hills(2, "behind", -2.3, LAT, 400);
+		Hills above = new Hills(3, "behind but higher", -2.3, LAT, 3000);
+		hills.add(front);
+		hills.add(behind);
+		hills.add(above);
+		double alt = GROUND + HorizonProfile.EYE_HEIGHT_M;
+		for (Hills h : hills) h.SetDirectionFrom(LAT, LON, alt);
+
+		TerrainOcclusion terrain = new TerrainOcclusion(dem);
+		terrain.Update(LAT, LON, alt, 30, 0.25);
+		long deadline = System.currentTimeMillis() + 30000;
+		while (terrain.GetVersion() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		Check.That(terrain.GetVersion() > 0, "a horizon profile was worked out");
+
+		int hidden = terrain.Mark(hills, LAT, LON, 0.25);
+		Check.That(!front.occluded, "a hill in front of the ridge is shown");
+		Check.That(behind.occluded, "a low hill behind the ridge is hidden");
+		Check.That(!above.occluded, "a hill behind the ridge but higher than it is shown");
+		Check.That(hidden == 1, "one hill hidden (" + hidden + ")");
+
+		// the skyline east is the ridge, west is flat ground falling away
+		float[] skyline = terrain.GetSkyline(90);
+		double east = Math.toDegrees(skyline[TerrainOcclusion.BINS / 4]);
+		double west = Math.toDegrees(skyline[TerrainOcclusion.BINS * 3 / 4]);
+		Check.That(east > 3 && east < 6, String.format("the skyline east is the ridge, %.2f degrees up", east));
+		Check.That(west < 0, String.format("the skyline west is below level, %.2f degrees", west));
+
+		CheckSkylineOrder(dem, alt);
+		Check.Done();
+	}
+
+	/*
+	 * Runs the rays one task at a time, looking at the skyline table after the first few: the bins
+	 * filled in by then should be one run either side of the heading the camera was at.
+	 */
+	static void CheckSkylineOrder(ElevationTiles dem, double alt) throws InterruptedException {
+		final int bins = TerrainOcclusion.BINS;
+		final float[] skyline = new float[bins];
+		Arrays.fill(skyline, Float.NaN);
+		final int[] afterThree = new int[3]; // bins filled, first and last of them
+		ExecutorService inline = new InlinePool() {
+			int tasks = 0;
+			public void execute(Runnable r) {
+				r.run();
+				if (++tasks != 3) return;
+				int first = -1, last = -1, n = 0;
+				for (int b = 0; b < bins; b++) {
+					if (Float.isNaN(skyline[b])) continue;
+					if (first < 0) first = b;
+					last = b;
+					n++;
+				}
+				afterThree[0] = n;
+				afterThree[1] = first;
+				afterThree[2] = last;
+			}
+		};
+		HorizonProfile p = HorizonProfile.Compute(dem, LAT, LON, alt, 30, bins, inline, skyline, 90);
+
+		int heading = bins / 4;
+		Check.That(afterThree[2] - afterThree[1] + 1 == afterThree[0],
+				"the first rays done are next to each other (" + afterThree[1] + ".." + afterThree[2] + ")");
+		Check.That(afterThree[1] < heading && heading < afterThree[2], "and either side of the heading, bin " + heading);
+		int missing = 0, different = 0;
+		for (int b = 0; b < bins; b++) {
+			if (Float.isNaN(skyline[b])) missing++;
+			else if (Math.abs(skyline[b] - p.HorizonAngle(b * 360.0 / bins)) > 1e-6) different++;
+		}
+		Check.That(missing == 0, "every bin of the skyline is filled in (" + missing + " missing)");
+		Check.That(different == 0, "and matches the profile (" + different + " differ)");
+	}
+
+	// runs each task as it's handed over, so the order can be seen
+	static abstract class InlinePool extends AbstractExecutorService {
+		public void shutdown() {}
+		public List<Runnable> shutdownNow() { return new ArrayList<Runnable>(); }
+		public boolean isShutdown() { return false; }
+		public boolean isTerminated() { return false; }
+		public boolean awaitTermination(long timeout, TimeUnit unit) { return true; }
+	}
+}
@@ -0,0 +1,183 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/*
+ * TraceRecorder and TraceReader round trip, and TraceReplay of a made-up session against the UK
+ * hills csv: a minute walking north from Ambleside with GPS fixes every second, then a minute
+ * with the phone put down. Two replays of the same trace have to come out the same.
+ *
+ *   ant check
+ */
+public class TraceCheck {
+
+	static final double LAT = 54.43, LON = -2.96;
+	static final double METRES_PER_DEGREE = 111320;
+	static final long START_MS = 1700000000000L;
+	static final int WALK_S = 60, REST_S = 60;
+	static final double WALK_MPS = 1.4;
+	static final double STEP_S = 0.55;
+
+	public static void main(String[] args) throws Exception {
+		CheckRoundTrip();
+
+		File trace = File.createTempFile("session", ".smht");
+		trace.deleteOnExit();
+		FileOutputStream f = new FileOutputStream(trace);
+		try {
+			f.write(Session());
+		} finally {
+			f.close();
+		}
+		File csv = new File(System.getProperty("showmehills.dir", ".."), "Database/BritishHillsDbForImport.csv");
+		String first = Replay(trace, csv);
+		String second = Replay(trace, csv);
+		System.out.print(first);
+		Check.That(first.equals(second), "two replays of the same trace come out the same");
+		Check.That(Has(first, "sensor readings " + (WALK_S + REST_S) * 60 + ","), "every sensor reading is replayed");
+		Check.That(Has(first, "replayed " + (WALK_S + REST_S) + "\\.0s"), "over the " + (WALK_S + REST_S) + "s they were recorded in");
+		Check.That(Has(first, "seeds 1,"), "the seed fix is passed on as one");
+		Check.That(Has(first, "significant moves [1-9]"), "walking " + (int)(WALK_S * WALK_MPS) + "m makes a significant move");
+		Check.That(Has(first, "hill lookups [1-9]"), "and hills are looked up");
+		Check.That(Has(first, "motion changes [1-9]"), "the phone being put down is seen");
+		Check.That(Has(first, "steps " + (int)(WALK_S / STEP_S) + ","), "a step every " + STEP_S + "s is counted");
+		Check.That(Has(first, "rate changes 2"), "the update rate is set, then slowed once the phone is put down");
+		Check.Done();
+	}
+
+	static boolean Has(String text, String regex) {
+		return Pattern.compile(regex).matcher(text).find();
+	}
+
+	// every record type written and read back, then the same cut off part way through a record
+	static void CheckRoundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TraceRecorder out = new TraceRecorder(bytes);
+		out.Sensor(OrientationFilter.TYPE_MAGNETIC_FIELD, 2, 123456789L, new float[] { 1.5f, -20.25f, 40 });
+		out.Fix(true, "network", LAT, LON, true, 55.5, 12.5f, true, 1.25f, START_MS, START_MS + 7);
+		out.Fix(false, null, -LAT, -LON, false, 0, 3, false, 0, START_MS + 1000, START_MS + 1001);
+		out.Rotation(OrientationFilter.ROTATION_270);
+		out.Close();
+		byte[] whole = bytes.toByteArray();
+
+		TraceReader in = new TraceReader(new ByteArrayInputStream(whole));
+		TraceReader.Record r = new TraceReader.Record();
+		Check.That(in.Next(r) && r.type == TraceRecorder.SENSOR && r.sensor == OrientationFilter.TYPE_MAGNETIC_FIELD
+				&& r.accuracy == 2 && r.timestamp == 123456789L && Arrays.equals(r.values, new float[] { 1.5f, -20.25f, 40 }),
+				"a sensor reading reads back as written");
+		Check.That(in.Next(r) && r.type == TraceRecorder.FIX && r.seed && "network".equals(r.provider)
+				&& r.latitude == LAT && r.longitude == LON && r.hasAltitude && r.altitude == 55.5 && r.fixAccuracy == 12.5f
+				&& r.hasSpeed && r.speed == 1.25f && r.time == START_MS && r.received == START_MS + 7,
+				"a fix reads back as written");
+		Check.That(in.Next(r) && r.type == TraceRecorder.FIX && !r.seed && "".equals(r.provider) && r.latitude == -LAT
+				&& !r.hasAltitude && !r.hasSpeed, "a fix with no provider reads back with an empty one");
+		long at = r.at;
+		Check.That(in.Next(r) && r.type == TraceRecorder.ROTATION && r.rotation == OrientationFilter.ROTATION_270
+				&& r.at >= at, "a rotation reads back as written, no earlier than the record before");
+		Check.That(!in.Next(r), "and that's the end");
+		in.Close();
+
+		// the rotation is 10 bytes; cut it off after 4
+		in = new TraceReader(new ByteArrayInputStream(Arrays.copyOf(whole, whole.length - 6)));
+		int n = 0;
+		while (in.Next(r)) n++;
+		Check.That(n == 3, "a trace cut off mid-record ends at the last whole one (" + n + " records)");
+
+		try {
+			new TraceReader(new ByteArrayInputStream(new byte[] { 'P', 'K', 3, 4, 0, 0, 0, 1 }));
+			Check.That(false, "something that isn't a trace is refused");
+		} catch (IOException e) {
+			Check.That(true, "something that isn't a trace is refused");
+		}
+	}
+
+	/*
+	 * A phone held flat, walking north at WALK_MPS with a GPS fix every second, then put down on a
+	 * table for REST_S. Accelerometer at 50Hz, magnetometer at 10Hz, no noise. Each record arrives
+	 * when it was taken, as far as the recorder's clock is concerned.
+	 */
+	static byte[] Session() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final long[] now = { 0 };
+		TraceRecorder out = new TraceRecorder(bytes, new TraceRecorder.Clock() {
+			public long Nanos() {
+				return now[0];
+			}
+		});
+		out.Rotation(OrientationFilter.ROTATION_0);
+		out.Fix(true, "network", LAT, LON, false, 0, 500, false, 0, START_MS - 60000, START_MS);
+		float[] v = new float[3];
+		for (int ms = 0; ms < (WALK_S + REST_S) * 1000; ms += 20) {
+			long ns = ms * 1000000L;
+			now[0] = ns;
+			double s = ms / 1000.0;
+			boolean walking = s < WALK_S;
+			double phase = 2 * Math.PI * s / STEP_S;
+			v[0] = 0;
+			v[1] = walking ? (float)(0.8 * Math.sin(phase / 2)) : 0;
+			v[2] = (float)(9.81 + (walking ? 3 * Math.sin(phase) : 0));
+			out.Sensor(OrientationFilter.TYPE_ACCELEROMETER, 3, ns, v);
+			if (ms % 100 == 0) {
+				// field pointing north and down
+				v[0] = 0;
+				v[1] = 20;
+				v[2] = -40;
+				out.Sensor(OrientationFilter.TYPE_MAGNETIC_FIELD, 3, ns, v);
+			}
+			if (ms % 1000 == 0) {
+				double north = Math.min(s, WALK_S) * WALK_MPS;
+				out.Fix(false, "gps", LAT + north / METRES_PER_DEGREE, LON, true, 60, 5, walking, walking ? (float)WALK_MPS : 0,
+						START_MS + ms, START_MS + ms);
+			}
+		}
+		out.Close();
+		return bytes.toByteArray();
+	}
+
+	/*
+	 * What TraceReplay prints for the trace, with the timings taken out. The metrics it ends with
+	 * are left off too, since they add up over every replay in the one JVM.
+	 */
+	static String Replay(File trace, File csv) throws Exception {
+		ByteArrayOutputStream text = new ByteArrayOutputStream();
+		PrintStream was = System.out;
+		System.setOut(new PrintStream(text, true, "UTF-8"));
+		try {
+			TraceReplay.main(new String[] { trace.getPath(), csv.getPath(), "-quiet" });
+		} finally {
+			System.setOut(was);
+		}
+		StringBuilder kept = new StringBuilder();
+		for (String line : text.toString("UTF-8").split("\n")) {
+			kept.append(line.replaceAll("[0-9.]+ms", "-ms")).append('\n');
+			if (line.startsWith("final position")) break;
+		}
+		return kept.toString();
+	}
+}
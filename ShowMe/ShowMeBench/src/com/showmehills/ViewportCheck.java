@@ -0,0 +1,195 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * ViewportHills and MarkerClusters against the UK hills csv: a map view around Ambleside gets
+ * each tile's highest hills, asks for each tile once however often it's viewed, only asks for
+ * the new edge when panned, doesn't keep a tile it couldn't read, and lets the oldest tiles go.
+ * The markers group into cells with the highest hill on top, and change by difference.
+ *
+ *   ant check
+ */
+public class ViewportCheck {
+
+	static final int ZOOM = 11;
+	static final int LAT_E6 = 54430000, LON_E6 = -2960000;
+	static final int HALF_LAT_E6 = 400000, HALF_LON_E6 = 300000;
+
+	// passes the csv through, counting Area calls and failing the next few if asked to
+	static class CountingSource implements HillSource {
+		final HillSource hills;
+		int areas = 0;
+		int failNext = 0;
+
+		CountingSource(HillSource hills) {
+			this.hills = hills;
+		}
+
+		public boolean Candidates(double lat, double lon, float maxKm, boolean lod, Sink sink) {
+			return hills.Candidates(lat, lon, maxKm, lod, sink);
+		}
+
+		public boolean Area(double minLat, double minLon, double maxLat, double maxLon, int limit, Sink sink) {
+			areas++;
+			if (failNext > 0) {
+				failNext--;
+				return false;
+			}
+			return hills.Area(minLat, minLon, maxLat, maxLon, limit, sink);
+		}
+	}
+
+	static ArrayList<Hills> View(ViewportHills v, int latE6, int lonE6, BitSet filter) {
+		return v.Load(ZOOM, latE6 - HALF_LAT_E6, lonE6 - HALF_LON_E6, latE6 + HALF_LAT_E6, lonE6 + HALF_LON_E6, filter);
+	}
+
+	static HashSet<Integer> Ids(ArrayList<Hills> hills) {
+		HashSet<Integer> ids = new HashSet<Integer>();
+		for (Hills h : hills) ids.add(h.id);
+		return ids;
+	}
+
+	// what the tiles under the view should hold: each one's highest, straight from the csv
+	static HashSet<Integer> Expected(HillSource csv, int latE6, int lonE6) {
+		final HashSet<Integer> ids = new HashSet<Integer>();
+		int tile = ViewportHills.TileE6(ZOOM);
+		for (int ty = MarkerClusters.FloorDiv(latE6 - HALF_LAT_E6, tile); ty <= MarkerClusters.FloorDiv(latE6 + HALF_LAT_E6, tile); ty++) {
+			for (int tx = MarkerClusters.FloorDiv(lonE6 - HALF_LON_E6, tile); tx <= MarkerClusters.FloorDiv(lonE6 + HALF_LON_E6, tile); tx++) {
+				csv.Area((double)ty * tile / 1E6, (double)tx * tile / 1E6, (double)(ty + 1) * tile / 1E6, (double)(tx + 1) * tile / 1E6,
+						ViewportHills.MaxPerTile(ZOOM), new HillSource.Sink() {
+					public void Add(int id, String name, double lon, double lat, double height) {
+						ids.add(id);
+					}
+				});
+			}
+		}
+		return ids;
+	}
+
+	static int TilesAcross(int minE6, int maxE6) {
+		int tile = ViewportHills.TileE6(ZOOM);
+		return MarkerClusters.FloorDiv(maxE6, tile) - MarkerClusters.FloorDiv(minE6, tile) + 1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File f = new File(System.getProperty("showmehills.dir", ".."), "Database/BritishHillsDbForImport.csv");
+		CsvHillSource csv = new CsvHillSource(f.getPath());
+		CountingSource source = new CountingSource(csv);
+		ViewportHills viewport = new ViewportHills(source);
+
+		int rows = TilesAcross(LAT_E6 - HALF_LAT_E6, LAT_E6 + HALF_LAT_E6);
+		int cols = TilesAcross(LON_E6 - HALF_LON_E6, LON_E6 + HALF_LON_E6);
+		ArrayList<Hills> first = View(viewport, LAT_E6, LON_E6, null);
+		Check.That(source.areas == rows * cols, "one query per tile in view: " + source.areas + " for " + rows + "x" + cols);
+		Check.That(Ids(first).size() == first.size(), "no hill twice (" + first.size() + " hills)");
+		Check.That(Ids(first).equals(Expected(csv, LAT_E6, LON_E6)), "each tile's highest " + ViewportHills.MaxPerTile(ZOOM));
+
+		ArrayList<Hills> again = View(viewport, LAT_E6, LON_E6, null);
+		Check.That(source.areas == rows * cols, "the same view again is all from the cache");
+		Check.That(Ids(again).equals(Ids(first)), "and the same hills");
+
+		int east = LON_E6 + ViewportHills.TileE6(ZOOM);
+		int before = source.areas;
+		ArrayList<Hills> panned = View(viewport, LAT_E6, east, null);
+		Check.That(source.areas - before == rows, "panning a tile east asks for the new column only: " + (source.areas - before) + " queries");
+		Check.That(Ids(panned).equals(Expected(csv, LAT_E6, east)), "and gets that view's hills");
+
+		BitSet even = new BitSet();
+		HashSet<Integer> evenIds = new HashSet<Integer>();
+		for (Hills h : first) {
+			if (h.id % 2 != 0) continue;
+			even.set(h.id);
+			evenIds.add(h.id);
+		}
+		before = source.areas;
+		ArrayList<Hills> filtered = View(viewport, LAT_E6, LON_E6, even);
+		Check.That(source.areas == before, "a category filter is applied to the cached tiles, no queries");
+		Check.That(Ids(filtered).equals(evenIds), "and leaves only what it lets through (" + filtered.size() + ")");
+
+		// a tile that can't be read is left out, and asked for again next time
+		CountingSource flaky = new CountingSource(csv);
+		ViewportHills retry = new ViewportHills(flaky);
+		flaky.failNext = 1;
+		ArrayList<Hills> missing = View(retry, LAT_E6, LON_E6, null);
+		int queries = flaky.areas;
+		ArrayList<Hills> whole = View(retry, LAT_E6, LON_E6, null);
+		Check.That(missing.size() < whole.size(), "a failed tile's hills are missing (" + missing.size() + " of " + whole.size() + ")");
+		Check.That(flaky.areas - queries == 1, "and only that tile is asked for again");
+		Check.That(Ids(whole).equals(Ids(first)), "after which the view is whole");
+
+		// pan far enough to fill the cache with other tiles, and the first view is asked for again
+		int tile = ViewportHills.TileE6(ZOOM);
+		for (int i = 1; i <= ViewportHills.MAX_TILES; i++) {
+			viewport.Load(ZOOM, LAT_E6 + i * tile, LON_E6, LAT_E6 + i * tile, LON_E6, null);
+		}
+		before = source.areas;
+		View(viewport, LAT_E6, LON_E6, null);
+		Check.That(source.areas - before == rows * cols, "after " + ViewportHills.MAX_TILES + " other tiles the first view's have gone from the cache");
+
+		CheckClusters(first, panned);
+		Check.Done();
+	}
+
+	static void CheckClusters(ArrayList<Hills> first, ArrayList<Hills> panned) {
+		MarkerClusters markers = new MarkerClusters();
+		MarkerClusters.Diff d = markers.Update(first);
+		Check.That(d.added.size() == first.size() && d.removed.isEmpty(), "the first update adds every hill");
+
+		HashSet<Integer> gone = Ids(first);
+		gone.removeAll(Ids(panned));
+		HashSet<Integer> come = Ids(panned);
+		come.removeAll(Ids(first));
+		d = markers.Update(panned);
+		Check.That(new HashSet<Integer>(d.added).equals(come) && new HashSet<Integer>(d.removed).equals(gone),
+				"panning adds " + d.added.size() + " and removes " + d.removed.size() + ", just the difference");
+		Check.That(markers.Size() == panned.size(), "leaving the panned view's " + panned.size());
+		Check.That(markers.Update(panned).IsEmpty(), "the same hills again change nothing");
+
+		ArrayList<MarkerClusters.Cluster> clusters = markers.Clusters(ZOOM);
+		int counted = 0;
+		boolean tops = true;
+		int cell = MarkerClusters.CellE6(ZOOM);
+		HashMap<Long, Double> highest = new HashMap<Long, Double>();
+		for (Hills h : panned) {
+			long key = ((long)MarkerClusters.FloorDiv((int)(h.latitude * 1E6), cell) << 32)
+					| (MarkerClusters.FloorDiv((int)(h.longitude * 1E6), cell) & 0xffffffffL);
+			Double was = highest.get(key);
+			if (was == null || h.height > was) highest.put(key, h.height);
+		}
+		for (MarkerClusters.Cluster c : clusters) {
+			counted += c.count;
+			long key = ((long)MarkerClusters.FloorDiv(c.latE6, cell) << 32) | (MarkerClusters.FloorDiv(c.lonE6, cell) & 0xffffffffL);
+			if (highest.get(key) != c.top.height) tops = false;
+		}
+		Check.That(counted == markers.Size(), clusters.size() + " markers at zoom " + ZOOM + " hold all " + counted + " hills");
+		Check.That(clusters.size() == highest.size(), "one per occupied cell");
+		Check.That(tops, "each at the highest hill in its cell");
+		Check.That(markers.Clusters(ZOOM) == clusters, "the same list comes back until something changes");
+		int near = markers.Clusters(14).size(), far = markers.Clusters(8).size();
+		Check.That(far < clusters.size() && clusters.size() < near, "fewer markers zoomed out: " + far + " at 8, " + near + " at 14");
+	}
+}
@@ -0,0 +1,102 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/*
+ * Hills from a database import csv (id~name~longitude~latitude~height~link~itemtype, see
+ * how_to_update_database.txt), held in memory. Each query is a scan of the lot, which is fine for
+ * a PC; it picks the same rows as HillQuery.Sql, row limit included.
+ */
+public class CsvHillSource implements HillSource {
+
+	private final ArrayList<Hills> hills = new ArrayList<Hills>();
+	private final ArrayList<Hills> selected = new ArrayList<Hills>();
+	private final ArrayList<Hills> far = new ArrayList<Hills>();
+
+	public CsvHillSource(String path) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = line.split("~");
+				if (f.length < 5) continue;
+				try {
+					hills.add(new Hills(Integer.parseInt(f[0].trim()), f[1],
+							Double.parseDouble(f[2]), Double.parseDouble(f[3]), Double.parseDouble(f[4])));
+				} catch (NumberFormatException e) {
+					// header line, or a hill without a height
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public int size() {
+		return hills.size();
+	}
+
+	public synchronized boolean Candidates(double lat, double lon, float maxKm, boolean lod, Sink sink) {
+		selected.clear();
+		far.clear();
+		for (int i = 0; i < hills.size(); i++) {
+			Hills h = hills.get(i);
+			int tier = HillQuery.Tier(lat, lon, maxKm, lod, h.latitude, h.longitude, h.height);
+			if (tier == HillQuery.TIER_NEAR) selected.add(h);
+			else if (tier == HillQuery.TIER_FAR) far.add(h);
+		}
+		// the far tier's order by height desc limit LOD_MAX_ROWS
+		Collections.sort(far, HIGHEST_FIRST);
+		for (int i = 0; i < far.size() && i < HillQuery.LOD_MAX_ROWS; i++) selected.add(far.get(i));
+		Pass(selected.size(), sink);
+		return true;
+	}
+
+	public synchronized boolean Area(double minLat, double minLon, double maxLat, double maxLon, int limit, Sink sink) {
+		selected.clear();
+		for (int i = 0; i < hills.size(); i++) {
+			Hills h = hills.get(i);
+			if (h.latitude >= minLat && h.latitude <= maxLat && h.longitude >= minLon && h.longitude <= maxLon) selected.add(h);
+		}
+		Collections.sort(selected, HIGHEST_FIRST);
+		Pass(Math.min(selected.size(), limit), sink);
+		return true;
+	}
+
+	private static final Comparator<Hills> HIGHEST_FIRST = new Comparator<Hills>() {
+		public int compare(Hills p1, Hills p2) {
+			return Double.compare(p2.height, p1.height);
+		}
+	};
+
+	private void Pass(int n, Sink sink) {
+		for (int i = 0; i < n; i++) {
+			Hills h = selected.get(i);
+			sink.Add(h.id, h.hillname, h.longitude, h.latitude, h.height);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * Ground height from SRTM-style .hgt tiles in a directory: one file per 1x1 degree square named
+ * after its south west corner (N56W005.hgt), a square grid of big-endian signed 16 bit heights
+ * in metres, north row first. Both 3" (1201x1201) and 1" (3601x3601) tiles work - the size is
+ * worked out from the file length.
+ *
+ * Tiles are memory-mapped the first time they're needed so only the pages actually sampled get
+ * read, and at most MAX_TILES are kept (the longest loaded goes first). Lookups of a kept tile
+ * don't lock and can be made from several threads at once; one costs a few bounds checks and
+ * four reads, well under a microsecond once the pages are in.
+ */
+public class ElevationTiles {
+
+	private static final short VOID = -32768;
+
+	// stands in for a tile that isn't there, so we only look for it once
+	private static final ShortBuffer MISSING = ShortBuffer.allocate(0);
+
+	// a 100km horizon needs nine at most; each is only address space until it's read
+	private static final int MAX_TILES = 16;
+
+	private final File dir;
+	private final ConcurrentHashMap<Integer, ShortBuffer> tiles = new ConcurrentHashMap<Integer, ShortBuffer>();
+	private final ConcurrentLinkedQueue<Integer> loadOrder = new ConcurrentLinkedQueue<Integer>();
+
+	// the tile used last - lookups mostly come in runs within one tile, and this skips the map
+	private static class Tile {
+		Tile(int k, ShortBuffer d) { key = k; data = d; size = (int)Math.sqrt(d.capacity()); }
+		final int key;
+		final ShortBuffer data;
+		final int size;
+	}
+	private volatile Tile last;
+
+	public ElevationTiles(File dir) {
+		this.dir = dir;
+	}
+
+	// true if there's at least one tile to read
+	public boolean HasTiles() {
+		String[] files = dir.list();
+		if (files == null) return false;
+		for (String f : files) {
+			if (f.toLowerCase().endsWith(".hgt")) return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Height in metres at the given point, bilinearly interpolated between the four surrounding
+	 * samples. NaN if there's no tile for it or the samples are voids.
+	 */
+	public double GetElevation(double lat, double lon) {
+		int tlat = (int)Math.floor(lat);
+		int tlon = (int)Math.floor(lon);
+		int key = (tlat + 90) * 360 + (tlon + 180);
+		Tile l = last;
+		if (l == null || l.key != key) {
+			l = new Tile(key, tile(key, tlat, tlon));
+			last = l;
+		}
+		ShortBuffer t = l.data;
+		if (t == MISSING) return Double.NaN;
+
+		int n = l.size;
+		double row = (tlat + 1 - lat) * (n - 1);
+		double col = (lon - tlon) * (n - 1);
+		int r = Math.min((int)row, n - 2);
+		int c = Math.min((int)col, n - 2);
+		double fr = row - r;
+		double fc = col - c;
+
+		int i = r * n + c;
+		short h00 = t.get(i);
+		short h01 = t.get(i + 1);
+		short h10 = t.get(i + n);
+		short h11 = t.get(i + n + 1);
+		if (h00 == VOID || h01 == VOID || h10 == VOID || h11 == VOID) {
+			// holes are usually steep ground - use whatever neighbours we have rather than nothing
+			double sum = 0;
+			int count = 0;
+			if (h00 != VOID) { sum += h00; count++; }
+			if (h01 != VOID) { sum += h01; count++; }
+			if (h10 != VOID) { sum += h10; count++; }
+			if (h11 != VOID) { sum += h11; count++; }
+			return (count == 0) ? Double.NaN : sum / count;
+		}
+		double top = h00 + (h01 - h00) * fc;
+		double bottom = h10 + (h11 - h10) * fc;
+		return top + (bottom - top) * fr;
+	}
+
+	private ShortBuffer tile(Integer key, int tlat, int tlon) {
+		ShortBuffer t = tiles.get(key);
+		if (t != null) return t;
+
+		t = MISSING;
+		File f = new File(dir, TileName(tlat, tlon));
+		if (f.exists()) {
+			try {
+				RandomAccessFile raf = new RandomAccessFile(f, "r");
+				try {
+					FileChannel ch = raf.getChannel();
+					MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+					mb.order(ByteOrder.BIG_ENDIAN);
+					t = mb.asShortBuffer();
+					int n = (int)Math.sqrt(t.capacity());
+					if (n < 2 || n * n != t.capacity()) t = MISSING;
+				} finally {
+					// the mapping stays valid after the file is closed
+					raf.close();
+				}
+			} catch (IOException e) {
+				t = MISSING;
+			}
+		}
+		// two threads may both map the same tile; either copy will do
+		if (tiles.put(key, t) == null) {
+			loadOrder.add(key);
+			while (tiles.size() > MAX_TILES) {
+				Integer oldest = loadOrder.poll();
+				if (oldest == null) break;
+				tiles.remove(oldest);
+			}
+		}
+		return t;
+	}
+
+	public static String TileName(int tlat, int tlon) {
+		return String.format(Locale.US, "%c%02d%c%03d.hgt",
+				(tlat >= 0) ? 'N' : 'S', Math.abs(tlat),
+				(tlon >= 0) ? 'E' : 'W', Math.abs(tlon));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Compass heading smoothed over the last few readings. Averaged as sines and cosines so that
+ * readings either side of north don't average out to south.
+ */
+public class FilteredDirection
+{
+	private final int CompassSmoothingWindow;
+	double dir;
+	double sinevalues[];
+	double cosvalues[];
+	int index = 0;
+	int outlierCount = 0;
+	
+	public FilteredDirection(int window)
+	{
+		CompassSmoothingWindow = window;
+		sinevalues = new double[window];
+		cosvalues = new double[window];
+	}
+	
+	public void AddLatest( double d )
+	{
+		sinevalues[index] = Math.sin(d);
+		cosvalues[index] = Math.cos(d);
+		index++;
+		if (index > CompassSmoothingWindow - 1) index = 0;
+		double sumc = 0; 
+		double sums = 0;
+		for (int a = 0; a < CompassSmoothingWindow; a++) 
+		{
+			sumc += cosvalues[a];
+			sums += sinevalues[a];
+		}
+		dir = Math.atan2(sums/CompassSmoothingWindow,sumc/CompassSmoothingWindow);
+	}
+	
+	// degrees, 0 to 360 - the compass adjustment is left to whoever is showing it
+	public double getDirection() 
+	{ 
+		return (Math.toDegrees(dir) + 360) % 360;
+	}
+	
+	public int GetWindow()
+	{
+		return CompassSmoothingWindow;
+	}
+
+	public int GetVariation()
+	{
+		double Q = 0;
+		double sumc = 0; 
+		double sums = 0;
+		for (int a = 0; a < CompassSmoothingWindow; a++)
+		{
+			sumc += cosvalues[a];
+			sums += sinevalues[a];
+		}
+		double avgc = sumc/CompassSmoothingWindow;
+		double avgs = sums/CompassSmoothingWindow;
+
+		sumc = 0; 
+		sums = 0;
+		for (int a = 0; a < CompassSmoothingWindow; a++)
+		{
+			sumc += Math.pow(cosvalues[a] - avgc, 2);
+			sums += Math.pow(sinevalues[a] - avgs, 2);
+		}
+		Q = (sumc/(CompassSmoothingWindow-1)) + (sums/(CompassSmoothingWindow-1));
+		
+		return (int)(Q*1000);
+	}
+}
@@ -0,0 +1,48 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Camera pitch smoothed over the last few readings, in radians.
+ */
+public class FilteredElevation
+{
+	int AVERAGINGWINDOW = 10;
+	double dir;
+	double sinevalues[] = new double[AVERAGINGWINDOW];
+	double cosvalues[] = new double[AVERAGINGWINDOW];
+	int index = 0;
+	public void AddLatest( double d )
+	{
+		sinevalues[index] = Math.sin(d);
+		cosvalues[index] = Math.cos(d);
+		index++;
+		if (index > AVERAGINGWINDOW - 1) index = 0;
+		double sumc = 0; 
+		double sums = 0;
+		for (int a = 0; a < AVERAGINGWINDOW; a++) 
+		{
+			sumc += cosvalues[a];
+			sums += sinevalues[a];
+		}
+		dir = Math.atan2(sums/AVERAGINGWINDOW,sumc/AVERAGINGWINDOW);
+	}
+	public double getDirection() { return dir; }
+}
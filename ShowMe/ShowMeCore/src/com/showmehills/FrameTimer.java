@@ -0,0 +1,120 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Where the time goes in a frame of the camera view: one LatencyHistogram per stage, from taking
+ * in a sensor reading to drawing the status line, plus the frame as a whole. A frame that takes
+ * longer than FRAME_NS to draw has missed its display refresh and counts as dropped.
+ *
+ * Switched off (the default), Start is one volatile read and Stop does nothing, so the calls can
+ * stay in the drawing code for good.
+ */
+public class FrameTimer {
+
+	public enum Stage { SensorFuse, FovFilter, Layout, LineDraw, TextDraw, StatusDraw, Frame }
+
+	// one refresh at 60Hz
+	public static final long FRAME_NS = 16666667;
+
+	private static final FrameTimer sTimer = new FrameTimer();
+
+	private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean enabled = false;
+
+	public static FrameTimer Get() {
+		return sTimer;
+	}
+
+	FrameTimer() {
+		for (int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+	}
+
+	public void SetEnabled(boolean on) {
+		enabled = on;
+	}
+
+	public boolean IsEnabled() {
+		return enabled;
+	}
+
+	// 0 when switched off, which Stop takes as nothing to record
+	public long Start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	public void Stop(Stage stage, long start) {
+		if (start == 0) return;
+		long ns = System.nanoTime() - start;
+		stages[stage.ordinal()].Record(ns);
+		if (stage == Stage.Frame && ns > FRAME_NS) dropped.incrementAndGet();
+	}
+
+	public LatencyHistogram GetHistogram(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	public long GetFrames() { return stages[Stage.Frame.ordinal()].Count(); }
+	public long GetDropped() { return dropped.get(); }
+
+	public void Reset() {
+		for (int i = 0; i < stages.length; i++) stages[i].Reset();
+		dropped.set(0);
+	}
+
+	// the HUD's heading line, lined up with Summary
+	public static String SummaryHeader() {
+		return String.format(Locale.US, "%-10s %6s %6s %6s", "ms", "p50", "p95", "p99");
+	}
+
+	// one line of the HUD: p50/p95/p99 in ms
+	public String Summary(Stage stage) {
+		LatencyHistogram h = stages[stage.ordinal()];
+		return String.format(Locale.US, "%-10s %6.2f %6.2f %6.2f", stage.name(),
+				h.Percentile(0.5) / 1e6, h.Percentile(0.95) / 1e6, h.Percentile(0.99) / 1e6);
+	}
+
+	/*
+	 * Everything recorded, for working on offline: a row per stage per non-empty bucket, with the
+	 * bucket's range in ns, then a summary row per stage (bucket range left empty).
+	 */
+	public void WriteCsv(Writer out) throws IOException {
+		out.write("stage,low_ns,high_ns,count,mean_ns,p50_ns,p95_ns,p99_ns,max_ns\n");
+		for (Stage s : Stage.values()) {
+			LatencyHistogram h = stages[s.ordinal()];
+			for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+				long n = h.Get(i);
+				if (n > 0) out.write(s.name() + "," + LatencyHistogram.BucketLow(i) + "," + LatencyHistogram.BucketHigh(i) + "," + n + ",,,,,\n");
+			}
+		}
+		for (Stage s : Stage.values()) {
+			LatencyHistogram h = stages[s.ordinal()];
+			out.write(s.name() + ",,," + h.Count() + "," + h.Mean() + "," + h.Percentile(0.5) + "," +
+					h.Percentile(0.95) + "," + h.Percentile(0.99) + "," + h.Max() + "\n");
+		}
+		out.write("dropped,,," + dropped.get() + ",,,,,\n");
+	}
+}
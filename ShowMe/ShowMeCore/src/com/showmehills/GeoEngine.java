@@ -0,0 +1,205 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+
+/*
+ * Which hills there are to label: reads the candidates for a position from a HillSource, works out
+ * the direction, distance and vertical angle of each, drops the ones the settings don't want and
+ * keeps the rest nearest first. VisibleHills narrows that down to what's in front of the camera.
+ *
+ * No Android in here - HillDatabase runs it on the phone, TraceReplay and the benchmarks on a PC.
+ * Not thread safe; whoever owns it calls it from one thread.
+ */
+public class GeoEngine {
+
+	public static class Settings {
+		public float maxDistance = 25; // km
+		public float minDistance = 0; // km
+		public boolean lod = true; // see HillQuery
+		public BitSet filter = null; // ids allowed by the category filters, null for all of them
+	}
+
+	private final HillSource source;
+	private final ArrayList<Hills> hills = new ArrayList<Hills>();
+	private final ArrayList<Hills> visible = new ArrayList<Hills>();
+
+	// what the last SetDirections was for, so VisibleHills only reads the source again if it changed
+	private double atLatitude = Double.NaN;
+	private double atLongitude;
+	private double atAltitude;
+	private float withMax;
+	private float withMin;
+	private boolean withLod;
+	private BitSet withFilter;
+
+	// why rows were skipped by the last SetDirections
+	public int tooNear, tooFar, filtered, minor;
+
+	// for the metrics registry; source is the time spent reading rows, math working out where they are
+	private static final Metrics.Counter QUERIES = Metrics.Get().Counter("query.count");
+	private static final Metrics.Counter FAILURES = Metrics.Get().Counter("query.failures");
+	private static final Metrics.Counter ROWS = Metrics.Get().Counter("query.rows.returned");
+	private static final Metrics.Counter KEPT = Metrics.Get().Counter("query.rows.kept");
+	private static final Metrics.Counter LAST_ROWS = Metrics.Get().Counter("query.last.returned");
+	private static final Metrics.Counter LAST_KEPT = Metrics.Get().Counter("query.last.kept");
+	public static final LatencyHistogram SOURCE_TIME = Metrics.Get().Histogram("query.source");
+	public static final LatencyHistogram MATH_TIME = Metrics.Get().Histogram("query.math");
+	public static final LatencyHistogram SORT_TIME = Metrics.Get().Histogram("query.sort");
+	public static final LatencyHistogram TOTAL_TIME = Metrics.Get().Histogram("query.total");
+
+	// rows handed over by the source during this SetDirections, and its category filter
+	private int rows;
+	private BitSet curFilter;
+
+	// only takes the rows in; the maths is done after the source is finished with, so the two can be timed apart
+	private final HillSource.Sink sink = new HillSource.Sink() {
+		public void Add(int id, String name, double lon, double lat, double height) {
+			rows++;
+			if (curFilter != null && !curFilter.get(id))
+			{
+				filtered++;
+				return;
+			}
+			hills.add(new Hills(id, name, lon, lat, height));
+		}
+	};
+
+	private static final Comparator<Hills> NEAREST_FIRST = new Comparator<Hills>() {
+		public int compare(Hills p1, Hills p2) {
+			if (p1.distance == p2.distance) return 0;
+			if (p1.distance < p2.distance) return -1;
+			return 1;
+		}
+	};
+
+	public GeoEngine(HillSource source) {
+		this.source = source;
+	}
+
+	/*
+	 * Reads the hills in range of the observer from the source again. Returns false (and leaves
+	 * no hills) if the source couldn't be read.
+	 */
+	public boolean SetDirections(Observer observer, Settings settings) {
+		Metrics metrics = Metrics.Get();
+		long start = metrics.Start();
+		hills.clear();
+		tooNear = tooFar = filtered = minor = 0;
+		rows = 0;
+		curFilter = settings.filter;
+		boolean lod = HillQuery.UseLod(settings.lod, settings.maxDistance);
+
+		atLatitude = observer.latitude;
+		atLongitude = observer.longitude;
+		atAltitude = observer.altitude;
+		withMax = settings.maxDistance;
+		withMin = settings.minDistance;
+		withLod = settings.lod;
+		withFilter = settings.filter;
+
+		QUERIES.Inc();
+		if (!source.Candidates(observer.latitude, observer.longitude, settings.maxDistance, settings.lod, sink))
+		{
+			FAILURES.Inc();
+			hills.clear();
+			return false;
+		}
+		long t = metrics.Stop(SOURCE_TIME, start);
+
+		// compacts the list in place, keeping the ones in range
+		int kept = 0;
+		for (int i = 0; i < hills.size(); i++)
+		{
+			Hills h = hills.get(i);
+			h.SetDirectionFrom(observer.latitude, observer.longitude, observer.altitude);
+
+			if (h.distance > settings.maxDistance)
+			{
+				tooFar++;
+			}
+			else if (h.distance < settings.minDistance)
+			{
+				tooNear++;
+			}
+			else if (lod && h.height < HillQuery.LodMinHeight(h.distance))
+			{
+				// inside the band's box but actually further away than the band allows
+				minor++;
+			}
+			else
+			{
+				hills.set(kept++, h);
+			}
+		}
+		hills.subList(kept, hills.size()).clear();
+		t = metrics.Stop(MATH_TIME, t);
+
+		Collections.sort(hills, NEAREST_FIRST);
+		metrics.Stop(SORT_TIME, t);
+		metrics.Stop(TOTAL_TIME, start);
+
+		ROWS.Add(rows);
+		KEPT.Add(kept);
+		LAST_ROWS.Set(rows);
+		LAST_KEPT.Set(kept);
+		return true;
+	}
+
+	// the hills from the last SetDirections, nearest first; the same list every time
+	public ArrayList<Hills> GetHills() {
+		return hills;
+	}
+
+	/*
+	 * The hills within fov degrees around heading, nearest first, looking from observer. Only
+	 * goes back to the source if the observer or settings have changed since last time. The list
+	 * returned is reused by the next call.
+	 */
+	public ArrayList<Hills> VisibleHills(Observer observer, double heading, double fov, Settings settings) {
+		if (observer.latitude != atLatitude || observer.longitude != atLongitude || observer.altitude != atAltitude ||
+			settings.maxDistance != withMax || settings.minDistance != withMin || settings.lod != withLod || settings.filter != withFilter)
+		{
+			SetDirections(observer, settings);
+		}
+		visible.clear();
+		for (int i = 0; i < hills.size(); i++)
+		{
+			Hills h = hills.get(i);
+			if (!Double.isNaN(ViewRatio(heading, h.direction, fov))) visible.add(h);
+		}
+		return visible;
+	}
+
+	/*
+	 * Where a bearing appears across the view: -0.5 at the left edge, 0 in the middle, 0.5 at the
+	 * right. NaN if it's outside the field of view.
+	 */
+	public static double ViewRatio(double heading, double direction, double fov) {
+		// this is the angle of the peak from our line of sight, -180 to 180
+		double offset = ((heading - direction) % 360 + 540) % 360 - 180;
+		if (Math.abs(offset) * 2 >= fov) return Double.NaN;
+		return offset / fov * -1;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+ * One bitset per category, indexed by mountains._id. Categories are the itemtype of each row
+ * (peak, historic, places...) and, if the database has a hilllists table, the hill lists each
+ * hill belongs to (Munros, Corbetts...). Filtering a query result is then a single bit test per
+ * row instead of reading and comparing strings.
+ */
+public class HillCategories {
+
+	private final HashMap<String, BitSet> itemtypes = new HashMap<String, BitSet>();
+	private final HashMap<String, BitSet> hilllists = new HashMap<String, BitSet>();
+
+	// last filter handed out, so the bitsets are only combined again when the settings change
+	private String filterKey;
+	private BitSet filter;
+
+	public void AddItemType(int id, String itemtype) {
+		// rows from before the itemtype column were all peaks
+		if (itemtype == null || itemtype.length() == 0) itemtype = "peak";
+		add(itemtypes, itemtype.toLowerCase(), id);
+	}
+
+	public void AddToList(int id, String list) {
+		if (list == null) return;
+		add(hilllists, list.toLowerCase(), id);
+	}
+
+	private static void add(HashMap<String, BitSet> sets, String key, int id) {
+		BitSet b = sets.get(key);
+		if (b == null) {
+			b = new BitSet();
+			sets.put(key, b);
+		}
+		b.set(id);
+	}
+
+	/*
+	 * Bitset of the ids that pass the filter, or null if nothing is filtered out. Item types not in
+	 * hiddenTypes are shown; list is a hill list name, or "All" for no list filter.
+	 */
+	public synchronized BitSet GetFilter(String[] hiddenTypes, String list) {
+		StringBuilder key = new StringBuilder(list);
+		for (String t : hiddenTypes) key.append('|').append(t);
+		if (key.toString().equals(filterKey)) return filter;
+
+		BitSet f = null;
+		boolean anyHidden = false;
+		for (String t : hiddenTypes) {
+			if (itemtypes.containsKey(t)) anyHidden = true;
+		}
+		if (anyHidden) {
+			f = new BitSet();
+			Iterator<Map.Entry<String, BitSet>> itr = itemtypes.entrySet().iterator();
+			while (itr.hasNext()) {
+				Map.Entry<String, BitSet> e = itr.next();
+				boolean hidden = false;
+				for (String t : hiddenTypes) {
+					if (t.equals(e.getKey())) hidden = true;
+				}
+				if (!hidden) f.or(e.getValue());
+			}
+		}
+		// a list this database doesn't have is ignored rather than hiding everything
+		BitSet l = hilllists.get(list.toLowerCase());
+		if (l != null) {
+			if (f == null) f = (BitSet)l.clone();
+			else f.and(l);
+		}
+		filterKey = key.toString();
+		filter = f;
+		return f;
+	}
+}
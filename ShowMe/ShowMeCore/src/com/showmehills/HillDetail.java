@@ -0,0 +1,73 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The 'cold' columns of a mountains row - the ones only HillInfo needs. SetDirections deliberately
+ * doesn't read these; HillDatabase.PrefetchDetails fills the cache below for the labels that are
+ * actually on screen so tapping one never has to wait for the database.
+ */
+public class HillDetail {
+	public HillDetail(int _id, String n, double ht, String l, String t) {
+		id = _id;
+		hillname = n;
+		height = ht;
+		link = l;
+		itemtype = t;
+	}
+	int id;
+	String hillname;
+	double height;
+	String link;
+	String itemtype;
+
+	private static final int CACHE_SIZE = 64;
+
+	// shared between the camera view and HillInfo, which is a separate activity
+	private static final LinkedHashMap<Integer, HillDetail> cache = new LinkedHashMap<Integer, HillDetail>(CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, HillDetail> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	public static HillDetail GetCached(int id) {
+		synchronized (cache) {
+			return cache.get(id);
+		}
+	}
+
+	public static boolean IsCached(int id) {
+		synchronized (cache) {
+			return cache.containsKey(id);
+		}
+	}
+
+	public static void Cache(HillDetail d) {
+		synchronized (cache) {
+			cache.put(d.id, d);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * The query behind SetDirections, shared by every HillSource so they all pick the same hills.
+ *
+ * Within LOD_NEAR_KM every hill is fetched, however many there are. Beyond it only hills that
+ * are big enough for their distance are: each LOD_BAND_KM band further out needs another
+ * LOD_BAND_KM*LOD_METRES_PER_KM metres of height, and the biggest LOD_MAX_ROWS of those win if
+ * that's still too many. The two tiers are separate selects, so the cap on the far one can never
+ * push out a hill close by.
+ */
+public class HillQuery {
+
+	// only the columns SetDirections actually uses, in the order it reads them
+	public static final String HOT_COLUMNS = "_id, name, longitude, latitude, height";
+
+	// level of detail for long range views
+	public static final float LOD_NEAR_KM = 25;
+	public static final float LOD_BAND_KM = 25;
+	public static final float LOD_METRES_PER_KM = 10;
+	public static final int LOD_MAX_ROWS = 400;
+
+	// which part of the query picks a hill, see Tier
+	public static final int TIER_NONE = -1;
+	public static final int TIER_NEAR = 0;
+	public static final int TIER_FAR = 1;
+
+	// level of detail only makes a difference past the near band
+	public static boolean UseLod(boolean lod, float maxKm) {
+		return lod && maxKm > LOD_NEAR_KM;
+	}
+
+	public static String Sql(double lat, double lon, float maxKm, boolean lod) {
+		String qu = "select " + HOT_COLUMNS + " from mountains where ";
+		if (UseLod(lod, maxKm))
+		{
+			String near = BoxClause(lat, lon, LOD_NEAR_KM);
+			qu += near + " union all select * from (select " + HOT_COLUMNS + " from mountains where not (" + near + ") and (";
+			for (float band = LOD_NEAR_KM; band < maxKm; band += LOD_BAND_KM)
+			{
+				if (band > LOD_NEAR_KM) qu += " or ";
+				qu += "(" + BoxClause(lat, lon, Math.min(band + LOD_BAND_KM, maxKm)) +
+					" and height >= " + LodMinHeight(band) + ")";
+			}
+			qu += ") order by height desc limit " + LOD_MAX_ROWS + ")";
+		}
+		else
+		{
+			qu += BoxClause(lat, lon, maxKm);
+		}
+		return qu;
+	}
+
+	// the map's query: the highest hills in a box, however far it is from us
+	public static String AreaSql(double minLat, double minLon, double maxLat, double maxLon, int limit) {
+		return "select " + HOT_COLUMNS + " from mountains where latitude between " + minLat + " and " + maxLat +
+			" and longitude between " + minLon + " and " + maxLon + " order by height desc limit " + limit;
+	}
+
+	/*
+	 * Which of Sql's selects would pick one hill, for sources that aren't SQL: TIER_NEAR ones are
+	 * all taken, TIER_FAR ones only the highest LOD_MAX_ROWS of. Without level of detail
+	 * everything picked is TIER_NEAR.
+	 */
+	public static int Tier(double lat, double lon, float maxKm, boolean lod, double hillLat, double hillLon, double height) {
+		if (!UseLod(lod, maxKm)) return InBox(lat, lon, maxKm, hillLat, hillLon) ? TIER_NEAR : TIER_NONE;
+		if (InBox(lat, lon, LOD_NEAR_KM, hillLat, hillLon)) return TIER_NEAR;
+		for (float band = LOD_NEAR_KM; band < maxKm; band += LOD_BAND_KM)
+		{
+			if (height >= LodMinHeight(band) && InBox(lat, lon, Math.min(band + LOD_BAND_KM, maxKm), hillLat, hillLon)) return TIER_FAR;
+		}
+		return TIER_NONE;
+	}
+
+	// whether Sql's where clauses take a hill at all, before the far tier's row limit
+	public static boolean Selects(double lat, double lon, float maxKm, boolean lod, double hillLat, double hillLon, double height) {
+		return Tier(lat, lon, maxKm, lod, hillLat, hillLon, height) != TIER_NONE;
+	}
+
+	// smallest height worth showing at this distance when level of detail is on
+	public static double LodMinHeight(double km)
+	{
+		if (km <= LOD_NEAR_KM) return 0;
+		return (km - LOD_NEAR_KM) * LOD_METRES_PER_KM;
+	}
+
+	// use a rule of thumb for distance between lines of lat & long
+	// 1 line of latitude = 111km
+	// 1 line of longitude = cos(latitude)* 111km. 
+	private static String BoxClause(double curLatitude, double curLongitude, double km)
+	{
+		double dlon = km/(111.0 * Math.cos(curLatitude * Math.PI / 180));
+		return "latitude between " + (curLatitude - (km/111.0 )) + " and " + (curLatitude + (km/111.0 )) +
+			" and longitude between " + (curLongitude - dlon) + " and " + (curLongitude + dlon);
+	}
+
+	private static boolean InBox(double curLatitude, double curLongitude, double km, double lat, double lon)
+	{
+		double dlon = km/(111.0 * Math.cos(curLatitude * Math.PI / 180));
+		return lat >= curLatitude - (km/111.0) && lat <= curLatitude + (km/111.0) &&
+			lon >= curLongitude - dlon && lon <= curLongitude + dlon;
+	}
+}
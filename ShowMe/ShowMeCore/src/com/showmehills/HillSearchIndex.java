@@ -0,0 +1,361 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * In-memory name index for searching hills by name. Every word of every name is a key (so
+ * "nev" finds "Ben Nevis" as well as "ben n"), and the keys are held in one sorted array so a
+ * prefix lookup is two binary searches. If the prefix matches don't fill the result list, keys
+ * starting with the same letter are scanned for near misses (typos), using an edit distance
+ * that gives up as soon as it can't match.
+ *
+ * The normalised names are kept end to end in one char array, each followed by a 0, and a key is
+ * just its hill and where its word starts in there - two ints rather than a copy of the rest of
+ * the name, which matters with a couple of million names on a phone.
+ *
+ * Results are ranked: whole name first, then start of name, then a later word, then near misses.
+ * Within a rank, higher hills come first. Searching doesn't change the index, so any number of
+ * threads can search at once.
+ */
+public class HillSearchIndex {
+
+	private static final int RANK_EXACT = 0;
+	private static final int RANK_NAME_PREFIX = 1;
+	private static final int RANK_WORD = 2;
+	private static final int RANK_WORD_PREFIX = 3;
+	private static final int RANK_FUZZY = 4;
+
+	// below this many keys, the sort finishes with insertion sort
+	private static final int SMALL_SORT = 12;
+
+	// the index is built once per process, it's the same for whoever asks
+	private static volatile HillSearchIndex sIndex;
+
+	private final int[] ids;
+	private final String[] names;
+	private final double[] longitudes;
+	private final double[] latitudes;
+	private final double[] heights;
+
+	// normalised names, each ending in 0, and where each one starts
+	private final char[] text;
+	private final int[] nameStart;
+	// sorted keys: the positions in text where a word starts, and whose name it is
+	private final int[] keys;
+	private final int[] keyHill;
+
+	public static HillSearchIndex Get() {
+		return sIndex;
+	}
+
+	public static void Set(HillSearchIndex index) {
+		sIndex = index;
+	}
+
+	/*
+	 * Collects rows with Add() and then builds the sorted key array in one go.
+	 */
+	public static class Builder {
+		private int count = 0;
+		private int[] ids = new int[1024];
+		private String[] names = new String[1024];
+		private double[] longitudes = new double[1024];
+		private double[] latitudes = new double[1024];
+		private double[] heights = new double[1024];
+
+		public void Add(int id, String name, double lon, double lat, double height) {
+			if (name == null || name.length() == 0) return;
+			if (count == ids.length) {
+				int sz = count * 2;
+				ids = Arrays.copyOf(ids, sz);
+				names = Arrays.copyOf(names, sz);
+				longitudes = Arrays.copyOf(longitudes, sz);
+				latitudes = Arrays.copyOf(latitudes, sz);
+				heights = Arrays.copyOf(heights, sz);
+			}
+			ids[count] = id;
+			names[count] = name;
+			longitudes[count] = lon;
+			latitudes[count] = lat;
+			heights[count] = height;
+			count++;
+		}
+
+		public HillSearchIndex Build() {
+			return new HillSearchIndex(this);
+		}
+	}
+
+	private HillSearchIndex(Builder b) {
+		ids = Arrays.copyOf(b.ids, b.count);
+		names = Arrays.copyOf(b.names, b.count);
+		longitudes = Arrays.copyOf(b.longitudes, b.count);
+		latitudes = Arrays.copyOf(b.latitudes, b.count);
+		heights = Arrays.copyOf(b.heights, b.count);
+
+		nameStart = new int[b.count];
+		char[] t = new char[b.count * 16];
+		int[] k = new int[b.count * 2];
+		int[] kh = new int[k.length];
+		int len = 0, nkeys = 0;
+		for (int i = 0; i < b.count; i++) {
+			String n = Normalise(names[i]);
+			if (len + n.length() + 1 > t.length) t = Arrays.copyOf(t, Math.max(t.length * 2, len + n.length() + 1));
+			nameStart[i] = len;
+			n.getChars(0, n.length(), t, len);
+			for (int c = 0; c < n.length(); c++) {
+				if (c > 0 && n.charAt(c - 1) != ' ') continue;
+				if (nkeys == k.length) {
+					k = Arrays.copyOf(k, nkeys * 2);
+					kh = Arrays.copyOf(kh, nkeys * 2);
+				}
+				kh[nkeys] = i;
+				k[nkeys++] = len + c;
+			}
+			len += n.length();
+			t[len++] = 0;
+		}
+		text = Arrays.copyOf(t, len);
+		keys = Arrays.copyOf(k, nkeys);
+		keyHill = Arrays.copyOf(kh, nkeys);
+		Sort(0, nkeys, 0);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	/*
+	 * Multikey quicksort (Bentley & Sedgewick): split on the character at depth into less, equal
+	 * and more, and only the equal part moves on to the next character. Suffixes that have ended
+	 * (0) are all equal, so they stop there.
+	 */
+	private void Sort(int lo, int hi, int depth) {
+		while (hi - lo > SMALL_SORT) {
+			int a = text[keys[lo] + depth], b = text[keys[(lo + hi) >>> 1] + depth], c = text[keys[hi - 1] + depth];
+			int v = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c)); // median of three
+			int lt = lo, gt = hi - 1, i = lo;
+			while (i <= gt) {
+				int ch = text[keys[i] + depth];
+				if (ch < v) Swap(lt++, i++);
+				else if (ch > v) Swap(i, gt--);
+				else i++;
+			}
+			Sort(lo, lt, depth);
+			Sort(gt + 1, hi, depth);
+			if (v == 0) return;
+			lo = lt;
+			hi = gt + 1;
+			depth++;
+		}
+		for (int i = lo + 1; i < hi; i++) {
+			for (int j = i; j > lo && CompareFrom(keys[j], keys[j - 1], depth) < 0; j--) Swap(j, j - 1);
+		}
+	}
+
+	private void Swap(int i, int j) {
+		int t = keys[i];
+		keys[i] = keys[j];
+		keys[j] = t;
+		t = keyHill[i];
+		keyHill[i] = keyHill[j];
+		keyHill[j] = t;
+	}
+
+	private int CompareFrom(int p, int q, int depth) {
+		for (int d = depth; ; d++) {
+			char a = text[p + d], b = text[q + d];
+			if (a != b || a == 0) return a - b;
+		}
+	}
+
+	/*
+	 * Returns up to maxResults hills whose name matches the query, best first. Direction and
+	 * distance are not set - use Hills.SetDirectionFrom with the current fix.
+	 */
+	public ArrayList<Hills> Search(String query, int maxResults) {
+		ArrayList<Hills> results = new ArrayList<Hills>();
+		String q = Normalise(query);
+		if (q.length() == 0 || maxResults <= 0) return results;
+		int qlen = q.length();
+
+		int[] bestHill = new int[maxResults];
+		int[] bestRank = new int[maxResults];
+		int found = 0;
+
+		int from = LowerBound(q, qlen, false);
+		int to = LowerBound(q, qlen, true);
+		for (int k = from; k < to; k++) {
+			int p = keys[k];
+			int hill = keyHill[k];
+			boolean whole = text[p + qlen] == 0;
+			int rank = (p == nameStart[hill]) ? (whole ? RANK_EXACT : RANK_NAME_PREFIX) : (whole ? RANK_WORD : RANK_WORD_PREFIX);
+			found = offer(bestHill, bestRank, found, hill, rank);
+		}
+
+		if (found < maxResults && qlen >= 3) {
+			// typos are rarely in the first letter, so only walk the keys that share it
+			int maxDist = (qlen <= 5) ? 1 : 2;
+			int cfrom = LowerBound(q, 1, false);
+			int cto = LowerBound(q, 1, true);
+			// one row per depth; past qlen + maxDist nothing can be within maxDist
+			int[][] rows = new int[qlen + maxDist + 2][qlen + 1];
+			for (int i = 0; i <= qlen; i++) rows[0][i] = i;
+			found = fuzzyWalk(q, maxDist, 0, cfrom, cto, rows, bestHill, bestRank, found);
+		}
+
+		for (int i = 0; i < found; i++) {
+			int h = bestHill[i];
+			results.add(new Hills(ids[h], names[h], longitudes[h], latitudes[h], heights[h]));
+		}
+		return results;
+	}
+
+	// keeps the best list sorted by rank then height; a hill only appears once, at its best rank
+	private int offer(int[] bestHill, int[] bestRank, int found, int hill, int rank) {
+		int last = found - 1;
+		if (found == bestHill.length && !better(hill, rank, bestHill[last], bestRank[last])) return found;
+		for (int i = 0; i < found; i++) {
+			if (bestHill[i] != hill) continue;
+			if (bestRank[i] <= rank) return found;
+			// better rank for a hill we already have - take it out and re-insert below
+			System.arraycopy(bestHill, i + 1, bestHill, i, found - i - 1);
+			System.arraycopy(bestRank, i + 1, bestRank, i, found - i - 1);
+			found--;
+			break;
+		}
+		int pos = found;
+		while (pos > 0 && better(hill, rank, bestHill[pos - 1], bestRank[pos - 1])) pos--;
+		if (pos >= bestHill.length) return found;
+		int n = Math.min(found, bestHill.length - 1);
+		System.arraycopy(bestHill, pos, bestHill, pos + 1, n - pos);
+		System.arraycopy(bestRank, pos, bestRank, pos + 1, n - pos);
+		bestHill[pos] = hill;
+		bestRank[pos] = rank;
+		return n + 1;
+	}
+
+	private boolean better(int hill, int rank, int otherHill, int otherRank) {
+		if (rank != otherRank) return rank < otherRank;
+		return heights[hill] > heights[otherHill];
+	}
+
+	/*
+	 * The first key that doesn't sort before the first len characters of q; with after, the first
+	 * that sorts after everything starting with them.
+	 */
+	private int LowerBound(String q, int len, boolean after) {
+		int lo = 0, hi = keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = ComparePrefix(keys[mid], q, len);
+			if (cmp < 0 || (after && cmp == 0)) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	// <0 if the key sorts before q's first len characters, 0 if it starts with them, >0 if after
+	private int ComparePrefix(int p, String q, int len) {
+		for (int i = 0; i < len; i++) {
+			char a = text[p + i], b = q.charAt(i);
+			if (a != b) return a - b; // a key that's ended (0) sorts first
+		}
+		return 0;
+	}
+
+	/*
+	 * Walks the sorted keys as if they were a trie: keys[from..to) all share their first 'depth'
+	 * characters, and rows[depth] is the edit distance row for that shared prefix against the
+	 * query. Each distinct next character extends the row by one step into rows[depth + 1]; a
+	 * branch is dropped as soon as nothing in the row is within maxDist. Once the whole query is
+	 * within maxDist of the prefix, every key below it is a (prefix) match.
+	 */
+	private int fuzzyWalk(String q, int maxDist, int depth, int from, int to, int[][] rows,
+			int[] bestHill, int[] bestRank, int found) {
+		int qlen = q.length();
+		int[] row = rows[depth];
+		int[] next = rows[depth + 1];
+		// keys that end here sort first
+		while (from < to && text[keys[from] + depth] == 0) from++;
+		while (from < to) {
+			char c = text[keys[from] + depth];
+			int lo = from + 1, hi = to;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (text[keys[mid] + depth] <= c) lo = mid + 1;
+				else hi = mid;
+			}
+			int groupEnd = lo;
+
+			next[0] = row[0] + 1;
+			int rowMin = next[0];
+			for (int i = 1; i <= qlen; i++) {
+				int cost = (q.charAt(i - 1) == c) ? 0 : 1;
+				next[i] = Math.min(Math.min(next[i - 1] + 1, row[i] + 1), row[i - 1] + cost);
+				if (next[i] < rowMin) rowMin = next[i];
+			}
+			if (rowMin <= maxDist) {
+				int dist = next[qlen];
+				if (dist <= maxDist && dist > 0) {
+					for (int k = from; k < groupEnd; k++) {
+						found = offer(bestHill, bestRank, found, keyHill[k], RANK_FUZZY + dist);
+					}
+				}
+				// deeper prefixes may still get closer to the query
+				if (dist > 0 && depth + 2 < rows.length) {
+					found = fuzzyWalk(q, maxDist, depth + 1, from, groupEnd, rows, bestHill, bestRank, found);
+				}
+			}
+			from = groupEnd;
+		}
+		return found;
+	}
+
+	private static final String ACCENTED = "\u00e0\u00e1\u00e2\u00e3\u00e4\u00e5\u00e8\u00e9\u00ea\u00eb\u00ec\u00ed\u00ee\u00ef\u00f2\u00f3\u00f4\u00f5\u00f6\u00f8\u00f9\u00fa\u00fb\u00fc\u00fd\u00ff\u00f1\u00e7\u0175\u0177";
+	private static final String PLAIN    = "aaaaaaeeeeiiiioooooouuuuyyncwy";
+
+	/*
+	 * Lower case, accents folded to plain letters, punctuation turned into single spaces.
+	 * (java.text.Normalizer would do the folding but isn't available before Android 2.3.)
+	 */
+	public static String Normalise(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		boolean space = true;
+		for (int i = 0; i < s.length(); i++) {
+			char c = Character.toLowerCase(s.charAt(i));
+			int a = ACCENTED.indexOf(c);
+			if (a >= 0) c = PLAIN.charAt(a);
+			if (Character.isLetterOrDigit(c)) {
+				sb.append(c);
+				space = false;
+			} else if (!space) {
+				sb.append(' ');
+				space = true;
+			}
+		}
+		int len = sb.length();
+		if (len > 0 && sb.charAt(len - 1) == ' ') sb.setLength(len - 1);
+		return sb.toString();
+	}
+}
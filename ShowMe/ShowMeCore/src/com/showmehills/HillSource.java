@@ -0,0 +1,45 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Wherever the hills come from - the SQLite asset database on the phone (HillDatabase), the same
+ * file through JDBC on a PC (JdbcHillSource) or a database import csv (CsvHillSource).
+ */
+public interface HillSource {
+
+	// one row of the hills table, in the order HillQuery.HOT_COLUMNS has them
+	public interface Sink {
+		void Add(int id, String name, double lon, double lat, double height);
+	}
+
+	/*
+	 * Passes every hill that HillQuery.Sql would select for this position to the sink: all of
+	 * them within maxKm's box or, with level of detail, the ones big enough for their band.
+	 * Returns false if the hills couldn't be read at all.
+	 */
+	boolean Candidates(double lat, double lon, float maxKm, boolean lod, Sink sink);
+
+	/*
+	 * Passes the hills HillQuery.AreaSql would select to the sink: the highest limit of them in
+	 * a box of latitude and longitude, for the map. Returns false if they couldn't be read.
+	 */
+	boolean Area(double minLat, double minLon, double maxLat, double maxLon, int limit, Sink sink);
+}
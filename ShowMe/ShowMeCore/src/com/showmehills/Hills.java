@@ -0,0 +1,72 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+    
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+public class Hills {
+	public Hills(int _id, String n, double lon, double lat, double ht) {
+		id = _id;
+		hillname = n;
+		longitude = lon;
+		latitude = lat;
+		height = ht;
+	}
+	
+	// bearing, distance and vertical angle of this hill as seen from the given position
+	public void SetDirectionFrom(double curLatitude, double curLongitude, double curAltitude) {
+		double dLat = Math.toRadians(latitude - curLatitude); 
+		double dLon =  Math.toRadians(longitude - curLongitude); 
+		double lat1 = Math.toRadians(curLatitude);
+		double lat2 = Math.toRadians(latitude);
+		
+		// direction calculation
+		double y = Math.sin(dLon) * Math.cos(lat2);
+		double x = Math.cos(lat1)*Math.sin(lat2) -
+		        Math.sin(lat1)*Math.cos(lat2)*Math.cos(dLon);
+		double brng = Math.atan2(y, x)  * 180 / Math.PI;
+		
+		direction = (brng<0)?brng+360:brng;
+		
+		// distance calculation				
+		double a = Math.sin(dLat/2) * Math.sin(dLat/2) +
+		        Math.cos(lat2) * Math.cos(lat1) * 
+		        Math.sin(dLon/2) * Math.sin(dLon/2); 
+		double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a)); 
+		distance = Math.floor(10 * 6371 * c) / 10.0; // Distance in km
+
+		// vertical angle
+		double dheight = height - curAltitude;
+		
+		visualElevation = Math.atan2(dheight, distance*1000);
+		detailsFor = -1;
+	}
+	int id;
+	String hillname;
+	double longitude;
+	double latitude;
+	double direction;
+	double distance;
+	double visualElevation; // vertical angle looking at peak
+	double height;
+	boolean occluded; // behind nearer ground, see TerrainOcclusion
+	// LabelLayout.Details, kept until the settings it was made with or the direction change
+	String details;
+	int detailsFor = -1;
+}
+
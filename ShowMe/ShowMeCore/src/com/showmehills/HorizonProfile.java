@@ -0,0 +1,195 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/*
+ * What the terrain looks like from one spot: for each of 'bins' equal slices of the compass, a ray
+ * is marched out over the elevation tiles and every point where the ground rises above everything
+ * nearer is kept as a 'ridge'. From that we can tell how high the horizon is in any direction, and
+ * also how high it is counting only the ground nearer than a given distance - which is what
+ * decides whether a hill at that distance can be seen.
+ *
+ * Angles are in radians above level, and allow for the earth's curvature (less a bit for
+ * refraction) so distant ground drops away as it really does.
+ */
+public class HorizonProfile {
+
+	public static final double EARTH_RADIUS_M = 6371000;
+	private static final double REFRACTION = 0.13;
+	private static final double METRES_PER_DEGREE = 111320;
+
+	// about one SRTM 3" sample near the observer, stretching further out where detail matters less
+	private static final double MIN_STEP_M = 90;
+	private static final double STEP_FRACTION = 0.003;
+
+	// eye height above the ground, and how much of a hill's own flanks to ignore when testing it
+	public static final double EYE_HEIGHT_M = 2;
+	private static final double OWN_SLOPE_KM = 0.3;
+	private static final double OWN_SLOPE_FRACTION = 0.02;
+
+	// a hill must be at least this far below the horizon to count as hidden - the DEM is coarse
+	private static final double HIDDEN_MARGIN = Math.toRadians(0.05);
+
+	private static final int BINS_PER_TASK = 8;
+
+	final double latitude;
+	final double longitude;
+	final double altitude;
+	final double maxKm;
+	final int bins;
+
+	// per bin, the distances (km) at which the ground rises above everything nearer, and the angle
+	private final float[][] ridgeKm;
+	private final float[][] ridgeAngle;
+
+	private HorizonProfile(double lat, double lon, double alt, double km, int nbins) {
+		latitude = lat;
+		longitude = lon;
+		altitude = alt;
+		maxKm = km;
+		bins = nbins;
+		ridgeKm = new float[nbins][];
+		ridgeAngle = new float[nbins][];
+	}
+
+	/*
+	 * Marches the rays on the given pool, a few bins per task, and waits for them all. The observer
+	 * is put at least EYE_HEIGHT_M above the ground - GPS altitude is often 0 or well under it.
+	 *
+	 * Rays are started nearest firstBearing first and working round both ways. If skyline isn't
+	 * null (it must have 'bins' entries) each ray's horizon angle is written into it as soon as
+	 * that ray is done, so whoever is drawing the skyline sees the part in view update first.
+	 */
+	public static HorizonProfile Compute(final ElevationTiles dem, double lat, double lon, double alt,
+			double maxKm, int bins, ExecutorService pool, final float[] skyline, double firstBearing) throws InterruptedException {
+		double ground = dem.GetElevation(lat, lon);
+		if (!Double.isNaN(ground) && alt < ground + EYE_HEIGHT_M) alt = ground + EYE_HEIGHT_M;
+
+		final HorizonProfile p = new HorizonProfile(lat, lon, alt, maxKm, bins);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		int chunks = (bins + BINS_PER_TASK - 1) / BINS_PER_TASK;
+		int first = ((int)(firstBearing * bins / 360.0) / BINS_PER_TASK) % chunks;
+		if (first < 0) first += chunks;
+		for (int k = 0; k < chunks; k++) {
+			// first, first+1, first-1, first+2, ...
+			int c = first + ((k % 2 == 1) ? (k + 1) / 2 : -k / 2);
+			c = ((c % chunks) + chunks) % chunks;
+			final int from = c * BINS_PER_TASK;
+			final int to = Math.min(from + BINS_PER_TASK, bins);
+			tasks.add(new Callable<Object>() {
+				public Object call() {
+					for (int i = from; i < to; i++) {
+						float a = p.march(dem, i);
+						if (skyline != null) skyline[i] = a;
+					}
+					return null;
+				}
+			});
+		}
+		pool.invokeAll(tasks);
+		return p;
+	}
+
+	// fills in one bin and returns its horizon angle, NaN if there was no ground data that way
+	private float march(ElevationTiles dem, int bin) {
+		double az = Math.toRadians(bin * 360.0 / bins);
+		double dlat = Math.cos(az) / METRES_PER_DEGREE;
+		double dlon = Math.sin(az) / (METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+		double maxM = maxKm * 1000;
+
+		float[] km = new float[16];
+		float[] ang = new float[16];
+		int n = 0;
+		double best = -Math.PI / 2;
+		for (double d = MIN_STEP_M; d <= maxM; d += Math.max(MIN_STEP_M, d * STEP_FRACTION)) {
+			double e = dem.GetElevation(latitude + d * dlat, longitude + d * dlon);
+			if (Double.isNaN(e)) continue;
+			double a = ApparentAngle(e - altitude, d);
+			if (a <= best) continue;
+			best = a;
+			if (n == km.length) {
+				km = Arrays.copyOf(km, n * 2);
+				ang = Arrays.copyOf(ang, n * 2);
+			}
+			km[n] = (float)(d / 1000);
+			ang[n] = (float)a;
+			n++;
+		}
+		ridgeKm[bin] = Arrays.copyOf(km, n);
+		ridgeAngle[bin] = Arrays.copyOf(ang, n);
+		return (n == 0) ? Float.NaN : ang[n - 1];
+	}
+
+	// angle above level of something dh metres higher than the observer, d metres away
+	public static double ApparentAngle(double dh, double d) {
+		double drop = d * d * (1 - REFRACTION) / (2 * EARTH_RADIUS_M);
+		return Math.atan2(dh - drop, d);
+	}
+
+	/*
+	 * Height of the horizon in the given direction, counting only ground nearer than beforeKm.
+	 * -PI/2 if there's none (flat sea, or no elevation data that way).
+	 */
+	public double HorizonAngle(double bearing, double beforeKm) {
+		int bin = (int)Math.round(bearing * bins / 360.0) % bins;
+		if (bin < 0) bin += bins;
+		float[] km = ridgeKm[bin];
+		// ridges are in order of distance and each is higher than the last
+		int lo = 0, hi = km.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (km[mid] < beforeKm) lo = mid + 1;
+			else hi = mid;
+		}
+		return (lo == 0) ? -Math.PI / 2 : ridgeAngle[bin][lo - 1];
+	}
+
+	// height of the whole horizon in the given direction
+	public double HorizonAngle(double bearing) {
+		return HorizonAngle(bearing, Double.MAX_VALUE);
+	}
+
+	/*
+	 * True if nearer ground hides the top of the hill. The hill falls between two rays, so it's
+	 * only called hidden if it's below the horizon along both of them.
+	 */
+	public boolean IsHidden(Hills h) {
+		double before = h.distance - Math.max(OWN_SLOPE_KM, h.distance * OWN_SLOPE_FRACTION);
+		if (before <= 0) return false;
+		double a = ApparentAngle(h.height - altitude, h.distance * 1000);
+		double step = 360.0 / bins;
+		double b0 = Math.floor(h.direction / step) * step;
+		double horizon = Math.min(HorizonAngle(b0, before), HorizonAngle(b0 + step, before));
+		return a < horizon - HIDDEN_MARGIN;
+	}
+
+	// distance in km from where this profile was computed
+	public double DistanceFrom(double lat, double lon) {
+		double dlat = (lat - latitude) * METRES_PER_DEGREE;
+		double dlon = (lon - longitude) * METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+		return Math.sqrt(dlat * dlat + dlon * dlon) / 1000;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/*
+ * The app's asset database (hillsv1-uk.db etc.) read on a PC through JDBC, running the very same
+ * query the phone does. Needs an SQLite JDBC driver on the classpath, e.g. xerial's
+ * sqlite-jdbc, and a url like "jdbc:sqlite:hillsv1-uk.db".
+ */
+public class JdbcHillSource implements HillSource {
+
+	private final Connection connection;
+
+	public JdbcHillSource(String url) throws SQLException {
+		connection = DriverManager.getConnection(url);
+	}
+
+	public boolean Candidates(double lat, double lon, float maxKm, boolean lod, Sink sink) {
+		return Query(HillQuery.Sql(lat, lon, maxKm, lod), sink);
+	}
+
+	public boolean Area(double minLat, double minLon, double maxLat, double maxLon, int limit, Sink sink) {
+		return Query(HillQuery.AreaSql(minLat, minLon, maxLat, maxLon, limit), sink);
+	}
+
+	private synchronized boolean Query(String sql, Sink sink) {
+		Statement st = null;
+		try {
+			st = connection.createStatement();
+			ResultSet rs = st.executeQuery(sql);
+			while (rs.next()) {
+				sink.Add(rs.getInt(1), rs.getString(2), rs.getDouble(3), rs.getDouble(4), rs.getDouble(5));
+			}
+			rs.close();
+			return true;
+		} catch (SQLException e) {
+			System.err.println("hill query failed: " + e.getMessage());
+			return false;
+		} finally {
+			if (st != null) {
+				try {
+					st.close();
+				} catch (SQLException e) {
+					// nothing more to do
+				}
+			}
+		}
+	}
+
+	public synchronized void Close() {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// nothing more to do
+		}
+	}
+}
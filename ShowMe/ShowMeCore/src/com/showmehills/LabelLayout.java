@@ -0,0 +1,211 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+
+/*
+ * Where the labels go over the camera view, and what they say. Nearest hills get the lowest and
+ * biggest labels; each one further away is stacked above the last in a slightly smaller font,
+ * until the labels run out of room at the top of the screen. DrawOnTop draws what Layout leaves
+ * in GetLabels(); nothing here knows about the screen beyond the heights it's given.
+ */
+public class LabelLayout {
+
+	public static final float TEXT_SIZE_DECREMENT = 1;
+	public static final float TEXT_SIZE_MIN = 7;
+
+	public static class Label {
+		public Hills h;
+		public double ratio; // across the view, see GeoEngine.ViewRatio
+		public int toppt; // where the label sits, before Layout's final adjustment
+		public float textSize;
+	}
+
+	public float hfov = 50.2f;
+	public float textSize = 25;
+	public boolean showdir = false;
+	public boolean showdist = false;
+	public boolean showheight = false;
+	public boolean metric = true;
+	public boolean hideoccluded = false;
+
+	private final ArrayList<Label> labels = new ArrayList<Label>();
+	// labels from earlier layouts, reused rather than made again every frame
+	private final ArrayList<Label> pool = new ArrayList<Label>();
+
+	// what Filter found in view, and where across it
+	private final ArrayList<Hills> inView = new ArrayList<Hills>();
+	private double[] inViewRatio = new double[64];
+
+	/*
+	 * Lays out labels for the hills (nearest first) in view at this heading, starting from topPt
+	 * and working up. Returns how far the stack went past the top, which the labels' toppt has to
+	 * be offset by when they're drawn. The same as Filter then Stack.
+	 */
+	public int Layout(ArrayList<Hills> hills, double heading, int topPt) {
+		Filter(hills, heading);
+		return Stack(topPt);
+	}
+
+	// picks out the hills (nearest first) within the field of view at this heading
+	public void Filter(ArrayList<Hills> hills, double heading) {
+		inView.clear();
+		for (int i = 0; i < hills.size(); i++)
+		{
+			Hills h1 = hills.get(i);
+			if (hideoccluded && h1.occluded) continue;
+
+			double ratio = GeoEngine.ViewRatio(heading, h1.direction, hfov);
+			if (Double.isNaN(ratio)) continue;
+
+			if (inView.size() == inViewRatio.length)
+			{
+				double[] r = new double[inViewRatio.length * 2];
+				System.arraycopy(inViewRatio, 0, r, 0, inViewRatio.length);
+				inViewRatio = r;
+			}
+			inViewRatio[inView.size()] = ratio;
+			inView.add(h1);
+		}
+	}
+
+	// stacks labels for what the last Filter found, as Layout does
+	public int Stack(int topPt) {
+		float drawtextsize = textSize;
+		// (not addAll, which copies through a new array)
+		for (int i = 0; i < labels.size(); i++) pool.add(labels.get(i));
+		labels.clear();
+		for (int i = 0; i < inView.size() && topPt > 0; i++)
+		{
+			Hills h1 = inView.get(i);
+			Label th = pool.isEmpty() ? new Label() : pool.remove(pool.size() - 1);
+			th.h = h1;
+			th.ratio = inViewRatio[i];
+			th.toppt = topPt;
+			th.textSize = drawtextsize;
+			labels.add(th);
+
+			topPt -= MoreInfo(h1) ? (1 + drawtextsize*2) : drawtextsize;
+
+			if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
+			{
+				drawtextsize -= TEXT_SIZE_DECREMENT;
+			}
+		}
+
+		// Fudge-factor because we don't know exactly how high label text will display until we draw it later.
+		// A tiny font at the top needs to be moved down slightly to avoid being clipped; larger fonts seem OK.
+		topPt -= Math.max(0, 13 - drawtextsize);
+		return topPt;
+	}
+
+	// the labels from the last Layout, nearest first
+	public ArrayList<Label> GetLabels() {
+		return labels;
+	}
+
+	// whether the label has a second line for direction, distance or height
+	public boolean MoreInfo(Hills h) {
+		return showdir || showdist || showheight && h.height > 0;
+	}
+
+	/*
+	 * The second line of the label: direction, distance and/or height in brackets; null if there's
+	 * nothing to show. Made once per hill and kept on it, so drawing a frame doesn't build strings.
+	 */
+	public String Details(Hills h) {
+		if (!(showdir || showdist || showheight)) return null;
+		int key = (showdir ? 1 : 0) | (showdist ? 2 : 0) | (showheight ? 4 : 0) | (metric ? 8 : 0);
+		if (h.detailsFor != key)
+		{
+			h.details = MakeDetails(h);
+			h.detailsFor = key;
+		}
+		return h.details;
+	}
+
+	private String MakeDetails(Hills h) {
+		boolean hascontents = false;
+		String marker = " (";
+		if (showdir)
+		{
+			hascontents = true;
+			marker += Math.floor(10*h.direction)/10 + "\u00B0";
+		}
+		if (showdist)
+		{
+			hascontents = true;
+			double multip = (metric)?1:0.621371;
+			marker += (showdir ? " " : "") + Math.floor(10*h.distance*multip)/10;
+			if (metric) marker += "km"; else marker += "miles";
+		}
+		if (showheight)
+		{
+			if (h.height > 0)
+			{
+				hascontents = true;
+				marker += ((showdir || showdist) ? " " : "") + HeightText(h.height, metric);
+			}
+		}
+		marker += ")";
+		return hascontents ? marker : null;
+	}
+
+	public static String HeightText(double metres, boolean metric) {
+		if (metric) return (int)metres + "m";
+		else return (int)(metres*3.2808399) + "ft";
+	}
+
+	// HeightText without making a string
+	public static void AppendHeight(StringBuilder sb, double metres, boolean metric) {
+		if (metric) AppendInt(sb, (int)metres).append('m');
+		else AppendInt(sb, (int)(metres*3.2808399)).append("ft");
+	}
+
+	/*
+	 * The digits of n, one char at a time: StringBuilder.append(int) makes a scratch array on some
+	 * Android versions, and this is for text drawn every frame.
+	 */
+	public static StringBuilder AppendInt(StringBuilder sb, int n) {
+		if (n < 0)
+		{
+			sb.append('-');
+			if (n == Integer.MIN_VALUE) return sb.append("2147483648");
+			n = -n;
+		}
+		int div = 1;
+		while (n / div >= 10) div *= 10;
+		for (; div > 0; div /= 10) sb.append((char)('0' + n / div % 10));
+		return sb;
+	}
+
+	// v to one decimal place, rounded, as "%.1f" would but allocation free
+	public static StringBuilder AppendTenths(StringBuilder sb, double v) {
+		long t = Math.round(v * 10);
+		if (t < 0)
+		{
+			sb.append('-');
+			t = -t;
+		}
+		AppendInt(sb, (int)(t / 10)).append('.');
+		return sb.append((char)('0' + t % 10));
+	}
+}
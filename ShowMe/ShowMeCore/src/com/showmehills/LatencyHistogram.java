@@ -0,0 +1,113 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Durations in nanoseconds, counted into a fixed set of buckets: eight to each power of two from
+ * 1us up to about 30s, and eight of 128ns below that. Recording is a couple of atomic increments
+ * with nothing allocated, so any thread can record while another reads, without locks. A
+ * percentile comes out as the top of its bucket - within 1/8 of a power of two, about 12% -
+ * which is plenty for telling 2ms from 20ms.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB = 1 << SUB_BITS;
+	// the first power of two with buckets of its own, 1024ns
+	private static final int MIN_SHIFT = 10;
+	private static final int OCTAVES = 25;
+	public static final int BUCKETS = (OCTAVES + 1) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void Record(long ns) {
+		if (ns < 0) ns = 0;
+		counts.incrementAndGet(Bucket(ns));
+		count.incrementAndGet();
+		sum.addAndGet(ns);
+		long m;
+		while (ns > (m = max.get()) && !max.compareAndSet(m, ns)) { }
+	}
+
+	public static int Bucket(long ns) {
+		if (ns < (1L << MIN_SHIFT)) return (int)(ns >> (MIN_SHIFT - SUB_BITS));
+		int log2 = 63 - Long.numberOfLeadingZeros(ns);
+		int octave = log2 - MIN_SHIFT + 1;
+		if (octave > OCTAVES) return BUCKETS - 1;
+		return octave * SUB + (int)((ns >> (log2 - SUB_BITS)) & (SUB - 1));
+	}
+
+	// smallest duration that goes in bucket i
+	public static long BucketLow(int i) {
+		if (i < SUB) return (long)i << (MIN_SHIFT - SUB_BITS);
+		int log2 = i / SUB + MIN_SHIFT - 1;
+		return (long)(SUB + i % SUB) << (log2 - SUB_BITS);
+	}
+
+	// first duration past bucket i
+	public static long BucketHigh(int i) {
+		if (i == BUCKETS - 1) return Long.MAX_VALUE;
+		return BucketLow(i + 1);
+	}
+
+	public long Count() { return count.get(); }
+	public long Max() { return max.get(); }
+	public long Mean() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / n;
+	}
+
+	/*
+	 * The duration that fraction p (0.5 for the median) of the recordings are no longer than,
+	 * rounded up to the top of its bucket but never past the longest actually seen. 0 if there
+	 * are none yet.
+	 */
+	public long Percentile(double p) {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(p * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(BucketHigh(i) - 1, max.get());
+		}
+		return max.get();
+	}
+
+	// the count in bucket i
+	public long Get(int i) {
+		return counts.get(i);
+	}
+
+	// not atomic as a whole: anything recorded meanwhile may or may not survive
+	public void Reset() {
+		for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
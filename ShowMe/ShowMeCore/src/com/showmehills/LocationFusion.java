@@ -0,0 +1,172 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Combines fixes from all the location providers into one position. Each fix is trusted according
+ * to its reported accuracy, how old it is and which provider it came from (a network fix claiming
+ * 20m is rarely as good as a GPS one claiming the same), and fed into a small Kalman filter:
+ * one for position, treated the same north/south and east/west, and one for altitude. Between
+ * fixes the estimate is assumed to get worse as fast as someone walking briskly could move.
+ *
+ * The result is published as an immutable Snapshot with a version number that goes up by one
+ * with every change, so readers on any thread just take the latest one - no locking.
+ * Fixes are expected from one thread at a time (the location callbacks).
+ */
+public class LocationFusion {
+
+	// how unreliable each provider is compared with what it reports
+	private static final double GPS_FACTOR = 1.0;
+	private static final double NETWORK_FACTOR = 2.0;
+	private static final double OTHER_FACTOR = 3.0;
+
+	// metres a fix is taken to have drifted per second of age, and the position noise (m^2/s)
+	private static final double AGE_DRIFT_MPS = 1.5;
+	private static final double PROCESS_NOISE = 4.0;
+	private static final double ALTITUDE_NOISE = 1.0;
+
+	// GPS height is usually about half as good again as its horizontal accuracy
+	private static final double VERTICAL_FACTOR = 1.5;
+
+	// fixes older than this are ignored, unless there's nothing else to go on
+	private static final long MAX_AGE_MS = 120000;
+
+	private static final double METRES_PER_DEGREE = 111320;
+
+	public static class Snapshot {
+		Snapshot(long v, String p, double lat, double lon, boolean hasAlt, double alt, float acc, long t) {
+			version = v;
+			provider = p;
+			latitude = lat;
+			longitude = lon;
+			hasAltitude = hasAlt;
+			altitude = alt;
+			accuracy = acc;
+			time = t;
+		}
+		public final long version;
+		public final String provider; // of the fix that last moved it
+		public final double latitude;
+		public final double longitude;
+		public final boolean hasAltitude;
+		public final double altitude;
+		public final float accuracy; // metres, one standard deviation
+		public final long time;
+	}
+
+	private volatile Snapshot snapshot;
+
+	// filter state, only touched by the thread adding fixes
+	private double lat, lon, alt;
+	private double posVar = -1;
+	private double altVar = -1;
+	private long lastTime;
+
+	public Snapshot GetSnapshot() {
+		return snapshot;
+	}
+
+	/*
+	 * Takes one fix and returns the new snapshot, or null if the fix was ignored. hasAltitude
+	 * should be false if the provider gave no altitude (many report exactly 0 then).
+	 */
+	public Snapshot Add(String provider, double fixLat, double fixLon, boolean hasAltitude, double fixAlt,
+			float accuracy, long fixTime, long now) {
+		long age = Math.max(0, now - fixTime);
+		if (posVar >= 0 && age > MAX_AGE_MS) return null;
+
+		double factor = "gps".equals(provider) ? GPS_FACTOR : "network".equals(provider) ? NETWORK_FACTOR : OTHER_FACTOR;
+		double sigma = Math.max(1, accuracy) * factor + AGE_DRIFT_MPS * age / 1000.0;
+		double r = sigma * sigma;
+
+		if (posVar < 0) {
+			// first fix (or the first after Reset) - take it as it is
+			lat = fixLat;
+			lon = fixLon;
+			posVar = r;
+		} else {
+			// predict forward to this fix; an older fix than the last doesn't move time back
+			double dt = Math.max(0, fixTime - lastTime) / 1000.0;
+			posVar += PROCESS_NOISE * dt;
+			altVar += (altVar >= 0) ? ALTITUDE_NOISE * dt : 0;
+
+			double k = posVar / (posVar + r);
+			lat += k * (fixLat - lat);
+			lon += k * (fixLon - lon);
+			posVar *= (1 - k);
+		}
+
+		if (hasAltitude && fixAlt != 0) {
+			double vs = sigma * VERTICAL_FACTOR;
+			double vr = vs * vs;
+			if (altVar < 0) {
+				alt = fixAlt;
+				altVar = vr;
+			} else {
+				double k = altVar / (altVar + vr);
+				alt += k * (fixAlt - alt);
+				altVar *= (1 - k);
+			}
+		}
+		lastTime = Math.max(lastTime, fixTime);
+
+		Snapshot prev = snapshot;
+		Snapshot s = new Snapshot((prev == null) ? 1 : prev.version + 1, provider, lat, lon,
+				altVar >= 0, alt, (float)Math.sqrt(posVar), lastTime);
+		snapshot = s;
+		return s;
+	}
+
+	/*
+	 * Dead reckoning: moves the estimate by the given number of metres north and east without a
+	 * fix, e.g. one walking step, and makes it that much less certain. Returns the new snapshot,
+	 * or null if there's no position yet to move.
+	 */
+	public Snapshot Advance(double north, double east, double uncertainty, long now) {
+		if (posVar < 0) return null;
+		lat += north / METRES_PER_DEGREE;
+		lon += east / (METRES_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+		posVar += uncertainty * uncertainty;
+
+		Snapshot prev = snapshot;
+		Snapshot s = new Snapshot(prev.version + 1, prev.provider, lat, lon,
+				altVar >= 0, alt, (float)Math.sqrt(posVar), Math.max(lastTime, now));
+		snapshot = s;
+		return s;
+	}
+
+	// forget everything, e.g. after being switched off for a long time
+	public void Reset() {
+		posVar = -1;
+		altVar = -1;
+		lastTime = 0;
+	}
+
+	// straight-line distance in metres between two snapshots, near enough for short distances
+	public static double Distance(Snapshot a, Snapshot b) {
+		return Distance(a.latitude, a.longitude, b.latitude, b.longitude);
+	}
+
+	public static double Distance(double lat1, double lon1, double lat2, double lon2) {
+		double dlat = (lat1 - lat2) * METRES_PER_DEGREE;
+		double dlon = (lon1 - lon2) * METRES_PER_DEGREE * Math.cos(Math.toRadians(lat1));
+		return Math.sqrt(dlat * dlat + dlon * dlon);
+	}
+}
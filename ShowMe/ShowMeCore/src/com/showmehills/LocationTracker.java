@@ -0,0 +1,193 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * The decisions behind RapidGPSLock, without any Android in them so a recorded trace can be
+ * replayed through exactly the same logic on a PC:
+ *
+ *  - fixes from every provider go through LocationFusion;
+ *  - the providers are asked (through Source) for updates no more often than suits how fast we're
+ *    moving and how good the fixes are, re-asking only when that changes by a factor of two;
+ *  - walking steps (dead reckoning) move the position on between fixes and stretch the interval;
+ *  - while the phone lies still the interval is stretched much further and wandering fixes are
+ *    ignored;
+ *  - Listener only hears about a change that's significant compared with the last one it was
+ *    told about - moved SIGNIFICANT_MOVE_M, or a lot more accurate.
+ *
+ * Times are passed in (wall clock ms) rather than read, so a replay gives the same answers.
+ */
+public class LocationTracker {
+
+	public interface Source {
+		// ask the providers for fixes no more often than this
+		void SetUpdateRate(long minTimeMs, float minDistanceM);
+	}
+
+	public interface Listener {
+		// the position has changed enough for downstream to look again
+		void SignificantMove(LocationFusion.Snapshot s);
+	}
+
+	private static final float SIGNIFICANT_MOVE_M = 25;
+	private static final float SIGNIFICANT_ACCURACY_GAIN = 2;
+
+	// limits for what we ask of the providers
+	private static final long MIN_TIME_MS = 1000;
+	private static final long MAX_TIME_MS = 30000;
+	private static final float MIN_DISTANCE_M = 5;
+	private static final float MAX_DISTANCE_M = 50;
+	// slower than this (m/s) counts as standing still
+	private static final float STATIONARY_SPEED = 0.5f;
+
+	// while steps are carrying the position along, fixes are needed this much less often
+	private static final int DEAD_RECKONING_TIME_FACTOR = 3;
+	private static final long DEAD_RECKONING_TIMEOUT_MS = 5000;
+	// how far out each step's length and direction could be, in metres
+	private static final double STEP_UNCERTAINTY_M = 0.3;
+
+	// while the phone is lying still, fixes are only needed to catch a better one now and then
+	private static final long STATIONARY_TIME_MS = 120000;
+
+	private final LocationFusion fusion = new LocationFusion();
+	private final Source source;
+	private final Listener listener;
+
+	private LocationFusion.Snapshot lastMove;
+	private boolean hasSpeed = false;
+	private float speed;
+	private long requestedTime = MIN_TIME_MS;
+	private float requestedDistance = MIN_DISTANCE_M;
+	private boolean stationary = false;
+	private long lastStepTime = 0;
+
+	public LocationTracker(Source source, Listener listener) {
+		this.source = source;
+		this.listener = listener;
+	}
+
+	// null until there's been any fix at all
+	public LocationFusion.Snapshot GetSnapshot() {
+		return fusion.GetSnapshot();
+	}
+
+	// speed reported with the latest fix, if it had one
+	public boolean HasSpeed() { return hasSpeed; }
+	public float GetSpeed() { return speed; }
+
+	// what the providers should currently be asked for
+	public long GetUpdateTime() { return stationary ? STATIONARY_TIME_MS : requestedTime; }
+	public float GetUpdateDistance() { return stationary ? MAX_DISTANCE_M : requestedDistance; }
+
+	/*
+	 * A fix from one of the providers. Returns false if it was too old to use.
+	 */
+	public boolean AddFix(String provider, double lat, double lon, boolean hasAltitude, double alt,
+			float accuracy, boolean fixHasSpeed, float fixSpeed, long time, long now) {
+		LocationFusion.Snapshot prev = fusion.GetSnapshot();
+		if (!Seed(provider, lat, lon, hasAltitude, alt, accuracy, fixHasSpeed, fixSpeed, time, now)) return false;
+		LocationFusion.Snapshot snap = fusion.GetSnapshot();
+
+		adaptUpdateRate(prev, lat, lon, accuracy, time, now);
+
+		// lying still, an apparent move is just the fix wandering - unless it says we're going somewhere
+		boolean canMove = !stationary || (hasSpeed && speed > STATIONARY_SPEED);
+		if (lastMove == null ||
+			(canMove && LocationFusion.Distance(snap, lastMove) >= Math.max(SIGNIFICANT_MOVE_M, snap.accuracy)) ||
+			snap.accuracy * SIGNIFICANT_ACCURACY_GAIN <= lastMove.accuracy)
+		{
+			move(snap);
+		}
+		return true;
+	}
+
+	/*
+	 * A fix to start from (the last known location, or a fallback): taken into the fusion but not
+	 * passed on or used to change the update rate.
+	 */
+	public boolean Seed(String provider, double lat, double lon, boolean hasAltitude, double alt,
+			float accuracy, boolean fixHasSpeed, float fixSpeed, long time, long now) {
+		if (fusion.Add(provider, lat, lon, hasAltitude, alt, accuracy, time, now) == null) return false;
+		hasSpeed = fixHasSpeed;
+		speed = fixSpeed;
+		return true;
+	}
+
+	/*
+	 * One walking step of 'stride' metres towards 'heading' (degrees), from StepDetector. Moves the
+	 * position on between fixes, and tells the listener once the steps add up to a significant move.
+	 */
+	public void Step(double stride, double heading, long now) {
+		lastStepTime = now;
+		double h = Math.toRadians(heading);
+		LocationFusion.Snapshot snap = fusion.Advance(stride * Math.cos(h), stride * Math.sin(h), STEP_UNCERTAINTY_M, now);
+		if (snap == null) return;
+		hasSpeed = false;
+		if (lastMove != null && LocationFusion.Distance(snap, lastMove) >= SIGNIFICANT_MOVE_M) move(snap);
+	}
+
+	/*
+	 * Told when the phone starts or stops lying still. Once it moves the normal rate is back
+	 * straight away, and anything missed is caught up.
+	 */
+	public void SetStationary(boolean still) {
+		if (still == stationary) return;
+		stationary = still;
+		source.SetUpdateRate(GetUpdateTime(), GetUpdateDistance());
+
+		LocationFusion.Snapshot snap = fusion.GetSnapshot();
+		if (!still && snap != null && lastMove != null &&
+			LocationFusion.Distance(snap, lastMove) >= Math.max(SIGNIFICANT_MOVE_M, snap.accuracy))
+		{
+			move(snap);
+		}
+	}
+
+	private void move(LocationFusion.Snapshot snap) {
+		lastMove = snap;
+		listener.SignificantMove(snap);
+	}
+
+	/*
+	 * Time between updates is about the time it takes to move SIGNIFICANT_MOVE_M at the current
+	 * speed; distance between updates is half the accuracy, since moving less than that can't be
+	 * told apart from noise.
+	 */
+	private void adaptUpdateRate(LocationFusion.Snapshot prev, double lat, double lon, float accuracy, long time, long now) {
+		float v;
+		if (hasSpeed) v = speed;
+		else if (prev != null && time > prev.time) v = (float)(LocationFusion.Distance(prev.latitude, prev.longitude, lat, lon) * 1000 / (time - prev.time));
+		else v = 0;
+
+		long t = (long)(1000 * SIGNIFICANT_MOVE_M / Math.max(v, STATIONARY_SPEED));
+		if (now - lastStepTime < DEAD_RECKONING_TIMEOUT_MS) t *= DEAD_RECKONING_TIME_FACTOR;
+		t = Math.max(MIN_TIME_MS, Math.min(MAX_TIME_MS, t));
+		float distance = Math.max(MIN_DISTANCE_M, Math.min(MAX_DISTANCE_M, accuracy / 2));
+
+		if (t * 2 <= requestedTime || t >= requestedTime * 2 ||
+			distance * 2 <= requestedDistance || distance >= requestedDistance * 2)
+		{
+			requestedTime = t;
+			requestedDistance = distance;
+			// (while stationary these wait until we move again)
+			if (!stationary) source.SetUpdateRate(requestedTime, requestedDistance);
+		}
+	}
+}
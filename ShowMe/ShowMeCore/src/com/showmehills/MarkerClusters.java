@@ -0,0 +1,143 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+
+/*
+ * The hills on the map, and how they're grouped at each zoom level so that a few hundred of them
+ * don't end up as one unreadable heap of markers. The map is cut into a grid of cells CELL_PX
+ * pixels across at the current zoom and each cell with any hills in it gets one marker, at its
+ * highest hill. The grouping is only worked out again when the zoom or the set of hills changes,
+ * and the set changes by adding and removing hills by id rather than starting again.
+ */
+public class MarkerClusters {
+
+	// roughly a marker and its label across
+	public static final int CELL_PX = 64;
+	// map tiles are 256 pixels across; zoom level z is 2^z of them round the world
+	static final int TILE_PX = 256;
+
+	public static class Cluster {
+		public Hills top; // the highest, where the marker goes
+		public int count;
+		public int latE6, lonE6;
+	}
+
+	public static class Diff {
+		public final ArrayList<Integer> added = new ArrayList<Integer>();
+		public final ArrayList<Integer> removed = new ArrayList<Integer>();
+
+		public boolean IsEmpty() { return added.isEmpty() && removed.isEmpty(); }
+	}
+
+	private final LinkedHashMap<Integer, Hills> hills = new LinkedHashMap<Integer, Hills>();
+	private ArrayList<Cluster> clusters = new ArrayList<Cluster>();
+	private int clusteredZoom = -1;
+	private boolean dirty = true;
+
+	public int Size() {
+		return hills.size();
+	}
+
+	public boolean Contains(int id) {
+		return hills.containsKey(id);
+	}
+
+	public void Add(Hills h) {
+		if (hills.put(h.id, h) != h) dirty = true;
+	}
+
+	public boolean Remove(int id) {
+		if (hills.remove(id) == null) return false;
+		dirty = true;
+		return true;
+	}
+
+	public void Clear() {
+		if (hills.isEmpty()) return;
+		hills.clear();
+		dirty = true;
+	}
+
+	// makes the set of hills the given one, adding and removing only what's different
+	public Diff Update(Collection<Hills> latest) {
+		Diff d = new Diff();
+		HashSet<Integer> keep = new HashSet<Integer>();
+		for (Hills h : latest) {
+			keep.add(h.id);
+			if (!hills.containsKey(h.id)) d.added.add(h.id);
+			Add(h);
+		}
+		for (Integer id : hills.keySet()) {
+			if (!keep.contains(id)) d.removed.add(id);
+		}
+		for (int i = 0; i < d.removed.size(); i++) Remove(d.removed.get(i));
+		return d;
+	}
+
+	/*
+	 * The markers for a zoom level. The same list comes back until the zoom or the hills change,
+	 * so callers can keep what they've made from it alongside.
+	 */
+	public ArrayList<Cluster> Clusters(int zoom) {
+		if (!dirty && zoom == clusteredZoom) return clusters;
+		int cell = CellE6(zoom);
+		HashMap<Long, Cluster> cells = new HashMap<Long, Cluster>();
+		ArrayList<Cluster> result = new ArrayList<Cluster>();
+		for (Hills h : hills.values()) {
+			int latE6 = (int)(h.latitude * 1E6);
+			int lonE6 = (int)(h.longitude * 1E6);
+			long key = ((long)FloorDiv(latE6, cell) << 32) | (FloorDiv(lonE6, cell) & 0xffffffffL);
+			Cluster c = cells.get(key);
+			if (c == null) {
+				c = new Cluster();
+				cells.put(key, c);
+				result.add(c);
+			}
+			c.count++;
+			if (c.top == null || h.height > c.top.height) {
+				c.top = h;
+				c.latE6 = latE6;
+				c.lonE6 = lonE6;
+			}
+		}
+		clusters = result;
+		clusteredZoom = zoom;
+		dirty = false;
+		return clusters;
+	}
+
+	// how many millionths of a degree a cell is across at this zoom
+	public static int CellE6(int zoom) {
+		double worldPx = TILE_PX * Math.pow(2, Math.max(0, zoom));
+		return Math.max(1, (int)(360E6 * CELL_PX / worldPx));
+	}
+
+	static int FloorDiv(int a, int b) {
+		int q = a / b;
+		return (a % b != 0 && (a < 0)) ? q - 1 : q;
+	}
+}
@@ -0,0 +1,131 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Named counters and latency histograms for the parts of the app that aren't per frame (that's
+ * FrameTimer) - the hill query above all. Anything can look them up by name: the perf HUD, the
+ * metrics screen and the crash report all read the same registry.
+ *
+ * Look a metric up once and keep it in a static field; the lookup locks, the updates don't.
+ * Counters always count, since the failure counts are wanted in crash reports whether or not
+ * anyone asked for timings. Timing is only done while enabled - Start is a volatile read and
+ * returns 0 otherwise, which Stop takes as nothing to record.
+ */
+public class Metrics {
+
+	public static class Counter {
+		private final AtomicLong value = new AtomicLong();
+
+		public void Inc() { value.incrementAndGet(); }
+		public void Add(long n) { value.addAndGet(n); }
+		// for the ones that say how things are now rather than count up, e.g. rows in the last query
+		public void Set(long n) { value.set(n); }
+		public long Get() { return value.get(); }
+	}
+
+	private static final Metrics sMetrics = new Metrics();
+
+	private final TreeMap<String, Counter> counters = new TreeMap<String, Counter>();
+	private final TreeMap<String, LatencyHistogram> histograms = new TreeMap<String, LatencyHistogram>();
+	private volatile boolean enabled = false;
+
+	public static Metrics Get() {
+		return sMetrics;
+	}
+
+	// the counter called name, made on first asking
+	public synchronized Counter Counter(String name) {
+		Counter c = counters.get(name);
+		if (c == null)
+		{
+			c = new Counter();
+			counters.put(name, c);
+		}
+		return c;
+	}
+
+	// the histogram called name, made on first asking; durations in ns
+	public synchronized LatencyHistogram Histogram(String name) {
+		LatencyHistogram h = histograms.get(name);
+		if (h == null)
+		{
+			h = new LatencyHistogram();
+			histograms.put(name, h);
+		}
+		return h;
+	}
+
+	public void SetEnabled(boolean on) {
+		enabled = on;
+	}
+
+	public boolean IsEnabled() {
+		return enabled;
+	}
+
+	public long Start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	// records the time since start into h and returns now, so stages can be chained
+	public long Stop(LatencyHistogram h, long start) {
+		if (start == 0) return 0;
+		long now = System.nanoTime();
+		h.Record(now - start);
+		return now;
+	}
+
+	// one line per histogram for the HUD: count and p50/p95/p99 in ms, lined up with FrameTimer's
+	public static String Summary(String name, LatencyHistogram h) {
+		return String.format(Locale.US, "%-10s %6.2f %6.2f %6.2f", name,
+				h.Percentile(0.5) / 1e6, h.Percentile(0.95) / 1e6, h.Percentile(0.99) / 1e6);
+	}
+
+	/*
+	 * Everything as text, a line each: counters as "name value", histograms as
+	 * "name n=count mean= p50= p95= p99= max=" in ms. Sorted by name.
+	 */
+	public synchronized String Dump() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Counter> e : counters.entrySet())
+		{
+			sb.append(e.getKey()).append(' ').append(e.getValue().Get()).append('\n');
+		}
+		for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet())
+		{
+			LatencyHistogram h = e.getValue();
+			sb.append(String.format(Locale.US, "%s n=%d mean=%.2f p50=%.2f p95=%.2f p99=%.2f max=%.2f\n", e.getKey(), h.Count(),
+					h.Mean() / 1e6, h.Percentile(0.5) / 1e6, h.Percentile(0.95) / 1e6, h.Percentile(0.99) / 1e6, h.Max() / 1e6));
+		}
+		return sb.toString();
+	}
+
+	public synchronized void Reset() {
+		for (Counter c : counters.values()) c.Set(0);
+		for (LatencyHistogram h : histograms.values()) h.Reset();
+	}
+}
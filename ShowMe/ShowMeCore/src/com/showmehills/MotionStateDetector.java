@@ -0,0 +1,109 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Works out from the accelerometer whether the phone is lying still, being held and panned
+ * around, or being carried by someone walking, so the rest of the app can slow down when
+ * nothing is changing.
+ *
+ * The size of the acceleration is tracked as a running mean and variance over about a second.
+ * It only counts as Stationary once the variance has stayed below STILL_VARIANCE for
+ * STILL_ENTER_NS, but it stops being Stationary on the very first reading that's far enough
+ * from the mean - so however slowly the sensors have been turned down to, the full rate comes
+ * back one reading after the phone is picked up.
+ *
+ * Plain Java, fed with the same numbers as a SensorEvent.
+ */
+public class MotionStateDetector {
+
+	public enum State {
+		Stationary,
+		Panning,
+		Walking
+	}
+
+	private static final double WINDOW_S = 1.0;
+
+	// (m/s^2)^2 - a phone on a table is well under this, even a steady hand is over it
+	private static final double STILL_VARIANCE = 0.0036;
+	private static final long STILL_ENTER_NS = 2000000000L;
+
+	// one reading this far (m/s^2) from the mean is enough to say we're moving again
+	private static final double WAKE_DEVIATION = 0.25;
+
+	private State state = State.Panning;
+	private long stateSince = 0;
+	private long quietSince = 0;
+
+	private boolean started = false;
+	private long lastTime;
+	private double mean;
+	private double variance;
+
+	/*
+	 * Adds one accelerometer reading (m/s^2, timestamp in ns) and returns the state after it.
+	 * walking says whether steps are being seen (StepDetector.IsWalking).
+	 */
+	public State AddSample(float x, float y, float z, long timestamp, boolean walking) {
+		double mag = Math.sqrt(x * x + y * y + z * z);
+		if (!started) {
+			mean = mag;
+			variance = STILL_VARIANCE * 4;
+			lastTime = stateSince = quietSince = timestamp;
+			started = true;
+			return state;
+		}
+		double dt = (timestamp - lastTime) / 1e9;
+		lastTime = timestamp;
+		if (dt <= 0) return state;
+
+		double d = mag - mean;
+		double k = Math.min(1, dt / WINDOW_S);
+		mean += k * d;
+		variance += k * (d * d - variance);
+
+		State next;
+		if (Math.abs(d) > WAKE_DEVIATION || variance > STILL_VARIANCE) {
+			quietSince = timestamp;
+			next = walking ? State.Walking : State.Panning;
+		} else if (timestamp - quietSince >= STILL_ENTER_NS) {
+			next = State.Stationary;
+		} else {
+			// quiet, but not for long enough yet
+			next = (state == State.Stationary) ? State.Stationary : walking ? State.Walking : State.Panning;
+		}
+
+		if (next != state) {
+			state = next;
+			stateSince = timestamp;
+		}
+		return state;
+	}
+
+	public State GetState() {
+		return state;
+	}
+
+	// timestamp (ns) of the reading that moved us into the current state
+	public long GetStateSince() {
+		return stateSince;
+	}
+}
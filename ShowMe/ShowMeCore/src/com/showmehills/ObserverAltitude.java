@@ -0,0 +1,78 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Best guess at the observer's eye height. GPS altitude is often missing (0) or 50m+ out, which
+ * moves every label up or down; the ground height under the fix from the elevation tiles is
+ * usually much better, unless the fix itself is so loose that the ground could be anywhere on a
+ * hillside. So the two are weighted by how far each is likely to be out:
+ *
+ *  - GPS height is taken to be GPS_VERTICAL_FACTOR times worse than the reported accuracy;
+ *  - the tiles are taken to be DEM_ERROR_M out, plus however much the ground height changes
+ *    within the reported accuracy of the fix (sampled a circle's width away each side).
+ *
+ * Five tile lookups per fix, so cheap enough to do on every one.
+ */
+public class ObserverAltitude {
+
+	private static final double DEM_ERROR_M = 10;
+	private static final double GPS_VERTICAL_FACTOR = 1.5;
+
+	// used when the fix doesn't say how accurate it is
+	private static final double UNKNOWN_ACCURACY_M = 50;
+
+	private static final double METRES_PER_DEGREE = 111320;
+
+	/*
+	 * dem may be null (no tiles), and gpsAltitude is ignored if hasGpsAltitude is false. Returns
+	 * the GPS altitude unchanged if there's nothing better to go on.
+	 */
+	public static double Estimate(ElevationTiles dem, double lat, double lon,
+			boolean hasGpsAltitude, double gpsAltitude, double accuracy) {
+		if (dem == null) return gpsAltitude;
+		double ground = dem.GetElevation(lat, lon);
+		if (Double.isNaN(ground)) return gpsAltitude;
+		double eye = ground + HorizonProfile.EYE_HEIGHT_M;
+
+		// plenty of receivers report exactly 0 when they have no height
+		if (!hasGpsAltitude || gpsAltitude == 0) return eye;
+
+		if (accuracy <= 0) accuracy = UNKNOWN_ACCURACY_M;
+		double dlat = accuracy / METRES_PER_DEGREE;
+		double dlon = dlat / Math.cos(Math.toRadians(lat));
+		double spread = 0;
+		spread = Spread(spread, dem.GetElevation(lat + dlat, lon), ground);
+		spread = Spread(spread, dem.GetElevation(lat - dlat, lon), ground);
+		spread = Spread(spread, dem.GetElevation(lat, lon + dlon), ground);
+		spread = Spread(spread, dem.GetElevation(lat, lon - dlon), ground);
+
+		double demVar = DEM_ERROR_M * DEM_ERROR_M + spread * spread;
+		double gpsErr = accuracy * GPS_VERTICAL_FACTOR;
+		double gpsVar = gpsErr * gpsErr;
+		double estimate = (eye * gpsVar + gpsAltitude * demVar) / (gpsVar + demVar);
+		return Double.isNaN(estimate) ? gpsAltitude : estimate;
+	}
+
+	// a NaN neighbour, off the edge of the tiles or a void, just doesn't count
+	private static double Spread(double spread, double e, double ground) {
+		return Double.isNaN(e) ? spread : Math.max(spread, Math.abs(e - ground));
+	}
+}
@@ -0,0 +1,240 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Turns raw accelerometer and magnetometer readings into a smoothed compass heading and pitch for
+ * the camera, a heading for the phone lying flat (the map's arrow), walking steps and the motion
+ * state. No Android in here: OrientationService feeds it from the sensors and TraceReplay feeds it
+ * from a recorded trace, and both get the same answers from the same readings.
+ *
+ * The rotation matrix, remapping and orientation angles are worked out the same way as
+ * SensorManager's getRotationMatrix, remapCoordinateSystem and getOrientation.
+ */
+public class OrientationFilter {
+
+	// the same numbers as Sensor.TYPE_*, SensorManager.SENSOR_STATUS_UNRELIABLE and Surface.ROTATION_*
+	public static final int TYPE_ACCELEROMETER = 1;
+	public static final int TYPE_MAGNETIC_FIELD = 2;
+	public static final int STATUS_UNRELIABLE = 0;
+	public static final int ROTATION_0 = 0;
+	public static final int ROTATION_90 = 1;
+	public static final int ROTATION_180 = 2;
+	public static final int ROTATION_270 = 3;
+
+	// as SensorManager.AXIS_*
+	private static final int AXIS_X = 1;
+	private static final int AXIS_Z = 3;
+	private static final int AXIS_MINUS_Z = AXIS_Z | 0x80;
+
+	private final float[] mGravity = new float[3];
+	private final float[] mGeomagnetic = new float[3];
+	private boolean haveGravity = false;
+	private boolean haveGeomagnetic = false;
+	private boolean mHasAccurateGravity = false;
+	private boolean mHasAccurateAccelerometer = false;
+
+	private final float[] mRotationMatrixA = new float[9];
+	private final float[] mRotationMatrixB = new float[9];
+	private final float[] mOrientation = new float[3];
+	float mDeclination = 0;
+
+	private FilteredDirection fd = new FilteredDirection(50);
+	private final FilteredElevation fe = new FilteredElevation();
+	// azimuth with the phone flat, degrees
+	private double flatBearing = 0;
+
+	private final StepDetector mSteps = new StepDetector();
+	private MotionStateDetector mMotion = new MotionStateDetector();
+	private double stride = 0;
+	private long lastTimestamp = 0;
+
+	/*
+	 * One sensor reading. Returns true if there's an orientation to show (both sensors have been
+	 * heard from), false if the reading was thrown away or we're still waiting for the other one.
+	 */
+	public boolean AddSample(int type, int accuracy, float[] values, long timestamp, int rotation) {
+		stride = 0;
+		// some phones never set the sensormanager as reliable, even when readings are ok
+		// That means if we try to block it, those phones will never get a compass reading.
+		// So we let any readings through until we know we can get accurate readings. Once We know that
+		// we'll block the inaccurate ones
+		if (accuracy == STATUS_UNRELIABLE) {
+			if (type == TYPE_ACCELEROMETER && mHasAccurateAccelerometer) return false;
+			if (type == TYPE_MAGNETIC_FIELD && mHasAccurateGravity) return false;
+		}
+		else
+		{
+			if (type == TYPE_ACCELEROMETER) mHasAccurateAccelerometer = true;
+			if (type == TYPE_MAGNETIC_FIELD) mHasAccurateGravity = true;
+		}
+
+		if (type == TYPE_ACCELEROMETER)
+		{
+			System.arraycopy(values, 0, mGravity, 0, 3);
+			haveGravity = true;
+			lastTimestamp = timestamp;
+			stride = mSteps.AddSample(values[0], values[1], values[2], timestamp);
+			mMotion.AddSample(values[0], values[1], values[2], timestamp, mSteps.IsWalking(timestamp));
+		}
+		else if (type == TYPE_MAGNETIC_FIELD)
+		{
+			System.arraycopy(values, 0, mGeomagnetic, 0, 3);
+			haveGeomagnetic = true;
+		}
+		else return false;
+
+		if (!haveGravity || !haveGeomagnetic) return false;
+
+		float[] rotationMatrixA = mRotationMatrixA;
+		if (getRotationMatrix(rotationMatrixA, mGravity, mGeomagnetic)) {
+			if (mDeclination != 0) rotateAboutZ(rotationMatrixA, -mDeclination);
+
+			float[] dv = mOrientation;
+			getOrientation(rotationMatrixA, dv);
+			flatBearing = Math.toDegrees(dv[0]);
+
+			float[] rotationMatrixB = mRotationMatrixB;
+
+			switch (rotation)
+			{
+			// rotated right (landscape)
+			case ROTATION_270: remapCoordinateSystem(rotationMatrixA,
+					AXIS_MINUS_Z, AXIS_X,
+					rotationMatrixB);
+			break;
+			// portrait - normal, rotated left (landscape) and upside down all used the same
+			default: remapCoordinateSystem(rotationMatrixA,
+					AXIS_X, AXIS_Z,
+					rotationMatrixB);
+			break;
+			}
+
+			getOrientation(rotationMatrixB, dv);
+
+			fd.AddLatest(dv[0]);
+			fe.AddLatest((double)dv[1]);
+		}
+		return true;
+	}
+
+	// the compass filter only starts again if the window actually changed
+	public void SetSmoothing(int window) {
+		if (window != fd.GetWindow()) fd = new FilteredDirection(window);
+	}
+
+	// back to not knowing whether we're still, e.g. when someone starts looking again
+	public void ResetMotion() {
+		mMotion = new MotionStateDetector();
+	}
+
+	// filtered heading of the camera in degrees, 0 to 360
+	public double GetDirection() { return fd.getDirection(); }
+	public int GetVariation() { return fd.GetVariation(); }
+	// filtered camera pitch, radians
+	public double GetElevation() { return fe.getDirection(); }
+	// unfiltered heading of the top of the phone when it's lying flat, degrees
+	public double GetFlatBearing() { return flatBearing; }
+
+	// stride length in metres if the last reading completed a walking step, otherwise 0
+	public double GetStride() { return stride; }
+
+	public MotionStateDetector.State GetMotionState() { return mMotion.GetState(); }
+
+	// how long (ns) the phone has been lying still, 0 if it hasn't
+	public long GetStationaryTime() {
+		if (mMotion.GetState() != MotionStateDetector.State.Stationary) return 0;
+		return lastTimestamp - mMotion.GetStateSince();
+	}
+
+	static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+		float Ax = gravity[0];
+		float Ay = gravity[1];
+		float Az = gravity[2];
+		final float Ex = geomagnetic[0];
+		final float Ey = geomagnetic[1];
+		final float Ez = geomagnetic[2];
+		float Hx = Ey*Az - Ez*Ay;
+		float Hy = Ez*Ax - Ex*Az;
+		float Hz = Ex*Ay - Ey*Ax;
+		final float normH = (float)Math.sqrt(Hx*Hx + Hy*Hy + Hz*Hz);
+		if (normH < 0.1f) {
+			// device is close to free fall (or in space?), or close to
+			// magnetic north pole. Typical values are  > 100.
+			return false;
+		}
+		final float invH = 1.0f / normH;
+		Hx *= invH;
+		Hy *= invH;
+		Hz *= invH;
+		final float invA = 1.0f / (float)Math.sqrt(Ax*Ax + Ay*Ay + Az*Az);
+		Ax *= invA;
+		Ay *= invA;
+		Az *= invA;
+		final float Mx = Ay*Hz - Az*Hy;
+		final float My = Az*Hx - Ax*Hz;
+		final float Mz = Ax*Hy - Ay*Hx;
+		R[0] = Hx; R[1] = Hy; R[2] = Hz;
+		R[3] = Mx; R[4] = My; R[5] = Mz;
+		R[6] = Ax; R[7] = Ay; R[8] = Az;
+		return true;
+	}
+
+	static void remapCoordinateSystem(float[] inR, int X, int Y, float[] outR) {
+		int Z = X ^ Y;
+		final int x = (X & 0x3) - 1;
+		final int y = (Y & 0x3) - 1;
+		final int z = (Z & 0x3) - 1;
+		// the new Z axis has to make a right-handed system
+		final int axis_y = (z + 1) % 3;
+		final int axis_z = (z + 2) % 3;
+		if (((x ^ axis_y) | (y ^ axis_z)) != 0) Z ^= 0x80;
+		final boolean sx = (X >= 0x80);
+		final boolean sy = (Y >= 0x80);
+		final boolean sz = (Z >= 0x80);
+		for (int j = 0; j < 3; j++) {
+			final int offset = j * 3;
+			for (int i = 0; i < 3; i++) {
+				if (x == i) outR[offset + i] = sx ? -inR[offset + 0] : inR[offset + 0];
+				if (y == i) outR[offset + i] = sy ? -inR[offset + 1] : inR[offset + 1];
+				if (z == i) outR[offset + i] = sz ? -inR[offset + 2] : inR[offset + 2];
+			}
+		}
+	}
+
+	static void getOrientation(float[] R, float[] values) {
+		values[0] = (float)Math.atan2(R[1], R[4]);
+		values[1] = (float)Math.asin(-R[7]);
+		values[2] = (float)Math.atan2(-R[6], R[8]);
+	}
+
+	// what android.graphics.Matrix.postRotate does to a 3x3 matrix
+	static void rotateAboutZ(float[] R, float degrees) {
+		double a = Math.toRadians(degrees);
+		float c = (float)Math.cos(a);
+		float s = (float)Math.sin(a);
+		for (int col = 0; col < 3; col++) {
+			float r0 = R[col];
+			float r1 = R[3 + col];
+			R[col] = c * r0 - s * r1;
+			R[3 + col] = s * r0 + c * r1;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/*
+ * Reads a PerfRing file pulled off a phone (adb pull /data/data/<package>/files/perf.ring, on a
+ * debug build or through run-as) and says what's in it:
+ *
+ *   java -cp showmehills-core.jar com.showmehills.PerfReport perf.ring [-csv] [-tail n] [-session n]
+ *
+ * By default a summary for each session; -tail n lists the last n records as well, -csv writes
+ * every record as csv instead, for a spreadsheet, and -session n keeps to the one session.
+ */
+public class PerfReport {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: PerfReport perf.ring [-csv] [-tail n] [-session n]");
+			System.exit(1);
+		}
+		boolean csv = false;
+		int tail = 0;
+		int session = -1;
+		for (int i = 1; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals("-csv")) csv = true;
+			else if (a.equals("-tail")) tail = Integer.parseInt(args[++i]);
+			else if (a.equals("-session")) session = Integer.parseInt(args[++i]);
+			else throw new IllegalArgumentException("unknown option " + a);
+		}
+
+		ArrayList<PerfRingReader.Entry> entries = PerfRingReader.Read(Load(new File(args[0])));
+		if (session >= 0) {
+			ArrayList<PerfRingReader.Entry> kept = new ArrayList<PerfRingReader.Entry>();
+			for (PerfRingReader.Entry e : entries) if (e.session == session) kept.add(e);
+			entries = kept;
+		}
+		if (csv) {
+			Writer out = new OutputStreamWriter(System.out, "UTF-8");
+			PerfRingReader.WriteCsv(entries, out);
+			out.flush();
+			return;
+		}
+		System.out.println(entries.size() + " records");
+		System.out.print(PerfRingReader.Summary(entries));
+		if (tail > 0) {
+			System.out.println();
+			System.out.print(PerfRingReader.Tail(entries, tail));
+		}
+	}
+
+	static ByteBuffer Load(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			byte[] b = new byte[(int)raf.length()];
+			raf.readFully(b);
+			return ByteBuffer.wrap(b);
+		} finally {
+			raf.close();
+		}
+	}
+}
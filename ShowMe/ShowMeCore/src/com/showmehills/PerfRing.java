@@ -0,0 +1,178 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+ * What the app's performance has been like lately, kept in a file that outlives the process: a
+ * ring of fixed size records (frame times, hill query latencies, sensor rates, location accuracy,
+ * memory use, main thread stalls) in a memory-mapped file. Writing a record is a few puts into
+ * the mapping and nothing else - the kernel gets it to disk, even if the process is killed
+ * straight afterwards - so it can stay on all the time. PerfRingReader decodes it, for crash
+ * reports on the phone and PerfReport on a PC.
+ *
+ * The file, all little-endian:
+ *   header, HEADER bytes: int MAGIC, int VERSION, int capacity (records), int session,
+ *       long written (records ever written), long start of this session (ms since 1970)
+ *   capacity records of SLOT bytes: byte type, byte 0, short session (low 16 bits),
+ *       int ms since the session started, int a, int b
+ * A record's slot is (its number % capacity). written is only bumped once the record is in,
+ * so a record half written when the process died isn't counted.
+ */
+public class PerfRing {
+
+	// what a and b are for each type of record
+	public enum Type {
+		Session, // a: session start, seconds since 1970; b: 0
+		Frame, // a: time to draw, us; b: 0
+		Query, // a: hill query latency, us; b: hills kept
+		SensorRate, // a: sensor readings in the last second; b: 0
+		Location, // a: fix accuracy, decimetres; b: provider, see PROVIDER_*
+		Memory, // a: heap in use, KB; b: heap limit, KB
+		Stall; // a: main thread stuck, ms; b: 0
+
+		public int Code() { return ordinal() + 1; }
+
+		public static Type FromCode(int code) {
+			Type[] all = values();
+			return (code >= 1 && code <= all.length) ? all[code - 1] : null;
+		}
+	}
+
+	public static final int MAGIC = 0x50484d53; // "SMHP" read as bytes
+	public static final int VERSION = 1;
+	public static final int HEADER = 64;
+	public static final int SLOT = 16;
+	// about a megabyte; at 60 frames a second, a quarter of an hour of frames and everything else
+	public static final int DEFAULT_CAPACITY = 65536;
+
+	public static final int PROVIDER_OTHER = 0;
+	public static final int PROVIDER_GPS = 1;
+	public static final int PROVIDER_NETWORK = 2;
+
+	static final int OFF_MAGIC = 0;
+	static final int OFF_VERSION = 4;
+	static final int OFF_CAPACITY = 8;
+	static final int OFF_SESSION = 12;
+	static final int OFF_WRITTEN = 16;
+	static final int OFF_START = 24;
+
+	private static volatile PerfRing sRing;
+
+	private final MappedByteBuffer buf;
+	private final int capacity;
+	private final int session;
+	private final long startNs;
+	private long written;
+
+	// the ring the app records into; null until one's been opened
+	public static PerfRing Get() {
+		return sRing;
+	}
+
+	public static void Set(PerfRing ring) {
+		sRing = ring;
+	}
+
+	// records into the app's ring, if it has one
+	public static void Log(Type t, int a, int b) {
+		PerfRing r = sRing;
+		if (r != null) r.Record(t, a, b);
+	}
+
+	/*
+	 * Opens (or makes) the ring file and starts a new session in it. What's there from earlier
+	 * sessions is kept unless the file isn't a ring of this capacity, when it's started afresh.
+	 */
+	public static PerfRing Open(File f, int capacity) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			FileChannel ch = raf.getChannel();
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)capacity * SLOT);
+			// the mapping stays valid once the file's closed
+			return new PerfRing(buf, capacity);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private PerfRing(MappedByteBuffer buf, int capacity) {
+		this.buf = buf;
+		this.capacity = capacity;
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		int lastSession = 0;
+		if (buf.getInt(OFF_MAGIC) == MAGIC && buf.getInt(OFF_VERSION) == VERSION && buf.getInt(OFF_CAPACITY) == capacity) {
+			written = buf.getLong(OFF_WRITTEN);
+			lastSession = buf.getInt(OFF_SESSION);
+		} else {
+			written = 0;
+			buf.putLong(OFF_WRITTEN, 0);
+			buf.putInt(OFF_CAPACITY, capacity);
+			buf.putInt(OFF_VERSION, VERSION);
+			buf.putInt(OFF_MAGIC, MAGIC);
+		}
+		session = lastSession + 1;
+		startNs = System.nanoTime();
+		long now = System.currentTimeMillis();
+		buf.putInt(OFF_SESSION, session);
+		buf.putLong(OFF_START, now);
+		Record(Type.Session, (int)(now / 1000), 0);
+	}
+
+	public synchronized void Record(Type t, int a, int b) {
+		int p = HEADER + (int)(written % capacity) * SLOT;
+		buf.put(p, (byte)t.Code());
+		buf.put(p + 1, (byte)0);
+		buf.putShort(p + 2, (short)session);
+		buf.putInt(p + 4, (int)((System.nanoTime() - startNs) / 1000000));
+		buf.putInt(p + 8, a);
+		buf.putInt(p + 12, b);
+		written++;
+		buf.putLong(OFF_WRITTEN, written);
+	}
+
+	public int GetSession() {
+		return session;
+	}
+
+	// a copy of the whole file as it stands, for PerfRingReader
+	public synchronized ByteBuffer Snapshot() {
+		ByteBuffer copy = ByteBuffer.allocate(buf.capacity());
+		ByteBuffer src = buf.duplicate();
+		src.clear();
+		copy.put(src);
+		copy.flip();
+		return copy.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public static int ProviderCode(String provider) {
+		if ("gps".equals(provider)) return PROVIDER_GPS;
+		if ("network".equals(provider)) return PROVIDER_NETWORK;
+		return PROVIDER_OTHER;
+	}
+}
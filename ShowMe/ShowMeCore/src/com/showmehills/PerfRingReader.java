@@ -0,0 +1,181 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Decodes a PerfRing file: the records still in it, oldest first, and what they add up to for
+ * each session. Nothing here needs Android; the app uses it for crash reports and PerfReport
+ * for files pulled off a phone.
+ */
+public class PerfRingReader {
+
+	public static class Entry {
+		public PerfRing.Type type;
+		public int session;
+		public int ms; // since the session started
+		public int a, b; // see PerfRing.Type
+	}
+
+	public static ArrayList<Entry> Read(ByteBuffer buf) throws IOException {
+		buf = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.capacity() < PerfRing.HEADER || buf.getInt(PerfRing.OFF_MAGIC) != PerfRing.MAGIC)
+			throw new IOException("not a perf ring");
+		if (buf.getInt(PerfRing.OFF_VERSION) != PerfRing.VERSION)
+			throw new IOException("perf ring version " + buf.getInt(PerfRing.OFF_VERSION) + ", can only read " + PerfRing.VERSION);
+		int capacity = buf.getInt(PerfRing.OFF_CAPACITY);
+		long written = buf.getLong(PerfRing.OFF_WRITTEN);
+		if (buf.capacity() < PerfRing.HEADER + (long)capacity * PerfRing.SLOT) throw new IOException("perf ring cut short");
+
+		// once it's wrapped, the oldest slot may be the one that was being written when the process died
+		long first = (written > capacity) ? written - capacity + 1 : 0;
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (long i = first; i < written; i++) {
+			int p = PerfRing.HEADER + (int)(i % capacity) * PerfRing.SLOT;
+			PerfRing.Type t = PerfRing.Type.FromCode(buf.get(p));
+			if (t == null) continue;
+			Entry e = new Entry();
+			e.type = t;
+			e.session = buf.getShort(p + 2) & 0xffff;
+			e.ms = buf.getInt(p + 4);
+			e.a = buf.getInt(p + 8);
+			e.b = buf.getInt(p + 12);
+			entries.add(e);
+		}
+		return entries;
+	}
+
+	// one line for a record
+	public static String Describe(Entry e) {
+		String what;
+		switch (e.type) {
+		case Session: what = "session start " + Date(e.a); break;
+		case Frame: what = String.format(Locale.US, "frame %.2fms", e.a / 1000.0); break;
+		case Query: what = String.format(Locale.US, "query %.2fms, %d hills", e.a / 1000.0, e.b); break;
+		case SensorRate: what = e.a + " sensor readings/s"; break;
+		case Location: what = String.format(Locale.US, "fix +/-%.1fm %s", e.a / 10.0, Provider(e.b)); break;
+		case Memory: what = String.format(Locale.US, "heap %dKB of %dKB", e.a, e.b); break;
+		case Stall: what = "main thread stuck " + e.a + "ms"; break;
+		default: what = e.type.name();
+		}
+		return String.format(Locale.US, "%5d %9.3fs %s", e.session, e.ms / 1000.0, what);
+	}
+
+	// the last n records, a line each
+	public static String Tail(List<Entry> entries, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = Math.max(0, entries.size() - n); i < entries.size(); i++) sb.append(Describe(entries.get(i))).append('\n');
+		return sb.toString();
+	}
+
+	public static void WriteCsv(List<Entry> entries, Writer out) throws IOException {
+		out.write("session,ms,type,a,b\n");
+		for (Entry e : entries) out.write(e.session + "," + e.ms + "," + e.type.name() + "," + e.a + "," + e.b + "\n");
+	}
+
+	// a few lines per session, the latest last
+	public static String Summary(List<Entry> entries) {
+		StringBuilder sb = new StringBuilder();
+		int i = 0;
+		while (i < entries.size()) {
+			int session = entries.get(i).session;
+			int j = i;
+			while (j < entries.size() && entries.get(j).session == session) j++;
+			Summarise(entries.subList(i, j), sb);
+			i = j;
+		}
+		return sb.toString();
+	}
+
+	private static void Summarise(List<Entry> s, StringBuilder sb) {
+		LatencyHistogram frames = new LatencyHistogram();
+		LatencyHistogram queries = new LatencyHistogram();
+		int slowFrames = 0;
+		long hills = 0;
+		int rates = 0, lowestRate = Integer.MAX_VALUE;
+		long rateSum = 0;
+		// decimetres; not a LatencyHistogram, whose lowest bucket would take every fix under 12.8m
+		int[] accuracy = new int[16];
+		int fixes = 0;
+		Entry lastFix = null;
+		int heap = 0, heapMax = 0;
+		int stalls = 0, longestStall = 0;
+		long start = -1;
+		for (Entry e : s) {
+			switch (e.type) {
+			case Session: start = e.a; break;
+			case Frame:
+				frames.Record(e.a * 1000L);
+				if (e.a * 1000L > FrameTimer.FRAME_NS) slowFrames++;
+				break;
+			case Query: queries.Record(e.a * 1000L); hills += e.b; break;
+			case SensorRate: rates++; rateSum += e.a; lowestRate = Math.min(lowestRate, e.a); break;
+			case Location:
+				if (fixes == accuracy.length) accuracy = Arrays.copyOf(accuracy, fixes * 2);
+				accuracy[fixes++] = e.a;
+				lastFix = e;
+				break;
+			case Memory: heap = Math.max(heap, e.a); heapMax = e.b; break;
+			case Stall: stalls++; longestStall = Math.max(longestStall, e.a); break;
+			}
+		}
+		Entry first = s.get(0);
+		sb.append("session ").append(first.session);
+		if (start >= 0) sb.append(" from ").append(Date(start));
+		else sb.append(" (start overwritten)");
+		sb.append(String.format(Locale.US, ", %.0fs recorded%n", (s.get(s.size() - 1).ms - first.ms) / 1000.0));
+		if (frames.Count() > 0) sb.append(String.format(Locale.US, "  frames %d: p50 %.1fms p95 %.1fms p99 %.1fms max %.1fms, %d slow%n",
+				frames.Count(), frames.Percentile(0.5) / 1e6, frames.Percentile(0.95) / 1e6, frames.Percentile(0.99) / 1e6, frames.Max() / 1e6, slowFrames));
+		if (queries.Count() > 0) sb.append(String.format(Locale.US, "  queries %d: p50 %.1fms max %.1fms, %d hills on average%n",
+				queries.Count(), queries.Percentile(0.5) / 1e6, queries.Max() / 1e6, hills / queries.Count()));
+		if (rates > 0) sb.append(String.format(Locale.US, "  sensors %d readings/s on average, lowest %d%n", rateSum / rates, lowestRate));
+		if (lastFix != null) {
+			Arrays.sort(accuracy, 0, fixes);
+			double median = (accuracy[(fixes - 1) / 2] + accuracy[fixes / 2]) / 2.0;
+			sb.append(String.format(Locale.US, "  fixes %d: median +/-%.0fm, last +/-%.0fm %s%n",
+					fixes, median / 10.0, lastFix.a / 10.0, Provider(lastFix.b)));
+		}
+		if (heapMax > 0) sb.append(String.format(Locale.US, "  heap up to %dKB of %dKB%n", heap, heapMax));
+		if (stalls > 0) sb.append(String.format(Locale.US, "  stalls %d, longest %dms%n", stalls, longestStall));
+	}
+
+	private static String Date(long seconds) {
+		return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date(seconds * 1000));
+	}
+
+	private static String Provider(int code) {
+		switch (code) {
+		case PerfRing.PROVIDER_GPS: return "gps";
+		case PerfRing.PROVIDER_NETWORK: return "network";
+		default: return "other";
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.Arrays;
+
+/*
+ * Works out how far the compass is out by comparing the skyline in a camera frame with the one
+ * computed from the elevation tiles (TerrainOcclusion's skyline table).
+ *
+ * The frame is only looked at in a few dozen columns. In each, the sky/ground edge is taken to
+ * be the row that best splits the column into a bright part above and a darker part below. The
+ * edge is then slid sideways along the computed skyline, up to MAX_OFFSET_DEG each way, and the
+ * shift where the two shapes agree best is the compass error. Only the shape is compared (the
+ * difference in height between them is allowed to be anything) since the tilt sensor is no more
+ * trustworthy than the compass.
+ *
+ * No Android classes, so it can be run against still images on a desktop: FindEdge takes plain
+ * 8 bit luminance, which is also the first width*height bytes of an NV21 preview frame.
+ */
+public class SkylineMatcher {
+
+	// the README says the compass can be out by up to 20 degrees
+	public static final double MAX_OFFSET_DEG = 20;
+	private static final double SEARCH_STEP_DEG = 0.1;
+
+	// rows looked at per column, and the pixels averaged across for each
+	private static final int ROWS = 120;
+	private static final int SAMPLES_ACROSS = 4;
+
+	// grey levels between sky and ground before a column's edge is believed
+	private static final float MIN_CONTRAST = 20;
+	private static final int MIN_COLUMNS = 12;
+
+	// the best shift has to be clearly better than a typical one, or the skyline is too flat to tell
+	private static final double MAX_BEST_TO_MEDIAN = 0.5;
+	// ...and if a typical shift already fits to within a twentieth of a degree, both are flat and any
+	// shift fits (the costs are then just rounding, so the test above can't be trusted)
+	private static final double MIN_MEDIAN_SPREAD = Math.pow(Math.toRadians(0.05), 2);
+
+	// work arrays, kept between frames
+	private final float[] rowValues = new float[ROWS + 1];
+	private double[] costs = new double[0];
+	private double[] sortedCosts = new double[0];
+
+	/*
+	 * Finds the sky/ground edge in each of 'columns' evenly spaced columns of a luminance image.
+	 * edges[c] is set to the edge's height as a fraction of the image (0 top, 1 bottom), or NaN
+	 * if the column has no clear edge. Returns how many columns have one.
+	 */
+	public int FindEdge(byte[] lum, int width, int height, int columns, float[] edges) {
+		int rowStep = Math.max(1, height / ROWS);
+		int rows = Math.min(ROWS, height / rowStep);
+		int colWidth = Math.max(1, width / columns);
+		int acrossStep = Math.max(1, colWidth / SAMPLES_ACROSS);
+		int found = 0;
+
+		for (int c = 0; c < columns; c++) {
+			// spread over the whole width, so column c is centred where Match expects it
+			int x0 = c * width / columns;
+			// running sum down the column
+			rowValues[0] = 0;
+			for (int r = 0; r < rows; r++) {
+				int base = r * rowStep * width + x0;
+				int sum = 0, n = 0;
+				for (int x = 0; x < colWidth; x += acrossStep) {
+					sum += lum[base + x] & 0xff;
+					n++;
+				}
+				rowValues[r + 1] = rowValues[r] + (float)sum / n;
+			}
+			float total = rowValues[rows];
+			float best = MIN_CONTRAST;
+			int bestRow = -1;
+			for (int k = 1; k < rows; k++) {
+				float above = rowValues[k] / k;
+				float below = (total - rowValues[k]) / (rows - k);
+				if (above - below > best) {
+					best = above - below;
+					bestRow = k;
+				}
+			}
+			if (bestRow < 0) {
+				edges[c] = Float.NaN;
+			} else {
+				edges[c] = (float)(bestRow * rowStep) / height;
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Slides the edge found by FindEdge along the computed skyline and returns the shift (degrees,
+	 * to add to the compass heading) where they match best, or NaN if there's no clear answer.
+	 *
+	 * heading and pitch are what the sensors said when the frame was taken, in the same terms as
+	 * DrawOnTop uses them: heading in degrees, pitch in radians, and a point at fraction y down the
+	 * view is at pitch + (y - 0.5) * vfov.
+	 */
+	public double Match(float[] edges, int columns, double heading, double pitch,
+			double hfov, double vfov, float[] skyline) {
+		int bins = skyline.length;
+		int shifts = (int)Math.round(2 * MAX_OFFSET_DEG / SEARCH_STEP_DEG) + 1;
+		if (costs.length < shifts) {
+			costs = new double[shifts];
+			sortedCosts = new double[shifts];
+		}
+
+		int bestShift = -1;
+		int counted = 0;
+		for (int s = 0; s < shifts; s++) {
+			double shift = -MAX_OFFSET_DEG + s * SEARCH_STEP_DEG;
+			double sum = 0, sumsq = 0;
+			int n = 0;
+			for (int c = 0; c < columns; c++) {
+				if (Float.isNaN(edges[c])) continue;
+				double bearing = heading + shift + ((c + 0.5) / columns - 0.5) * hfov;
+				int bin = (int)Math.round(bearing * bins / 360.0) % bins;
+				if (bin < 0) bin += bins;
+				float sky = skyline[bin];
+				if (Float.isNaN(sky)) continue;
+				double d = pitch + Math.toRadians((edges[c] - 0.5) * vfov) - sky;
+				sum += d;
+				sumsq += d * d;
+				n++;
+			}
+			if (n < MIN_COLUMNS) {
+				costs[s] = Double.NaN;
+				continue;
+			}
+			// spread of the differences: zero if the shapes match, whatever the height difference
+			costs[s] = sumsq / n - (sum / n) * (sum / n);
+			sortedCosts[counted++] = costs[s];
+			if (bestShift < 0 || costs[s] < costs[bestShift]) bestShift = s;
+		}
+		if (bestShift < 0 || counted < 3) return Double.NaN;
+
+		Arrays.sort(sortedCosts, 0, counted);
+		double median = sortedCosts[counted / 2];
+		if (median < MIN_MEDIAN_SPREAD) return Double.NaN;
+		if (costs[bestShift] > median * MAX_BEST_TO_MEDIAN) return Double.NaN;
+		return -MAX_OFFSET_DEG + bestShift * SEARCH_STEP_DEG;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+/*
+ * Notices when the main thread stops responding. A thread of its own posts a ping to the main
+ * thread every so often; if the ping hasn't been answered within the threshold, the main
+ * thread's stack is taken there and then, along with whatever the Target says about what's going
+ * on (which screen, the metrics), and kept in a ring of the last CAPACITY stalls. When the ping
+ * is finally answered the stall gets its full length.
+ *
+ * A ping costs one posted Runnable, every half threshold, so it can run all the time.
+ */
+public class StallWatchdog implements Runnable {
+
+	public interface Target {
+		// run r on the main thread, soon
+		void Post(Runnable r);
+		// what the app was up to, for the stall's record
+		String Describe();
+		// a stall has just been captured (on the watchdog's thread); longer than threshold, so far
+		void Stalled(Stall s);
+	}
+
+	public static class Stall {
+		public final long at; // System.currentTimeMillis when the ping was sent
+		public volatile long ms; // how long the main thread was stuck; grows until it answers
+		public volatile boolean over; // answered at last
+		public final String stack;
+		public final String context;
+
+		Stall(long at, long ms, String stack, String context) {
+			this.at = at;
+			this.ms = ms;
+			this.stack = stack;
+			this.context = context;
+		}
+	}
+
+	public static final int CAPACITY = 8;
+	private static final long MIN_INTERVAL_MS = 100;
+
+	private static final Metrics.Counter STALLS = Metrics.Get().Counter("stall.count");
+	private static final LatencyHistogram STALL_TIME = Metrics.Get().Histogram("stall.duration");
+
+	private final Thread main;
+	private final Target target;
+	private volatile long thresholdMs;
+	private volatile Thread thread;
+
+	// the ring, oldest overwritten first; also the lock for the ping state below
+	private final Stall[] stalls = new Stall[CAPACITY];
+	private int next = 0;
+
+	// the ping in flight (sentAt 0 if none): when it went, and the stall it turned into if it did
+	private long sentAt = 0;
+	private long sentWall;
+	private Stall current;
+
+	private final Runnable pong = new Runnable() {
+		public void run() {
+			synchronized (stalls) {
+				if (current != null) {
+					long ms = System.nanoTime() / 1000000 - sentAt;
+					current.ms = ms;
+					current.over = true;
+					STALL_TIME.Record(ms * 1000000);
+					current = null;
+				}
+				sentAt = 0;
+			}
+		}
+	};
+
+	public StallWatchdog(Thread main, Target target, long thresholdMs) {
+		this.main = main;
+		this.target = target;
+		this.thresholdMs = thresholdMs;
+	}
+
+	// 0 or less switches it off
+	public synchronized void SetThreshold(long ms) {
+		thresholdMs = ms;
+		if (ms <= 0) Stop();
+		else Start();
+	}
+
+	public long GetThreshold() {
+		return thresholdMs;
+	}
+
+	public synchronized void Start() {
+		if (thread != null || thresholdMs <= 0) return;
+		synchronized (stalls) {
+			sentAt = 0;
+			current = null;
+		}
+		thread = new Thread(this, "StallWatchdog");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void Stop() {
+		if (thread == null) return;
+		thread.interrupt();
+		thread = null;
+	}
+
+	public void run() {
+		Thread me = Thread.currentThread();
+		while (thread == me) {
+			long threshold = thresholdMs;
+			try {
+				Thread.sleep(Math.max(MIN_INTERVAL_MS, threshold / 2));
+			} catch (InterruptedException e) {
+				return;
+			}
+			long now = System.nanoTime() / 1000000;
+			boolean ping = false;
+			long stuck = 0;
+			synchronized (stalls) {
+				if (sentAt == 0) {
+					sentAt = now;
+					sentWall = System.currentTimeMillis();
+					ping = true;
+				} else if (current != null) {
+					current.ms = now - sentAt;
+				} else if (now - sentAt > threshold) {
+					stuck = now - sentAt;
+				}
+			}
+			if (ping) target.Post(pong);
+			if (stuck > 0) Capture(stuck);
+		}
+	}
+
+	// the stack first, while it's still stuck; the rest can take its time
+	private void Capture(long stuck) {
+		String stack = StackText(main.getStackTrace());
+		String context = target.Describe();
+		Stall s;
+		synchronized (stalls) {
+			s = new Stall(sentWall, stuck, stack, context);
+			if (sentAt == 0) {
+				// answered while we were looking
+				s.over = true;
+				STALL_TIME.Record(stuck * 1000000);
+			} else {
+				current = s;
+			}
+			stalls[next] = s;
+			next = (next + 1) % CAPACITY;
+		}
+		STALLS.Inc();
+		target.Stalled(s);
+	}
+
+	// the stalls kept, newest first
+	public ArrayList<Stall> GetStalls() {
+		ArrayList<Stall> list = new ArrayList<Stall>();
+		synchronized (stalls) {
+			for (int i = 1; i <= CAPACITY; i++) {
+				Stall s = stalls[(next - i + CAPACITY) % CAPACITY];
+				if (s != null) list.add(s);
+			}
+		}
+		return list;
+	}
+
+	// every stall kept, newest first, as text for the metrics screen and crash reports
+	public String Dump() {
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+		StringBuilder sb = new StringBuilder();
+		for (Stall s : GetStalls()) {
+			sb.append(fmt.format(new Date(s.at))).append(" main thread stuck ").append(s.ms).append("ms")
+				.append(s.over ? "" : " and counting").append('\n');
+			sb.append(s.context).append('\n');
+			sb.append(s.stack).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public static String StackText(StackTraceElement[] stack) {
+		StringBuilder sb = new StringBuilder();
+		for (StackTraceElement e : stack) sb.append("  at ").append(e).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,72 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * How long a cold start takes to get to the things the user is waiting for: the camera picture,
+ * then the first labels on it. Each mark is the time since Begin, taken the first time it's
+ * reached and never again, so it's only the first activity of the process that's measured.
+ * The marks also go into the Metrics registry as startup.<mark>, in ms.
+ *
+ * Marking something already marked is one array read, so the calls can sit in onDraw and the
+ * camera callbacks.
+ */
+public class StartupTrace {
+
+	public enum Mark { ActivityCreate, ContentView, CameraOpen, PreviewStart, FirstCameraFrame, DatabaseReady, FirstLabelledFrame, Deferred }
+
+	private static final AtomicLongArray sTimes = new AtomicLongArray(Mark.values().length);
+	private static volatile long sBegin = 0;
+
+	// as early as there is - Application.onCreate. Later calls are ignored.
+	public static synchronized void Begin() {
+		if (sBegin == 0) sBegin = System.nanoTime();
+	}
+
+	// true the first time m is reached
+	public static boolean Mark(Mark m) {
+		int i = m.ordinal();
+		if (sTimes.get(i) != 0 || sBegin == 0) return false;
+		long ns = Math.max(1, System.nanoTime() - sBegin);
+		if (!sTimes.compareAndSet(i, 0, ns)) return false;
+		Metrics.Get().Counter("startup." + m.name()).Set(ns / 1000000);
+		return true;
+	}
+
+	// ms from Begin to m, or -1 if it hasn't been reached
+	public static long Since(Mark m) {
+		long ns = sTimes.get(m.ordinal());
+		return ns == 0 ? -1 : ns / 1000000;
+	}
+
+	// every mark reached so far, in order, for the log
+	public static String Summary() {
+		StringBuilder sb = new StringBuilder("startup");
+		for (Mark m : Mark.values()) {
+			long ms = Since(m);
+			if (ms >= 0) sb.append(String.format(Locale.US, " %s=%dms", m.name(), ms));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Spots walking steps in the raw accelerometer stream and guesses how long each one was.
+ *
+ * The size of the acceleration (so it doesn't matter how the phone is held) is lightly smoothed
+ * and has a slowly-tracked gravity taken off. Each step shows as a bump above zero followed by a
+ * dip below it; a step is counted when the signal comes back down through zero after a big
+ * enough bump, as long as it's not too soon after the last one. Stride length comes from how big
+ * the bump-to-dip swing was (Weinberg's rule: stride = K * swing^1/4).
+ *
+ * Plain Java, fed with the same numbers as a SensorEvent, so it can be run over recorded traces.
+ */
+public class StepDetector {
+
+	private static final double SMOOTHING_S = 0.05;
+	private static final double GRAVITY_S = 1.0;
+
+	// m/s^2 above gravity before a bump can be a step
+	private static final double PEAK_THRESHOLD = 1.2;
+
+	// nobody takes more than four steps a second; a longer gap than MAX means we'd stopped
+	private static final long MIN_STEP_NS = 250000000L;
+	private static final long MAX_STEP_NS = 2000000000L;
+
+	private static final double WEINBERG_K = 0.45;
+	private static final double MIN_STRIDE_M = 0.3;
+	private static final double MAX_STRIDE_M = 1.2;
+
+	private long lastTime = 0;
+	private long lastStepTime = 0;
+	private double smoothed;
+	private double gravity;
+	private boolean started = false;
+
+	private boolean inPeak = false;
+	private double peak;
+	private double valley;
+
+	private int steps = 0;
+
+	/*
+	 * Adds one accelerometer reading (m/s^2, timestamp in ns as SensorEvent gives it). Returns
+	 * the stride length in metres if this reading completed a step, otherwise 0.
+	 */
+	public double AddSample(float x, float y, float z, long timestamp) {
+		double mag = Math.sqrt(x * x + y * y + z * z);
+		if (!started) {
+			smoothed = gravity = mag;
+			lastTime = timestamp;
+			started = true;
+			return 0;
+		}
+		double dt = (timestamp - lastTime) / 1e9;
+		lastTime = timestamp;
+		if (dt <= 0) return 0;
+		smoothed += (mag - smoothed) * Math.min(1, dt / SMOOTHING_S);
+		gravity += (mag - gravity) * Math.min(1, dt / GRAVITY_S);
+		double a = smoothed - gravity;
+
+		if (a < valley) valley = a;
+		if (a > PEAK_THRESHOLD) {
+			if (!inPeak) {
+				inPeak = true;
+				peak = a;
+			} else if (a > peak) {
+				peak = a;
+			}
+			return 0;
+		}
+		if (!inPeak || a > 0) return 0;
+
+		// back down through zero after a bump
+		inPeak = false;
+		long since = timestamp - lastStepTime;
+		if (since < MIN_STEP_NS) return 0;
+
+		double swing = peak - Math.min(valley, 0);
+		valley = 0;
+		lastStepTime = timestamp;
+		steps++;
+		double stride = WEINBERG_K * Math.pow(swing, 0.25);
+		return Math.max(MIN_STRIDE_M, Math.min(MAX_STRIDE_M, stride));
+	}
+
+	// true if the last step was recent enough that we're probably still walking
+	public boolean IsWalking(long timestamp) {
+		return lastStepTime != 0 && timestamp - lastStepTime < MAX_STEP_NS;
+	}
+
+	public int GetSteps() {
+		return steps;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Keeps a HorizonProfile for roughly where the observer is and marks the hills it hides.
+ * Working out a profile takes a while, so it's done in the background; until the first one is
+ * ready (or if there are no elevation tiles) nothing is marked. A profile is reused until the
+ * observer has moved more than the given distance from where it was computed.
+ *
+ * It also keeps the skyline: the horizon angle for every tenth of a degree of bearing, which
+ * DrawOnTop slices for the current view each frame. The table is updated in place, ray by ray,
+ * as each new profile is worked out, starting from wherever the camera was last pointing.
+ */
+public class TerrainOcclusion {
+
+	// 0.1 degree, about 50m across at 30km
+	public static final int BINS = 3600;
+
+	// a profile from further away than this many 'move' distances is more likely wrong than right
+	private static final double STALE_FACTOR = 4;
+
+	private final ElevationTiles dem;
+	private final ExecutorService pool;
+	private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+	private volatile HorizonProfile profile;
+	private volatile boolean computing = false;
+	private volatile int version = 0;
+
+	private final float[] skyline = new float[BINS];
+	private volatile double heading = 0;
+
+	public TerrainOcclusion(ElevationTiles dem) {
+		this.dem = dem;
+		Arrays.fill(skyline, Float.NaN);
+		pool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/*
+	 * Starts a new profile in the background if there isn't one for this position yet (and one
+	 * isn't already on its way). Returns straight away.
+	 */
+	public void Update(final double lat, final double lon, final double alt, final double maxKm, double moveKm) {
+		HorizonProfile p = profile;
+		if (p != null && p.DistanceFrom(lat, lon) < moveKm && p.maxKm >= maxKm) return;
+		if (computing) return;
+		computing = true;
+		worker.execute(new Runnable() {
+			public void run() {
+				try {
+					profile = HorizonProfile.Compute(dem, lat, lon, alt, maxKm, BINS, pool, skyline, heading);
+					version++;
+				} catch (InterruptedException e) {
+					// shutting down
+				} finally {
+					computing = false;
+				}
+			}
+		});
+	}
+
+	// bumped every time a new profile is ready
+	public int GetVersion() {
+		return version;
+	}
+
+	public HorizonProfile GetProfile() {
+		return profile;
+	}
+
+	/*
+	 * The skyline table, BINS entries from north round through east, in radians above level (NaN
+	 * where there's no data yet). Not a copy - it may be part way through an update. The heading
+	 * is only remembered so that the next update starts there.
+	 */
+	public float[] GetSkyline(double currentHeading) {
+		heading = currentHeading;
+		return (profile == null && !computing) ? null : skyline;
+	}
+
+	/*
+	 * Sets Hills.occluded on each hill, using the latest profile if it's close enough to the given
+	 * position. Returns how many are hidden.
+	 */
+	public int Mark(ArrayList<Hills> hills, double lat, double lon, double moveKm) {
+		HorizonProfile p = profile;
+		if (p != null && p.DistanceFrom(lat, lon) > moveKm * STALE_FACTOR) p = null;
+		int hidden = 0;
+		for (int i = 0; i < hills.size(); i++) {
+			Hills h = hills.get(i);
+			h.occluded = (p != null && p.IsHidden(h));
+			if (h.occluded) hidden++;
+		}
+		return hidden;
+	}
+}
@@ -0,0 +1,112 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Reads back what TraceRecorder wrote, one record at a time into the same Record object.
+ * A trace cut short (the app was killed mid-write) just ends at the last whole record.
+ */
+public class TraceReader {
+
+	public static class Record {
+		public byte type;
+		public long at; // ns since the recording started
+
+		// SENSOR
+		public int sensor;
+		public int accuracy;
+		public long timestamp;
+		public final float[] values = new float[3];
+
+		// FIX
+		public boolean seed;
+		public String provider;
+		public double latitude;
+		public double longitude;
+		public boolean hasAltitude;
+		public double altitude;
+		public float fixAccuracy;
+		public boolean hasSpeed;
+		public float speed;
+		public long time;
+		public long received;
+
+		// ROTATION
+		public int rotation;
+	}
+
+	private final DataInputStream in;
+
+	public TraceReader(InputStream is) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(is, 65536));
+		if (in.readInt() != TraceRecorder.MAGIC) throw new IOException("not a trace file");
+		int version = in.readInt();
+		if (version != TraceRecorder.VERSION) throw new IOException("unknown trace version " + version);
+	}
+
+	// false at the end of the trace
+	public boolean Next(Record r) throws IOException {
+		try {
+			r.type = in.readByte();
+			r.at = in.readLong();
+			switch (r.type) {
+			case TraceRecorder.SENSOR:
+				r.sensor = in.readByte();
+				r.accuracy = in.readByte();
+				r.timestamp = in.readLong();
+				r.values[0] = in.readFloat();
+				r.values[1] = in.readFloat();
+				r.values[2] = in.readFloat();
+				break;
+			case TraceRecorder.FIX:
+				r.seed = in.readBoolean();
+				r.provider = in.readUTF();
+				r.latitude = in.readDouble();
+				r.longitude = in.readDouble();
+				r.hasAltitude = in.readBoolean();
+				r.altitude = in.readDouble();
+				r.fixAccuracy = in.readFloat();
+				r.hasSpeed = in.readBoolean();
+				r.speed = in.readFloat();
+				r.time = in.readLong();
+				r.received = in.readLong();
+				break;
+			case TraceRecorder.ROTATION:
+				r.rotation = in.readByte();
+				break;
+			default:
+				throw new IOException("bad record type " + r.type);
+			}
+			return true;
+		} catch (EOFException e) {
+			return false;
+		}
+	}
+
+	public void Close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,135 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Writes a field session to a compact binary trace - every raw sensor reading, location fix and
+ * screen rotation, each stamped with when it arrived - so that TraceReplay can put it through the
+ * same filters on a PC. About 25 bytes per sensor reading, so a few hundred KB a minute.
+ *
+ * Format (big-endian, as DataOutputStream writes it): int MAGIC, int VERSION, then records, each
+ * starting with a byte type and a long 'at' (ns since the recording started):
+ *
+ *  SENSOR:   byte sensor type, byte accuracy, long event timestamp (ns), float x, y, z
+ *  FIX:      boolean seed, UTF provider, double lat, lon, boolean hasAltitude, double altitude,
+ *            float accuracy, boolean hasSpeed, float speed, long fix time, long received (ms)
+ *  ROTATION: byte display rotation
+ *
+ * The first write that fails stops the recording; the session itself carries on regardless.
+ */
+public class TraceRecorder {
+
+	public static final int MAGIC = 0x534d4854; // "SMHT"
+	public static final int VERSION = 1;
+
+	public static final byte SENSOR = 1;
+	public static final byte FIX = 2;
+	public static final byte ROTATION = 3;
+
+	// where 'at' comes from; the checks write traces faster than they happened
+	interface Clock {
+		long Nanos();
+	}
+
+	private static final Clock SYSTEM = new Clock() {
+		public long Nanos() {
+			return System.nanoTime();
+		}
+	};
+
+	private final DataOutputStream out;
+	private final Clock clock;
+	private final long start;
+	private boolean failed = false;
+
+	public TraceRecorder(OutputStream os) throws IOException {
+		this(os, SYSTEM);
+	}
+
+	TraceRecorder(OutputStream os, Clock clock) throws IOException {
+		this.clock = clock;
+		start = clock.Nanos();
+		out = new DataOutputStream(new BufferedOutputStream(os, 65536));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+	}
+
+	public synchronized void Sensor(int type, int accuracy, long timestamp, float[] values) {
+		if (failed) return;
+		try {
+			out.writeByte(SENSOR);
+			out.writeLong(clock.Nanos() - start);
+			out.writeByte(type);
+			out.writeByte(accuracy);
+			out.writeLong(timestamp);
+			out.writeFloat(values[0]);
+			out.writeFloat(values[1]);
+			out.writeFloat(values[2]);
+		} catch (IOException e) {
+			failed = true;
+		}
+	}
+
+	public synchronized void Fix(boolean seed, String provider, double lat, double lon, boolean hasAltitude, double alt,
+			float accuracy, boolean hasSpeed, float speed, long time, long received) {
+		if (failed) return;
+		try {
+			out.writeByte(FIX);
+			out.writeLong(clock.Nanos() - start);
+			out.writeBoolean(seed);
+			out.writeUTF(provider == null ? "" : provider);
+			out.writeDouble(lat);
+			out.writeDouble(lon);
+			out.writeBoolean(hasAltitude);
+			out.writeDouble(alt);
+			out.writeFloat(accuracy);
+			out.writeBoolean(hasSpeed);
+			out.writeFloat(speed);
+			out.writeLong(time);
+			out.writeLong(received);
+		} catch (IOException e) {
+			failed = true;
+		}
+	}
+
+	public synchronized void Rotation(int rotation) {
+		if (failed) return;
+		try {
+			out.writeByte(ROTATION);
+			out.writeLong(clock.Nanos() - start);
+			out.writeByte(rotation);
+		} catch (IOException e) {
+			failed = true;
+		}
+	}
+
+	public synchronized void Close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			failed = true;
+		}
+	}
+}
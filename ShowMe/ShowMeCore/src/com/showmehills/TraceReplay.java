@@ -0,0 +1,254 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+/*
+ * Plays a trace from TraceRecorder back through OrientationFilter, LocationTracker and GeoEngine
+ * on a PC, so a field session can be repeated as often as needed - to see what a filter change
+ * does to it, or to time the code. No Android needed; build ShowMeCore and run
+ *
+ *   java -cp showmehills-core.jar com.showmehills.TraceReplay trace.smht [hills] [options]
+ *
+ * where hills is either an asset database (hillsv1-uk.db, read through JdbcHillSource, so an
+ * SQLite JDBC driver has to be on the classpath too) or a csv in the database import format
+ * (id~name~longitude~latitude~height~...). Options: -realtime (keep to the recorded timing
+ * rather than as fast as possible), -maxkm n, -nolod, -hfov degrees, -smoothing n, -adjust degrees
+ * (compass adjustment), -deadreckoning, -quiet.
+ *
+ * The providers are stood in for by ReplaySource, which passes fixes on the way LocationManager
+ * would - not more often than the requested time and distance - so changes to the update rate
+ * logic show up as fixes dropped. There are no elevation tiles here, so heights are worked out
+ * from the fix's own altitude.
+ */
+public class TraceReplay implements LocationTracker.Listener {
+
+	/*
+	 * Stands in for LocationManager: remembers what LocationTracker asked for and drops the fixes
+	 * a provider wouldn't have delivered at that rate.
+	 */
+	static class ReplaySource implements LocationTracker.Source {
+		long minTime = 0;
+		float minDistance = 0;
+		int rateChanges = 0;
+		int delivered = 0;
+		int dropped = 0;
+		private final HashMap<String, TraceReader.Record> last = new HashMap<String, TraceReader.Record>();
+
+		public void SetUpdateRate(long minTimeMs, float minDistanceM) {
+			minTime = minTimeMs;
+			minDistance = minDistanceM;
+			rateChanges++;
+		}
+
+		boolean Deliver(TraceReader.Record r) {
+			TraceReader.Record prev = last.get(r.provider);
+			if (prev != null && (r.received - prev.received < minTime ||
+					LocationFusion.Distance(prev.latitude, prev.longitude, r.latitude, r.longitude) < minDistance)) {
+				dropped++;
+				return false;
+			}
+			TraceReader.Record copy = new TraceReader.Record();
+			copy.received = r.received;
+			copy.latitude = r.latitude;
+			copy.longitude = r.longitude;
+			last.put(r.provider, copy);
+			delivered++;
+			return true;
+		}
+	}
+
+	private final OrientationFilter filter = new OrientationFilter();
+	private final ReplaySource source = new ReplaySource();
+	private final LocationTracker tracker = new LocationTracker(source, this);
+	private final GeoEngine.Settings settings = new GeoEngine.Settings();
+	private GeoEngine engine;
+	private Observer observer;
+
+	private float hfov = 50.2f;
+	private float compassAdjustment = 0;
+	private boolean deadReckoning = false;
+	private boolean quiet = false;
+
+	private long at;
+	private int moves = 0;
+	private int queries = 0;
+	private long queryNanos = 0;
+	private long maxQueryNanos = 0;
+	private ArrayList<Hills> inRange = new ArrayList<Hills>();
+
+	TraceReplay() {
+		settings.maxDistance = 30;
+	}
+
+	public static void main(String[] args) throws IOException, SQLException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: TraceReplay trace.smht [hills.db|hills.csv] [-realtime] [-maxkm n] [-nolod] [-hfov deg] [-smoothing n] [-adjust deg] [-deadreckoning] [-quiet]");
+			System.exit(1);
+		}
+		String tracePath = args[0];
+		String hillsPath = null;
+		boolean realtime = false;
+		TraceReplay replay = new TraceReplay();
+		for (int i = 1; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals("-realtime")) realtime = true;
+			else if (a.equals("-maxkm")) replay.settings.maxDistance = Float.parseFloat(args[++i]);
+			else if (a.equals("-nolod")) replay.settings.lod = false;
+			else if (a.equals("-hfov")) replay.hfov = Float.parseFloat(args[++i]);
+			else if (a.equals("-smoothing")) replay.filter.SetSmoothing(Integer.parseInt(args[++i]));
+			else if (a.equals("-adjust")) replay.compassAdjustment = Float.parseFloat(args[++i]);
+			else if (a.equals("-deadreckoning")) replay.deadReckoning = true;
+			else if (a.equals("-quiet")) replay.quiet = true;
+			else if (hillsPath == null) hillsPath = a;
+			else throw new IllegalArgumentException("unknown option " + a);
+		}
+		if (hillsPath != null) replay.engine = new GeoEngine(OpenHills(hillsPath));
+		Metrics.Get().SetEnabled(true);
+
+		TraceReader reader = new TraceReader(new FileInputStream(tracePath));
+		long start = System.nanoTime();
+		replay.Run(reader, realtime);
+		long took = System.nanoTime() - start;
+		reader.Close();
+		replay.Summary(took);
+	}
+
+	// an asset database through JDBC, anything else as an import csv
+	static HillSource OpenHills(String path) throws IOException, SQLException {
+		if (path.endsWith(".db")) return new JdbcHillSource("jdbc:sqlite:" + path);
+		return new CsvHillSource(path);
+	}
+
+	private int sensorSamples = 0;
+	private int orientations = 0;
+	private int seeds = 0;
+	private int steps = 0;
+	private int motionChanges = 0;
+
+	void Run(TraceReader reader, boolean realtime) throws IOException, InterruptedException {
+		TraceReader.Record r = new TraceReader.Record();
+		int rotation = OrientationFilter.ROTATION_0;
+		long wallBase = 0;
+		boolean haveWall = false;
+		long started = System.nanoTime();
+		MotionStateDetector.State motion = filter.GetMotionState();
+
+		while (reader.Next(r)) {
+			at = r.at;
+			if (realtime) {
+				long wait = (started + r.at) - System.nanoTime();
+				if (wait > 0) Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+			}
+			if (r.type == TraceRecorder.FIX && !haveWall) {
+				// the trace's clock, in the wall clock terms LocationTracker works in
+				wallBase = r.received - r.at / 1000000;
+				haveWall = true;
+			}
+			long now = wallBase + r.at / 1000000;
+
+			switch (r.type) {
+			case TraceRecorder.ROTATION:
+				rotation = r.rotation;
+				break;
+			case TraceRecorder.SENSOR:
+				sensorSamples++;
+				if (filter.AddSample(r.sensor, r.accuracy, r.values, r.timestamp, rotation)) orientations++;
+				if (filter.GetStride() > 0) {
+					steps++;
+					if (deadReckoning) tracker.Step(filter.GetStride(), GetHeading(), now);
+				}
+				MotionStateDetector.State ms = filter.GetMotionState();
+				if (ms != motion) {
+					motionChanges++;
+					boolean still = (ms == MotionStateDetector.State.Stationary);
+					if (still != (motion == MotionStateDetector.State.Stationary)) tracker.SetStationary(still);
+					motion = ms;
+					if (!quiet) System.out.printf(Locale.US, "%8.1fs motion %s%n", r.at / 1e9, ms);
+				}
+				break;
+			case TraceRecorder.FIX:
+				if (r.seed) {
+					seeds++;
+					tracker.Seed(r.provider, r.latitude, r.longitude, r.hasAltitude, r.altitude,
+							r.fixAccuracy, r.hasSpeed, r.speed, r.time, r.received);
+				} else if (source.Deliver(r)) {
+					tracker.AddFix(r.provider, r.latitude, r.longitude, r.hasAltitude, r.altitude,
+							r.fixAccuracy, r.hasSpeed, r.speed, r.time, r.received);
+				}
+				break;
+			}
+		}
+	}
+
+	private double GetHeading() {
+		return (filter.GetDirection() + compassAdjustment + 720) % 360;
+	}
+
+	// from LocationTracker - the same point where the app would look up hills again
+	public void SignificantMove(LocationFusion.Snapshot s) {
+		moves++;
+		if (engine == null) {
+			if (!quiet) System.out.printf(Locale.US, "%8.1fs move to %.5f,%.5f +/-%.0fm%n", at / 1e9, s.latitude, s.longitude, s.accuracy);
+			return;
+		}
+		long t0 = System.nanoTime();
+		observer = new Observer(s.latitude, s.longitude, s.hasAltitude ? s.altitude : 0);
+		engine.SetDirections(observer, settings);
+		inRange = engine.GetHills();
+		long took = System.nanoTime() - t0;
+		queries++;
+		queryNanos += took;
+		maxQueryNanos = Math.max(maxQueryNanos, took);
+
+		if (!quiet) {
+			System.out.printf(Locale.US, "%8.1fs move to %.5f,%.5f +/-%.0fm: %d hills in range, %d in view, nearest %s (%.2fms)%n",
+					at / 1e9, s.latitude, s.longitude, s.accuracy, inRange.size(), InView(),
+					inRange.isEmpty() ? "-" : inRange.get(0).hillname, took / 1e6);
+		}
+	}
+
+	// hills within the horizontal field of view at the current heading
+	private int InView() {
+		return engine.VisibleHills(observer, GetHeading(), hfov, settings).size();
+	}
+
+	void Summary(long took) {
+		System.out.printf(Locale.US, "replayed %.1fs of trace in %.1fms%n", at / 1e9, took / 1e6);
+		System.out.printf(Locale.US, "sensor readings %d, orientations %d, steps %d, motion changes %d%n",
+				sensorSamples, orientations, steps, motionChanges);
+		System.out.printf(Locale.US, "fixes delivered %d, dropped by update rate %d, seeds %d, rate changes %d%n",
+				source.delivered, source.dropped, seeds, source.rateChanges);
+		System.out.printf(Locale.US, "significant moves %d, hill lookups %d", moves, queries);
+		if (queries > 0) System.out.printf(Locale.US, " (mean %.2fms, max %.2fms)", queryNanos / 1e6 / queries, maxQueryNanos / 1e6);
+		System.out.println();
+		System.out.printf(Locale.US, "final heading %.1f, pitch %.1f, compass spread %d%n",
+				GetHeading(), Math.toDegrees(filter.GetElevation()), filter.GetVariation());
+		LocationFusion.Snapshot s = tracker.GetSnapshot();
+		if (s != null) System.out.printf(Locale.US, "final position %.5f,%.5f +/-%.0fm%n", s.latitude, s.longitude, s.accuracy);
+		if (engine != null) System.out.print(Metrics.Get().Dump());
+	}
+}
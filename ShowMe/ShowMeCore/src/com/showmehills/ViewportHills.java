@@ -0,0 +1,121 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * The hills for whatever part of the map is in view, at any distance from us. The map is cut into
+ * square tiles TILE_CELLS clustering cells across at each zoom level, and each tile is asked of
+ * the HillSource once - only its highest MaxPerTile hills, so zoomed out views get the big ones
+ * and stay about as busy as zoomed in ones. Tiles are kept, the least recently used going first,
+ * so panning back and forth or over an area that overlaps the last view only asks for the new
+ * edge. Load runs the queries where it's called, which shouldn't be the main thread.
+ */
+public class ViewportHills {
+
+	// tiles are this many MarkerClusters cells across, 1024 pixels
+	public static final int TILE_CELLS = 16;
+	public static final int MAX_TILES = 64;
+
+	private static final Metrics.Counter TILES_QUERIED = Metrics.Get().Counter("map.tiles.queried");
+	private static final Metrics.Counter TILES_CACHED = Metrics.Get().Counter("map.tiles.cached");
+	private static final Metrics.Counter TILE_FAILURES = Metrics.Get().Counter("map.tiles.failures");
+	private static final LatencyHistogram TILE_TIME = Metrics.Get().Histogram("map.tile");
+
+	private final HillSource source;
+	private final LinkedHashMap<Long, ArrayList<Hills>> tiles = new LinkedHashMap<Long, ArrayList<Hills>>(MAX_TILES, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, ArrayList<Hills>> eldest) {
+			return size() > MAX_TILES;
+		}
+	};
+
+	public ViewportHills(HillSource source) {
+		this.source = source;
+	}
+
+	// the most hills a tile gives; fewer further out, where there's more ground to a tile
+	public static int MaxPerTile(int zoom) {
+		if (zoom < 8) return 30;
+		if (zoom < 11) return 60;
+		return 120;
+	}
+
+	public static int TileE6(int zoom) {
+		return MarkerClusters.CellE6(zoom) * TILE_CELLS;
+	}
+
+	/*
+	 * Every tile's hills that overlap the box (in millionths of a degree), no hill twice, and only
+	 * those in filter unless that's null - the same category filter as the camera view's. Tiles
+	 * are kept unfiltered, so changing the filter doesn't throw them away; the cost is that a
+	 * tile's MaxPerTile are counted before filtering. A tile that can't be read is left out and
+	 * asked for again next time.
+	 */
+	public synchronized ArrayList<Hills> Load(int zoom, int minLatE6, int minLonE6, int maxLatE6, int maxLonE6, BitSet filter) {
+		int tile = TileE6(zoom);
+		LinkedHashMap<Integer, Hills> hills = new LinkedHashMap<Integer, Hills>();
+		for (int ty = MarkerClusters.FloorDiv(minLatE6, tile); ty <= MarkerClusters.FloorDiv(maxLatE6, tile); ty++) {
+			for (int tx = MarkerClusters.FloorDiv(minLonE6, tile); tx <= MarkerClusters.FloorDiv(maxLonE6, tile); tx++) {
+				ArrayList<Hills> t = Tile(zoom, ty, tx, tile);
+				if (t == null) continue;
+				for (int i = 0; i < t.size(); i++) {
+					Hills h = t.get(i);
+					if (filter == null || filter.get(h.id)) hills.put(h.id, h);
+				}
+			}
+		}
+		return new ArrayList<Hills>(hills.values());
+	}
+
+	public synchronized void Clear() {
+		tiles.clear();
+	}
+
+	private ArrayList<Hills> Tile(int zoom, int ty, int tx, int tile) {
+		long key = ((long)zoom << 56) | ((ty & 0xfffffffL) << 28) | (tx & 0xfffffffL);
+		ArrayList<Hills> t = tiles.get(key);
+		if (t != null) {
+			TILES_CACHED.Inc();
+			return t;
+		}
+		final ArrayList<Hills> rows = new ArrayList<Hills>();
+		long start = Metrics.Get().Start();
+		boolean ok = source.Area((double)ty * tile / 1E6, (double)tx * tile / 1E6,
+				(double)(ty + 1) * tile / 1E6, (double)(tx + 1) * tile / 1E6, MaxPerTile(zoom), new HillSource.Sink() {
+			public void Add(int id, String name, double lon, double lat, double height) {
+				rows.add(new Hills(id, name, lon, lat, height));
+			}
+		});
+		Metrics.Get().Stop(TILE_TIME, start);
+		if (!ok) {
+			TILE_FAILURES.Inc();
+			return null;
+		}
+		TILES_QUERIED.Inc();
+		tiles.put(key, rows);
+		return rows;
+	}
+}
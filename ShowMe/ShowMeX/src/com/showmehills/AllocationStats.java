@@ -0,0 +1,155 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import android.os.Debug;
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/*
+ * Allocations made while drawing a frame and while taking in a sensor reading, counted with the
+ * VM's own allocation counters (Debug.startAllocCounting), plus how often the garbage collector
+ * runs and how long the frames it lands in take. Both paths are meant to allocate nothing once
+ * they've warmed up; ShowMeBench's AllocationCheck holds the pure-Java parts to that on a PC, this
+ * shows what actually happens on the phone. The counts go into the Metrics registry as alloc.*
+ * and gc.*.
+ *
+ * Frames and sensor readings both arrive on the main thread, and everything here is only called
+ * from it. Counting slows the VM down a little, so it's off unless switched on in the settings.
+ * (Newer VMs may not keep these counters, in which case everything stays at 0.)
+ */
+public class AllocationStats {
+
+	public enum Path { Frame, Sensor }
+
+	private static final AllocationStats sStats = new AllocationStats();
+
+	private final Metrics.Counter[] last = new Metrics.Counter[Path.values().length];
+	private final Metrics.Counter[] max = new Metrics.Counter[Path.values().length];
+	private final Metrics.Counter[] total = new Metrics.Counter[Path.values().length];
+	private final Metrics.Counter[] count = new Metrics.Counter[Path.values().length];
+	// how many of them allocated anything at all
+	private final Metrics.Counter[] allocating = new Metrics.Counter[Path.values().length];
+	private final Metrics.Counter gcs = Metrics.Get().Counter("gc.count");
+	// frames the collector ran during, which is as near as we can get to its pause times
+	private final LatencyHistogram gcFrames = Metrics.Get().Histogram("gc.frame");
+
+	private boolean enabled = false;
+	private int gcStart;
+	private long frameAllocs;
+	private int frameGcs;
+	private long frameStart;
+
+	// per second, worked out once a second from the process-wide counts
+	private long rateTime;
+	private int rateAllocs, rateBytes, rateGcs;
+	private int allocsPerSec, bytesPerSec, gcsPerSec;
+
+	public static AllocationStats Get() {
+		return sStats;
+	}
+
+	private AllocationStats() {
+		for (Path p : Path.values()) {
+			String name = "alloc." + p.name().toLowerCase(Locale.US);
+			last[p.ordinal()] = Metrics.Get().Counter(name + ".last");
+			max[p.ordinal()] = Metrics.Get().Counter(name + ".max");
+			total[p.ordinal()] = Metrics.Get().Counter(name + ".total");
+			count[p.ordinal()] = Metrics.Get().Counter(name + ".count");
+			allocating[p.ordinal()] = Metrics.Get().Counter(name + ".allocating");
+		}
+	}
+
+	public void SetEnabled(boolean on) {
+		if (on == enabled) return;
+		enabled = on;
+		if (on) {
+			Debug.startAllocCounting();
+			gcStart = Debug.getGlobalGcInvocationCount();
+			rateTime = 0;
+		} else {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	public boolean IsEnabled() {
+		return enabled;
+	}
+
+	// -1 when switched off, which Stop takes as nothing to record
+	public long Start() {
+		return enabled ? Debug.getThreadAllocCount() : -1;
+	}
+
+	public void Stop(Path p, long start) {
+		if (start < 0) return;
+		long n = Debug.getThreadAllocCount() - start;
+		int i = p.ordinal();
+		last[i].Set(n);
+		total[i].Add(n);
+		count[i].Inc();
+		if (n > 0) allocating[i].Inc();
+		if (n > max[i].Get()) max[i].Set(n);
+	}
+
+	// around the whole of onDraw; also keeps the per-second rates up to date
+	public void StartFrame() {
+		if (!enabled) return;
+		frameStart = System.nanoTime();
+		frameGcs = Debug.getGlobalGcInvocationCount();
+		frameAllocs = Debug.getThreadAllocCount();
+	}
+
+	public void StopFrame() {
+		if (!enabled) return;
+		Stop(Path.Frame, frameAllocs);
+		int g = Debug.getGlobalGcInvocationCount();
+		if (g != frameGcs) gcFrames.Record(System.nanoTime() - frameStart);
+		gcs.Set(g - gcStart);
+
+		long now = SystemClock.uptimeMillis();
+		if (now - rateTime >= 1000) {
+			int a = Debug.getGlobalAllocCount();
+			int b = Debug.getGlobalAllocSize();
+			if (rateTime != 0) {
+				float secs = (now - rateTime) / 1000f;
+				allocsPerSec = (int)((a - rateAllocs) / secs);
+				bytesPerSec = (int)((b - rateBytes) / secs);
+				gcsPerSec = (int)((g - rateGcs) / secs);
+			}
+			rateTime = now;
+			rateAllocs = a;
+			rateBytes = b;
+			rateGcs = g;
+		}
+	}
+
+	public long GetLast(Path p) { return last[p.ordinal()].Get(); }
+	public long GetMax(Path p) { return max[p.ordinal()].Get(); }
+	public long GetCount(Path p) { return count[p.ordinal()].Get(); }
+	public long GetAllocating(Path p) { return allocating[p.ordinal()].Get(); }
+	public int GetAllocsPerSec() { return allocsPerSec; }
+	public int GetBytesPerSec() { return bytesPerSec; }
+	public int GetGcsPerSec() { return gcsPerSec; }
+	public long GetGcs() { return gcs.Get(); }
+	public LatencyHistogram GetGcFrames() { return gcFrames; }
+}
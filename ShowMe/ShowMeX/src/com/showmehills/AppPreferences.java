@@ -1,39 +1,48 @@
-/*
-    Copyright 2012 Nik Cain nik@showmehills.com
-    
-    This file is part of ShowMeHills.
-
-    ShowMeHills is free software: you can redistribute it and/or modify
-    it under the terms of the GNU General Public License as published by
-    the Free Software Foundation, either version 3 of the License, or
-    (at your option) any later version.
-
-    ShowMeHills is distributed in the hope that it will be useful,
-    but WITHOUT ANY WARRANTY; without even the implied warranty of
-    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
-    GNU General Public License for more details.
-
-    You should have received a copy of the GNU General Public License
-    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
- */
-
-package com.showmehills;
-
-import com.showmehills.R;
-
-import android.preference.PreferenceActivity;
-import android.preference.PreferenceManager;
-import android.os.Bundle;
-
-public class AppPreferences extends PreferenceActivity {
-
-	@Override
-	protected void onCreate(Bundle savedInstanceState) {
-		super.onCreate(savedInstanceState);
-		
-		PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
-
-		addPreferencesFromResource(R.xml.preferences);
-	}
-}
-
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+    
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import com.showmehills.R;
+
+import android.preference.Preference;
+import android.preference.PreferenceActivity;
+import android.preference.PreferenceManager;
+import android.os.Bundle;
+
+public class AppPreferences extends PreferenceActivity {
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+		
+		PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
+
+		addPreferencesFromResource(R.xml.preferences);
+
+		// only some databases have hill lists (see how_to_update_database.txt); without, it'd do nothing
+		Preference lists = findPreference("hilllist");
+		if (lists != null && !HillDatabase.HasHillLists())
+		{
+			lists.setEnabled(false);
+			lists.setSummary(R.string.summary_hilllist_none);
+		}
+	}
+}
+
@@ -1,309 +1,678 @@
-/*
-    Copyright 2012 Nik Cain nik@showmehills.com
-    
-    This file is part of ShowMeHills.
-
-    ShowMeHills is free software: you can redistribute it and/or modify
-    it under the terms of the GNU General Public License as published by
-    the Free Software Foundation, either version 3 of the License, or
-    (at your option) any later version.
-
-    ShowMeHills is distributed in the hope that it will be useful,
-    but WITHOUT ANY WARRANTY; without even the implied warranty of
-    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
-    GNU General Public License for more details.
-
-    You should have received a copy of the GNU General Public License
-    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
- */
-
-package com.showmehills;
-
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
-import android.database.sqlite.SQLiteOpenHelper;
-import android.location.Location;
-import android.preference.PreferenceManager;
-import android.util.Log;
-
-	public class HillDatabase extends SQLiteOpenHelper{
-		private static String DB_PATH;// = "/data/data/com.showmehills.showmehillsuk/databases/";		 
-	    private static String DB_NAME;	
-	    private static int mDatabaseVersion = 9;
-	    private SQLiteDatabase myDataBase; 	 
-	    private final Context myContext;
-	    private boolean mDbCopied = false;
-	    public ArrayList<Hills> localhills = new ArrayList<Hills>();
-
-	    public HillDatabase(Context context, String dbname, String dbpath) {
-	    	super(context, dbname, null, 1);
-	        DB_NAME = dbname;
-	        DB_PATH = dbpath;
-	        this.myContext = context;
-	    }	
-	 
-	    public void createDataBase(){
-	    	// made some changes in the database, but need to update it in existing installs!
-	    	// so need to add a version number
-	    	// for now just update db every time
-	    	boolean dbExist = checkDataBase();	 
-	    	if(dbExist){
-	    		//do nothing - database already exist
-	    	}else{	 
-	        	this.getReadableDatabase();	 
-	        	copyDataBase();
-	    	}	 
-	    }
-	 
-	    public boolean checkDataBase(){
-	    	if (!mDbCopied) return false;
-	    	if (myDataBase != null)
-	    	{
-	    		// already ok
-	    		return true;
-	    	}
-	    	try{
-	    		String myPath = DB_PATH + DB_NAME;
-	    		
-	    		try {
-	    	    	myDataBase = SQLiteDatabase.openDatabase(myPath, null, SQLiteDatabase.OPEN_READONLY);
-	    		}
-    	    	catch(Exception e){	 
-    	    		return false;	 
-    	    	}
-	    		if (myDataBase == null)
-	    		{
-	    			return false;
-	    		}
-	    		
-				String qu = "select ver from dbversions limit 1";				
-				Cursor cursor = getReadableDatabase().rawQuery( qu, null);
-				if(cursor.moveToFirst()) {
-					if (cursor.getInt(0) != mDatabaseVersion)
-					{
-						Log.d("showmehills", "Old database ("+cursor.getInt(0)+"). Updating!");
-						myDataBase.close();
-						myDataBase = null;
-						if (myContext.deleteDatabase(DB_NAME))
-						{
-							Log.d("showmehills", "Deleted old database " + myContext.getDatabasePath(DB_NAME));
-						}
-						else
-						{
-							Log.d("showmehills", "Failed to delete old database!");
-						}
-						return false;
-					}
-				}				
-	    	}catch(SQLiteException e){	 
-	    		//database does't exist yet.
-	    		e.printStackTrace();
-	    	}
-	 
-	    	return myDataBase != null ? true : false;
-	    }
-	 
-	    private void copyDataBase() {	 
-	    	Log.d("showmehills", "Attempting to copy database " + DB_NAME + " from assets to " + DB_PATH + DB_NAME);
-	    	InputStream myInput;
-			try {
-				myInput = myContext.getAssets().open(DB_NAME);
-			} catch (IOException e) {
-				e.printStackTrace();
-				return;
-			}
-	    	String outFileName = DB_PATH + DB_NAME;
-	    	OutputStream myOutput;
-	    	long bytesCopied = 0;
-			try {
-				myOutput = new FileOutputStream(outFileName);
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-		    	try {
-					myInput.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-		    	return;
-			}
-	    	byte[] buffer = new byte[1024];
-	    	int length;
-	    	try {
-				while ((length = myInput.read(buffer))>0){
-					myOutput.write(buffer, 0, length);
-					bytesCopied += length;
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-
-		    	try {
-					myInput.close();
-			    	myOutput.close();
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-		    	return;
-			}
-	    	try {
-				myOutput.flush();
-		    	myOutput.close();
-		    	myInput.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-	    	mDbCopied = true;
-	    	Log.d("showmehills", "Database copied successfully (" + bytesCopied + " bytes), attempting to check database again...");
-	    	// should be created, so now open
-	    	checkDataBase();
-	    }
-	 
-	    @Override
-		public synchronized void close() {	 
-	    	    if(myDataBase != null)
-	    		    myDataBase.close();
-	    	    myDataBase = null;
-	    	    super.close();	 
-		}
-	 
-		@Override
-		public void onCreate(SQLiteDatabase db) {}
-	 
-		@Override
-		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
-	 
-		public void SetDirections(Location curLocation)
-		{
-			if (curLocation == null) return;
-			
-			if (myDataBase == null)
-			{
-				createDataBase();
-				if (myDataBase == null) return;
-			}
-			
-			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(myContext);
-			String md = prefs.getString("distance", "25");
-			if (md == "") md = "25";
-	        Float maxdistance = Float.parseFloat(md);
-	        
-			md = prefs.getString("mindistance", "0");
-			if (md == "") md = "0";
-	        Float mindistance = Float.parseFloat(md);
-	        
-			localhills.clear();
-			
-			double curLatitude = curLocation.getLatitude();
-			double curLongitude = curLocation.getLongitude();
-			
-			// use a rule of thumb for distance between lines of lat & long
-			// 1 line of latitude = 111km
-			// 1 line of longitude = sin(latitude)* 111km. 
-			String qu = "select * from mountains where latitude between " +
-			(curLatitude - (maxdistance/111.0 )) + " and " + (curLatitude + (maxdistance/111.0 ))
-			+ " and longitude between " +
-			(curLongitude - (maxdistance/(111.0 * Math.sin(curLatitude * Math.PI / 180)))) + " and " +
-			(curLongitude + (maxdistance/(111.0 * Math.sin(curLatitude * Math.PI / 180))));
-			
-			Cursor cursor;
-			try {
-				cursor = getReadableDatabase().rawQuery( qu, null);
-			}	
-	    	catch(SQLiteException e){	 
-	    		return;	 
-	    	}
-	        if (cursor == null) return;
-	        
-			int tooNear = 0, tooFar = 0;
-			if(cursor.moveToFirst()) {
-				double dLat, dLon, lat1, lat2;
-				double x, y, brng, a, c, dheight;
-				Hills h;
-				
-	        	do {
-	        		try {
-		        		h = new Hills( 
-		        				cursor.getInt(cursor.getColumnIndex("_id")),
-		        				cursor.getString(cursor.getColumnIndex("name")),
-		        				cursor.getDouble(cursor.getColumnIndex("longitude")),
-		        				cursor.getDouble(cursor.getColumnIndex("latitude")),
-		        				cursor.getDouble(cursor.getColumnIndex("height")));
-		        		
-						dLat = Math.toRadians(h.latitude - curLatitude); 
-						dLon =  Math.toRadians(h.longitude - curLongitude); 
-						lat1 = Math.toRadians(curLatitude);
-						lat2 = Math.toRadians(h.latitude);
-						
-						// direction calculation
-						y = Math.sin(dLon) * Math.cos(lat2);
-						x = Math.cos(lat1)*Math.sin(lat2) -
-						        Math.sin(lat1)*Math.cos(lat2)*Math.cos(dLon);
-						brng = Math.atan2(y, x)  * 180 / Math.PI;
-						
-						h.direction = (brng<0)?brng+360:brng;
-						
-						// distance calculation				
-						a = Math.sin(dLat/2) * Math.sin(dLat/2) +
-						        Math.cos(lat2) * Math.cos(lat1) * 
-						        Math.sin(dLon/2) * Math.sin(dLon/2); 
-						c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1-a)); 
-						h.distance = Math.floor(10 * 6371 * c) / 10.0; // Distance in km
-	
-						// vertical angle
-						dheight = h.height - curLocation.getAltitude();
-						
-						h.visualElevation = Math.atan2(dheight, h.distance*1000);
-		        		
-						if (h.distance > maxdistance)
-						{
-							tooFar++;
-						}
-						else if (h.distance < mindistance)
-						{
-							tooNear++;
-						}
-						else
-						{
-			        		//Log.d("showmehills", "Adding " + h.hillname + "@"+h.longitude+","+h.latitude);
-			        		localhills.add(h);
-						}
-					} catch(Exception e)
-					{
-						Log.e("showmehills", "bad database read: " + e.getMessage());
-					}			
-	        	} while (cursor.moveToNext());
-	        }
-	        Log.d("showmehills", "Added " + localhills.size() + " markers; skipped " + tooNear + " too near, " + tooFar + " too far.");
-/*
- * for testing:
-			localhills.add(new Hills(0,"London Eye",   -0.119700, 51.5033,   135));
-			localhills.add(new Hills(0,"Shard",        -0.086667, 51.504444, 308));
-			localhills.add(new Hills(0,"1 Canada Sq",  -0.019611, 51.505, 240));
-			localhills.add(new Hills(0,"BT Tower",     -0.138900, 51.5215, 191));
-			localhills.add(new Hills(0,"Gherkin",      -0.080278, 51.514444, 180));
-			*/
-
-			Collections.sort(localhills, new Comparator<Object>(){
-				 
-	            public int compare(Object o1, Object o2) {
-	                Hills p1 = (Hills) o1;
-	                Hills p2 = (Hills) o2;
-	               if (p1.distance==p2.distance) return 0;
-	               if (p1.distance < p2.distance) return -1;
-	               return 1;
-	            }
-	 
-	        });
-		}
-	}
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+    
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.location.Location;
+import android.os.Environment;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+	public class HillDatabase extends SQLiteOpenHelper implements HillSource {
+		private static String DB_PATH;// = "/data/data/com.showmehills.showmehillsuk/databases/";		 
+	    private static String DB_NAME;	
+	    private static int mDatabaseVersion = 9;
+	    // volatile and the open/copy synchronized, since OpenInBackground may be doing it
+	    private volatile SQLiteDatabase myDataBase; 	 
+	    // set while OpenInBackground is at it, so the UI thread can go without rather than wait
+	    private volatile boolean mOpening = false;
+	    private final Context myContext;
+	    private boolean mDbCopied = false;
+	    private final GeoEngine mEngine = new GeoEngine(this);
+	    private final GeoEngine.Settings mSettings = new GeoEngine.Settings();
+	    // the engine's list, refilled in place by each SetDirections
+	    public final ArrayList<Hills> localhills = mEngine.GetHills();
+	    
+	    private static final String COLD_COLUMNS = "_id, link, itemtype";
+	    
+	    // small reads the UI thread asks for but mustn't wait on, one at a time
+	    private static final ExecutorService sWorker = Executors.newSingleThreadExecutor();
+	    // hills whose details have been asked for but aren't cached yet
+	    private final HashSet<Integer> mPrefetching = new HashSet<Integer>();
+	    
+	    // alongside the engine's query metrics
+	    private static final Metrics.Counter INSTALL_FAILURES = Metrics.Get().Counter("db.install.failures");
+	    private static final Metrics.Counter BAD_ROWS = Metrics.Get().Counter("query.rows.bad");
+	    private static final LatencyHistogram INSTALL_TIME = Metrics.Get().Histogram("db.install");
+	    
+	    // loaded on sWorker the first time a category filter is switched on; nothing's filtered till then
+	    private static volatile HillCategories sCategories;
+	    private static boolean sCategoriesLoading = false;
+	    // run (on sWorker) once categories this instance asked for have loaded
+	    private volatile Runnable mWhenCategories;
+	    // whether the open database has a hilllists table; neither shipped one does yet
+	    private static volatile boolean sHasHillLists = false;
+	    private static final String[] ITEMTYPE_PREFS = { "peak", "showpeaks", "historic", "showhistoric", "places", "showplaces" };
+	    
+	    // shared by every HillDatabase; only created once there are elevation tiles to read
+	    private static ElevationTiles sElevation;
+	    private static TerrainOcclusion sTerrain;
+	    // set once the sd card's been looked at, tiles or not, so a phone without any only lists the directory per resume
+	    private static boolean sElevationLooked = false;
+	    private Location mOcclusionLocation;
+	    private double mOcclusionMoveKm;
+	    private int mOcclusionVersion = -1;
+
+	    public HillDatabase(Context context, String dbname, String dbpath) {
+	    	super(context, dbname, null, 1);
+	        DB_NAME = dbname;
+	        DB_PATH = dbpath;
+	        this.myContext = context;
+	    }	
+	 
+	    public synchronized void createDataBase(){
+	    	// made some changes in the database, but need to update it in existing installs!
+	    	// so need to add a version number
+	    	// for now just update db every time
+	    	boolean dbExist = checkDataBase();	 
+	    	if(dbExist){
+	    		//do nothing - database already exist
+	    	}else{	 
+	        	this.getReadableDatabase();	 
+	        	copyDataBase();
+	    	}	 
+	    	if (myDataBase != null) StartupTrace.Mark(StartupTrace.Mark.DatabaseReady);
+	    }
+	    
+	    /*
+	     * Copies and opens the database on a thread of its own. Until it's done SetDirections and
+	     * IsOpening callers don't wait for it, they just do without; whenOpen is run (on this
+	     * thread - post it if it needs the UI) once it's finished, opened or not.
+	     */
+	    public void OpenInBackground(final Runnable whenOpen) {
+	    	mOpening = true;
+	    	Thread t = new Thread(new Runnable() {
+	    		public void run() {
+	    			try {
+	    				createDataBase();
+	    			} catch (SQLiteException e) {
+	    				// SetDirections will try again when it's needed
+	    				Log.e("showmehills", "couldn't open database in background: " + e.getMessage());
+	    			} finally {
+	    				mOpening = false;
+	    			}
+	    			if (whenOpen != null) whenOpen.run();
+	    		}
+	    	}, "HillDatabase");
+	    	t.setPriority(Thread.NORM_PRIORITY - 1);
+	    	t.start();
+	    }
+	    
+	    // true while OpenInBackground holds the database; anything synchronized would wait for it
+	    public boolean IsOpening() {
+	    	return mOpening;
+	    }
+	 
+	    public synchronized boolean checkDataBase(){
+	    	if (!mDbCopied) return false;
+	    	if (myDataBase != null)
+	    	{
+	    		// already ok
+	    		return true;
+	    	}
+	    	try{
+	    		String myPath = DB_PATH + DB_NAME;
+	    		
+	    		try {
+	    	    	myDataBase = SQLiteDatabase.openDatabase(myPath, null, SQLiteDatabase.OPEN_READONLY);
+	    		}
+    	    	catch(Exception e){	 
+    	    		return false;	 
+    	    	}
+	    		if (myDataBase == null)
+	    		{
+	    			return false;
+	    		}
+	    		
+				String qu = "select ver from dbversions limit 1";				
+				Cursor cursor = getReadableDatabase().rawQuery( qu, null);
+				if(cursor.moveToFirst()) {
+					if (cursor.getInt(0) != mDatabaseVersion)
+					{
+						Log.d("showmehills", "Old database ("+cursor.getInt(0)+"). Updating!");
+						myDataBase.close();
+						myDataBase = null;
+						if (myContext.deleteDatabase(DB_NAME))
+						{
+							Log.d("showmehills", "Deleted old database " + myContext.getDatabasePath(DB_NAME));
+						}
+						else
+						{
+							Log.d("showmehills", "Failed to delete old database!");
+						}
+						return false;
+					}
+				}
+				cursor.close();
+				cursor = myDataBase.rawQuery("select name from sqlite_master where type = 'table' and name = 'hilllists'", null);
+				sHasHillLists = cursor.moveToFirst();
+				cursor.close();
+	    	}catch(SQLiteException e){	 
+	    		//database does't exist yet.
+	    		e.printStackTrace();
+	    	}
+	 
+	    	return myDataBase != null ? true : false;
+	    }
+	 
+	    private void copyDataBase() {	 
+	    	Log.d("showmehills", "Attempting to copy database " + DB_NAME + " from assets to " + DB_PATH + DB_NAME);
+	    	long start = System.nanoTime();
+	    	InputStream myInput;
+			try {
+				myInput = myContext.getAssets().open(DB_NAME);
+			} catch (IOException e) {
+				e.printStackTrace();
+				INSTALL_FAILURES.Inc();
+				return;
+			}
+	    	String outFileName = DB_PATH + DB_NAME;
+	    	OutputStream myOutput;
+	    	long bytesCopied = 0;
+			try {
+				myOutput = new FileOutputStream(outFileName);
+			} catch (FileNotFoundException e) {
+				e.printStackTrace();
+		    	try {
+					myInput.close();
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+				INSTALL_FAILURES.Inc();
+		    	return;
+			}
+	    	byte[] buffer = new byte[1024];
+	    	int length;
+	    	try {
+				while ((length = myInput.read(buffer))>0){
+					myOutput.write(buffer, 0, length);
+					bytesCopied += length;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+
+		    	try {
+					myInput.close();
+			    	myOutput.close();
+				} catch (IOException e1) {
+					e1.printStackTrace();
+				}
+				INSTALL_FAILURES.Inc();
+		    	return;
+			}
+	    	try {
+				myOutput.flush();
+		    	myOutput.close();
+		    	myInput.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+	    	mDbCopied = true;
+	    	INSTALL_TIME.Record(System.nanoTime() - start);
+	    	Log.d("showmehills", "Database copied successfully (" + bytesCopied + " bytes), attempting to check database again...");
+	    	// should be created, so now open
+	    	if (!checkDataBase()) INSTALL_FAILURES.Inc();
+	    }
+	 
+	    @Override
+		public synchronized void close() {	 
+	    	    if(myDataBase != null)
+	    		    myDataBase.close();
+	    	    myDataBase = null;
+	    	    super.close();	 
+		}
+	 
+		@Override
+		public void onCreate(SQLiteDatabase db) {}
+	 
+		@Override
+		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+	 
+		public void SetDirections(Location curLocation)
+		{
+			if (curLocation == null) return;
+			
+			if (myDataBase == null)
+			{
+				// still being copied; OpenInBackground's caller asks again when it's done
+				if (mOpening) return;
+				createDataBase();
+				if (myDataBase == null) return;
+			}
+			
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(myContext);
+			String md = prefs.getString("distance", "25");
+			if (md == "") md = "25";
+	        Float maxdistance = Float.parseFloat(md);
+	        
+			md = prefs.getString("mindistance", "0");
+			if (md == "") md = "0";
+	        Float mindistance = Float.parseFloat(md);
+	        
+	        mSettings.maxDistance = maxdistance;
+	        mSettings.minDistance = mindistance;
+	        mSettings.lod = prefs.getBoolean("lod", true);
+	        mSettings.filter = GetCategoryFilter(prefs);
+			
+			double curAltitude = GetObserverAltitude(curLocation);
+			Observer observer = new Observer(curLocation.getLatitude(), curLocation.getLongitude(), curAltitude);
+			long queryStart = System.nanoTime();
+			if (!mEngine.SetDirections(observer, mSettings)) return;
+			PerfRing.Log(PerfRing.Type.Query, (int)((System.nanoTime() - queryStart) / 1000), localhills.size());
+			
+	        Log.d("showmehills", "Added " + localhills.size() + " markers; skipped " + mEngine.tooNear + " too near, " + mEngine.tooFar + " too far, " + mEngine.filtered + " filtered, " + mEngine.minor + " too small for distance.");
+	        UpdateOcclusion(prefs, curLocation, curAltitude, maxdistance);
+		}
+		
+		// HillSource for the engine: the asset database through the phone's SQLite
+		public boolean Candidates(double lat, double lon, float maxKm, boolean lod, HillSource.Sink sink)
+		{
+			return Query(false, HillQuery.Sql(lat, lon, maxKm, lod), sink);
+		}
+		
+		/*
+		 * For the map, which asks from its own thread. Synchronized with close(), so leaving the map
+		 * can't shut the database under the cursor, and it only uses the database if it's already
+		 * open: once the map has closed it, this fails until onResume opens it again on the UI thread.
+		 */
+		public synchronized boolean Area(double minLat, double minLon, double maxLat, double maxLon, int limit, HillSource.Sink sink)
+		{
+			return Query(true, HillQuery.AreaSql(minLat, minLon, maxLat, maxLon, limit), sink);
+		}
+		
+		// openOnly: use myDataBase as it is, rather than letting the helper open a closed one again
+		private boolean Query(boolean openOnly, String qu, HillSource.Sink sink)
+		{
+			Cursor cursor = null;
+			try {
+				SQLiteDatabase db = openOnly ? myDataBase : getReadableDatabase();
+				if (db == null) return false;
+				cursor = db.rawQuery(qu, null);
+				if (cursor == null) return false;
+				if (cursor.moveToFirst()) {
+					do {
+						try {
+							sink.Add(cursor.getInt(0), cursor.getString(1), cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4));
+						} catch(Exception e)
+						{
+							Log.e("showmehills", "bad database read: " + e.getMessage());
+							BAD_ROWS.Inc();
+						}
+					} while (cursor.moveToNext());
+				}
+				return true;
+			}
+			catch(SQLiteException e){
+				return false;
+			}
+			catch(IllegalStateException e){
+				// closed under us
+				return false;
+			}
+			finally {
+				if (cursor != null) cursor.close();
+			}
+		}
+	
+
+		/*
+		 * Terrain occlusion stage after SetDirections: asks for a new horizon profile if we've moved
+		 * far enough, and marks the hills the latest one says are behind nearer ground.
+		 */
+		private void UpdateOcclusion(SharedPreferences prefs, Location curLocation, double curAltitude, float maxdistance)
+		{
+			mOcclusionVersion = -1;
+			if (!prefs.getBoolean("occlusion", true)) return;
+			TerrainOcclusion terrain = GetTerrain();
+			if (terrain == null) return;
+			
+			String mv = prefs.getString("horizonmove", "250");
+			if (mv.length() == 0) mv = "250";
+			try {
+				mOcclusionMoveKm = Float.parseFloat(mv) / 1000.0;
+			} catch (NumberFormatException e) {
+				mOcclusionMoveKm = 0.25;
+			}
+			mOcclusionLocation = curLocation;
+			
+			terrain.Update(curLocation.getLatitude(), curLocation.getLongitude(), curAltitude, maxdistance, mOcclusionMoveKm);
+			mOcclusionVersion = terrain.GetVersion();
+			int hidden = terrain.Mark(localhills, curLocation.getLatitude(), curLocation.getLongitude(), mOcclusionMoveKm);
+			Log.d("showmehills", hidden + " markers hidden by terrain.");
+		}
+		
+		// cheap enough to call every frame - only does anything once a newer horizon profile is ready
+		public void CheckOcclusion()
+		{
+			if (mOcclusionVersion < 0 || sTerrain == null) return;
+			if (sTerrain.GetVersion() == mOcclusionVersion) return;
+			mOcclusionVersion = sTerrain.GetVersion();
+			sTerrain.Mark(localhills, mOcclusionLocation.getLatitude(), mOcclusionLocation.getLongitude(), mOcclusionMoveKm);
+		}
+		
+		// skyline for DrawOnTop, null if occlusion is off or there's no elevation data
+		public float[] GetSkyline(double heading)
+		{
+			if (mOcclusionVersion < 0 || sTerrain == null) return null;
+			return sTerrain.GetSkyline(heading);
+		}
+		
+		private static synchronized TerrainOcclusion GetTerrain()
+		{
+			if (sTerrain == null)
+			{
+				ElevationTiles dem = GetElevationTiles();
+				if (dem != null) sTerrain = new TerrainOcclusion(dem);
+			}
+			return sTerrain;
+		}
+		
+		// elevation tiles are copied to showmehills/dem on the sd card, see how_to_update_database.txt
+		private static synchronized ElevationTiles GetElevationTiles()
+		{
+			if (sElevation == null && !sElevationLooked)
+			{
+				File dir = new File(Environment.getExternalStorageDirectory(), "showmehills/dem");
+				ElevationTiles dem = new ElevationTiles(dir);
+				if (dem.HasTiles()) sElevation = dem;
+				sElevationLooked = true;
+			}
+			return sElevation;
+		}
+		
+		// tiles may have been copied on while we were away; if there weren't any, look again next time they're wanted
+		public static synchronized void LookForElevationTiles()
+		{
+			sElevationLooked = false;
+		}
+		
+		/*
+		 * Eye height for working out how high each hill looks: the ground height from the elevation
+		 * tiles blended with GPS altitude by how accurate the fix is. Just the GPS altitude if
+		 * there are no tiles.
+		 */
+		public double GetObserverAltitude(Location curLocation)
+		{
+			return ObserverAltitude.Estimate(GetElevationTiles(),
+					curLocation.getLatitude(), curLocation.getLongitude(),
+					curLocation.hasAltitude(), curLocation.getAltitude(),
+					curLocation.hasAccuracy() ? curLocation.getAccuracy() : 0);
+		}
+
+		/*
+		 * Queues a read of link/itemtype for any of the given (on screen) hills that aren't cached
+		 * or already asked for, in one query on sWorker. Cheap to call every frame - it returns
+		 * straight away once they're all cached.
+		 */
+		public void PrefetchDetails(ArrayList<Hills> hills)
+		{
+			if (myDataBase == null) return;
+
+			ArrayList<Hills> missing = null;
+			synchronized (mPrefetching)
+			{
+				for (int i = 0; i < hills.size(); i++)
+				{
+					Hills h = hills.get(i);
+					if (HillDetail.IsCached(h.id) || mPrefetching.contains(h.id)) continue;
+					if (missing == null) missing = new ArrayList<Hills>();
+					missing.add(h);
+					mPrefetching.add(h.id);
+				}
+			}
+			if (missing == null) return;
+
+			final ArrayList<Hills> wanted = missing;
+			sWorker.execute(new Runnable() {
+				public void run() {
+					try {
+						ReadDetails(wanted);
+					} catch (RuntimeException e) {
+						Log.e("showmehills", "detail prefetch failed: " + e.getMessage());
+					}
+					// whatever didn't make it into the cache can be asked for again
+					synchronized (mPrefetching)
+					{
+						for (int i = 0; i < wanted.size(); i++) mPrefetching.remove(wanted.get(i).id);
+					}
+				}
+			});
+		}
+
+		// synchronized with close(), so the database can't shut under the cursor
+		private synchronized void ReadDetails(ArrayList<Hills> missing)
+		{
+			if (myDataBase == null) return;
+			missing = new ArrayList<Hills>(missing);
+
+			StringBuilder qu = new StringBuilder("select " + COLD_COLUMNS + " from mountains where _id in (");
+			String[] args = new String[missing.size()];
+			for (int i = 0; i < missing.size(); i++)
+			{
+				qu.append((i == 0) ? "?" : ",?");
+				args[i] = Integer.toString(missing.get(i).id);
+			}
+			qu.append(")");
+
+			Cursor cursor;
+			try {
+				cursor = myDataBase.rawQuery(qu.toString(), args);
+			}
+			catch(SQLiteException e){
+				Log.e("showmehills", "detail prefetch failed: " + e.getMessage());
+				return;
+			}
+			if (cursor == null) return;
+
+			if (cursor.moveToFirst()) {
+				do {
+					// rows come back in rowid order, not argument order, so match them up by id
+					int id = cursor.getInt(0);
+					for (int i = 0; i < missing.size(); i++)
+					{
+						Hills h = missing.get(i);
+						if (h.id != id) continue;
+						HillDetail.Cache(new HillDetail(h.id, h.hillname, h.height, cursor.getString(1), cursor.getString(2)));
+						missing.remove(i);
+						break;
+					}
+				} while (cursor.moveToNext());
+			}
+			// cache misses too, so a hill with no row doesn't get queried every frame
+			for (int i = 0; i < missing.size(); i++)
+			{
+				Hills h = missing.get(i);
+				HillDetail.Cache(new HillDetail(h.id, h.hillname, h.height, null, null));
+			}
+			cursor.close();
+		}
+
+		public HillDetail GetDetail(int hillid)
+		{
+			HillDetail d = HillDetail.GetCached(hillid);
+			if (d != null) return d;
+
+			if (myDataBase == null) return null;
+			Cursor cursor;
+			try {
+				cursor = myDataBase.rawQuery("select name, height, link, itemtype from mountains where _id = ?",
+						new String[] { Integer.toString(hillid) });
+			}
+			catch(SQLiteException e){
+				return null;
+			}
+			if (cursor == null) return null;
+			if (cursor.moveToFirst())
+			{
+				d = new HillDetail(hillid, cursor.getString(0), cursor.getDouble(1), cursor.getString(2), cursor.getString(3));
+				HillDetail.Cache(d);
+			}
+			cursor.close();
+			return d;
+		}
+
+		/*
+		 * Reads every named hill into a search index. Takes a while on the bigger databases, so
+		 * call it off the UI thread.
+		 */
+		public HillSearchIndex BuildSearchIndex()
+		{
+			if (myDataBase == null)
+			{
+				createDataBase();
+				if (myDataBase == null) return null;
+			}
+			Cursor cursor;
+			try {
+				cursor = myDataBase.rawQuery("select " + HillQuery.HOT_COLUMNS + " from mountains where name is not null", null);
+			}
+			catch(SQLiteException e){
+				Log.e("showmehills", "couldn't read names for search: " + e.getMessage());
+				return null;
+			}
+			if (cursor == null) return null;
+			HillSearchIndex.Builder b = new HillSearchIndex.Builder();
+			if (cursor.moveToFirst()) {
+				do {
+					b.Add(cursor.getInt(0), cursor.getString(1), cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4));
+				} while (cursor.moveToNext());
+			}
+			cursor.close();
+			HillSearchIndex index = b.Build();
+			Log.d("showmehills", "search index built for " + index.size() + " hills");
+			return index;
+		}
+
+		// the ids the settings let through, or null for all of them; the map uses it too
+		BitSet GetCategoryFilter(SharedPreferences prefs)
+		{
+			ArrayList<String> hidden = new ArrayList<String>();
+			for (int i = 0; i < ITEMTYPE_PREFS.length; i += 2)
+			{
+				if (!prefs.getBoolean(ITEMTYPE_PREFS[i+1], true)) hidden.add(ITEMTYPE_PREFS[i]);
+			}
+			String list = prefs.getString("hilllist", "All");
+			// a list left set from a database that had them
+			if (!sHasHillLists) list = "All";
+			if (hidden.isEmpty() && list.equalsIgnoreCase("all")) return null;
+
+			HillCategories cats = sCategories;
+			if (cats == null)
+			{
+				RequestCategories();
+				return null;
+			}
+			return cats.GetFilter(hidden.toArray(new String[hidden.size()]), list);
+		}
+
+		// false until a database with a hilllists table has been opened; the settings grey the list out
+		public static boolean HasHillLists()
+		{
+			return sHasHillLists;
+		}
+		
+		// the markers were drawn unfiltered while the categories loaded; whenLoaded should redo them
+		public void SetWhenCategoriesLoaded(Runnable whenLoaded)
+		{
+			mWhenCategories = whenLoaded;
+		}
+
+		// a scan of the whole table, so not on the UI thread; the next SetDirections picks them up
+		private void RequestCategories()
+		{
+			synchronized (HillDatabase.class)
+			{
+				if (sCategoriesLoading) return;
+				sCategoriesLoading = true;
+			}
+			sWorker.execute(new Runnable() {
+				public void run() {
+					HillCategories cats = null;
+					try {
+						cats = LoadCategories();
+					} catch (RuntimeException e) {
+						Log.e("showmehills", "couldn't load categories: " + e.getMessage());
+					}
+					synchronized (HillDatabase.class)
+					{
+						if (cats != null) sCategories = cats;
+						sCategoriesLoading = false;
+					}
+					Runnable whenLoaded = mWhenCategories;
+					if (cats != null && whenLoaded != null) whenLoaded.run();
+				}
+			});
+		}
+
+		// synchronized with close(), like ReadDetails
+		private synchronized HillCategories LoadCategories()
+		{
+			if (myDataBase == null) return null;
+			long start = System.currentTimeMillis();
+			HillCategories cats = new HillCategories();
+			Cursor cursor;
+			try {
+				cursor = myDataBase.rawQuery("select _id, itemtype from mountains", null);
+			}
+			catch(SQLiteException e){
+				Log.e("showmehills", "couldn't read item types: " + e.getMessage());
+				return null;
+			}
+			if (cursor.moveToFirst()) {
+				do {
+					cats.AddItemType(cursor.getInt(0), cursor.getString(1));
+				} while (cursor.moveToNext());
+			}
+			cursor.close();
+
+			// hill lists are optional, see how_to_update_database.txt
+			try {
+				cursor = myDataBase.rawQuery("select _id, list from hilllists", null);
+				if (cursor.moveToFirst()) {
+					do {
+						cats.AddToList(cursor.getInt(0), cursor.getString(1));
+					} while (cursor.moveToNext());
+				}
+				cursor.close();
+			}
+			catch(SQLiteException e){
+				Log.d("showmehills", "no hill lists in this database");
+			}
+			Log.d("showmehills", "categories loaded in " + (System.currentTimeMillis() - start) + "ms");
+			return cats;
+		}
+}
@@ -0,0 +1,172 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import java.util.ArrayList;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+
+import com.google.android.maps.GeoPoint;
+import com.google.android.maps.MapView;
+import com.google.android.maps.Overlay;
+import com.google.android.maps.Projection;
+
+/*
+ * All the hill markers on the map in one overlay, grouped by MarkerClusters for the zoom level.
+ * Only the markers on screen are drawn, and whoever's listening is told when that's changed.
+ * Tapping a single hill shows its name, tapping a group zooms in on it.
+ */
+public class HillMarkersOverlay extends Overlay {
+
+	// told from draw, every time it's drawn somewhere new
+	public interface ViewportListener {
+		void ViewportMoved();
+	}
+
+	private final MarkerClusters mClusters = new MarkerClusters();
+	private final Context mContext;
+	private final Drawable mMarker;
+	private final int mMarkerWidth, mMarkerHeight;
+
+	// made from mClusters' list when it changes, so drawing doesn't allocate
+	private ArrayList<MarkerClusters.Cluster> mShown;
+	private final ArrayList<GeoPoint> mPoints = new ArrayList<GeoPoint>();
+	private final ArrayList<String> mLabels = new ArrayList<String>();
+	private final Point mPt = new Point();
+
+	private ViewportListener mListener;
+	private int mLastZoom = -1;
+	private int mLastLatE6, mLastLonE6, mLastLatSpan, mLastLonSpan;
+
+	Paint strokePaint = new Paint();
+	Paint textPaint = new Paint();
+
+	public HillMarkersOverlay(Drawable marker, Context context) {
+		mContext = context;
+		mMarker = marker;
+		mMarkerWidth = marker.getIntrinsicWidth();
+		mMarkerHeight = marker.getIntrinsicHeight();
+		// centre bottom on the hill
+		marker.setBounds(-mMarkerWidth / 2, -mMarkerHeight, mMarkerWidth - mMarkerWidth / 2, 0);
+
+	    textPaint.setARGB(255, 255, 255, 255);
+	    textPaint.setTextAlign(Paint.Align.CENTER);
+	    textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+	    strokePaint.setARGB(255, 0, 0, 0);
+	    strokePaint.setTextAlign(Paint.Align.CENTER);
+	    strokePaint.setTypeface(Typeface.DEFAULT_BOLD);
+	    strokePaint.setStyle(Paint.Style.STROKE);
+	    strokePaint.setStrokeWidth(4);
+
+	    textPaint.setTextSize(25);
+	    strokePaint.setTextSize(25);
+	}
+
+	public MarkerClusters GetClusters() {
+		return mClusters;
+	}
+
+	public void SetViewportListener(ViewportListener l) {
+		mListener = l;
+	}
+
+	// a fling or a zoom animation comes through here every frame until it stops
+	private void CheckViewport(MapView mapView) {
+		int zoom = mapView.getZoomLevel();
+		GeoPoint c = mapView.getMapCenter();
+		int latSpan = mapView.getLatitudeSpan();
+		int lonSpan = mapView.getLongitudeSpan();
+		if (zoom == mLastZoom && c.getLatitudeE6() == mLastLatE6 && c.getLongitudeE6() == mLastLonE6 &&
+				latSpan == mLastLatSpan && lonSpan == mLastLonSpan) return;
+		mLastZoom = zoom;
+		mLastLatE6 = c.getLatitudeE6();
+		mLastLonE6 = c.getLongitudeE6();
+		mLastLatSpan = latSpan;
+		mLastLonSpan = lonSpan;
+		if (mListener != null) mListener.ViewportMoved();
+	}
+
+	private void Refresh(int zoom) {
+		ArrayList<MarkerClusters.Cluster> shown = mClusters.Clusters(zoom);
+		if (shown == mShown) return;
+		mShown = shown;
+		mPoints.clear();
+		mLabels.clear();
+		for (int i = 0; i < shown.size(); i++) {
+			MarkerClusters.Cluster c = shown.get(i);
+			mPoints.add(new GeoPoint(c.latE6, c.lonE6));
+			mLabels.add(c.count > 1 ? c.top.hillname + " +" + (c.count - 1) : c.top.hillname);
+		}
+	}
+
+	@Override
+	public void draw(Canvas canvas, MapView mapView, boolean shadow) {
+		if (shadow) return;
+		CheckViewport(mapView);
+		Refresh(mapView.getZoomLevel());
+		Projection proj = mapView.getProjection();
+		int w = mapView.getWidth();
+		int h = mapView.getHeight();
+		for (int i = 0; i < mPoints.size(); i++) {
+			proj.toPixels(mPoints.get(i), mPt);
+			// a label's about four markers wide
+			if (mPt.x < -2 * mMarkerWidth || mPt.x > w + 2 * mMarkerWidth || mPt.y < 0 || mPt.y > h + mMarkerHeight) continue;
+			drawAt(canvas, mMarker, mPt.x, mPt.y, false);
+
+			//show text below the icon
+			String label = mLabels.get(i);
+			canvas.drawText(label, mPt.x, mPt.y + 20, strokePaint);
+			canvas.drawText(label, mPt.x, mPt.y + 20, textPaint);
+		}
+	}
+
+	@Override
+	public boolean onTap(GeoPoint p, MapView mapView) {
+		if (mShown == null) return false;
+		Projection proj = mapView.getProjection();
+		Point tap = proj.toPixels(p, null);
+		int hit = -1;
+		for (int i = 0; i < mPoints.size(); i++) {
+			proj.toPixels(mPoints.get(i), mPt);
+			if (Math.abs(tap.x - mPt.x) <= mMarkerWidth / 2 && tap.y <= mPt.y && tap.y >= mPt.y - mMarkerHeight) hit = i; // the last drawn is on top
+		}
+		if (hit < 0) return false;
+
+		MarkerClusters.Cluster c = mShown.get(hit);
+		if (c.count > 1) {
+			proj.toPixels(mPoints.get(hit), mPt);
+			mapView.getController().zoomInFixing(mPt.x, mPt.y);
+		} else {
+			AlertDialog.Builder dialog = new AlertDialog.Builder(mContext);
+			dialog.setTitle(c.top.hillname);
+			dialog.setMessage(c.top.hillname);
+			dialog.show();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Find a hill by name. The name index is built in the background the first time this is opened
+ * and then kept for the life of the process. Searches run on a thread of their own as the text
+ * changes, and only the latest one's results are shown. Each result shows the bearing and distance from the
+ * location passed in by ShowMeHillsActivity; tapping one opens HillInfo.
+ */
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.showmehills.R;
+
+import android.app.ListActivity;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.View;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+public class HillSearch extends ListActivity {
+
+	private static final int MAX_RESULTS = 30;
+
+	private HillDatabase myDbHelper;
+	private ArrayAdapter<String> mAdapter;
+	private ArrayList<Hills> mResults = new ArrayList<Hills>();
+	private EditText mSearchText;
+	private TextView mStatus;
+
+	private boolean hasLocation = false;
+	private double curLatitude;
+	private double curLongitude;
+	private double curAltitude;
+	private boolean typeunits = true;
+
+	private final Handler mHandler = new Handler();
+	private final ExecutorService mSearcher = Executors.newSingleThreadExecutor();
+	// only the latest search's results are shown
+	private volatile int mSearchRequest = 0;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		setContentView(R.layout.hillsearch);
+
+		Bundle b = getIntent().getExtras();
+		if (b != null && b.containsKey("latitude"))
+		{
+			hasLocation = true;
+			curLatitude = b.getDouble("latitude");
+			curLongitude = b.getDouble("longitude");
+			curAltitude = b.getDouble("altitude");
+		}
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+		typeunits = prefs.getString("distunits", "metric").equalsIgnoreCase("metric");
+
+		mStatus = (TextView) findViewById(R.id.searchstatus);
+		mSearchText = (EditText) findViewById(R.id.searchtext);
+		mAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_list_item_1);
+		setListAdapter(mAdapter);
+
+		mSearchText.addTextChangedListener(new TextWatcher() {
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+			public void onTextChanged(CharSequence s, int start, int before, int count) {}
+			public void afterTextChanged(Editable s) {
+				UpdateResults();
+			}
+		});
+
+		if (HillSearchIndex.Get() == null)
+		{
+			mStatus.setText("Loading hill names...");
+			myDbHelper = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath));
+			new Thread(new Runnable() {
+				public void run() {
+					long start = System.currentTimeMillis();
+					HillSearchIndex index = myDbHelper.BuildSearchIndex();
+					myDbHelper.close();
+					Log.d("showmehills", "search index took " + (System.currentTimeMillis() - start) + "ms");
+					if (index == null) return;
+					HillSearchIndex.Set(index);
+					runOnUiThread(new Runnable() {
+						public void run() {
+							UpdateResults();
+						}
+					});
+				}
+			}).start();
+		}
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		ShowMeApplication.SetCurrentActivity(this);
+	}
+
+	@Override
+	protected void onDestroy() {
+		mSearcher.shutdownNow();
+		super.onDestroy();
+	}
+
+	private void UpdateResults()
+	{
+		final HillSearchIndex index = HillSearchIndex.Get();
+		if (index == null) return;
+
+		final String query = mSearchText.getText().toString();
+		final int request = ++mSearchRequest;
+		mSearcher.execute(new Runnable() {
+			public void run() {
+				// typed on since, so there's a newer search queued
+				if (request != mSearchRequest) return;
+				final ArrayList<Hills> results = index.Search(query, MAX_RESULTS);
+				mHandler.post(new Runnable() {
+					public void run() {
+						if (request != mSearchRequest) return;
+						ShowResults(index, results);
+					}
+				});
+			}
+		});
+	}
+
+	private void ShowResults(HillSearchIndex index, ArrayList<Hills> results)
+	{
+		mResults = results;
+		mAdapter.clear();
+		for (int i = 0; i < mResults.size(); i++)
+		{
+			Hills h = mResults.get(i);
+			String line = h.hillname;
+			if (h.height > 0) line += " " + distanceAsImperialOrMetric(h.height);
+			if (hasLocation)
+			{
+				h.SetDirectionFrom(curLatitude, curLongitude, curAltitude);
+				double multip = (typeunits)?1:0.621371;
+				line += "\n" + Math.floor(10*h.direction)/10 + "\u00B0 " + Math.floor(10*h.distance*multip)/10;
+				line += (typeunits) ? "km" : "miles";
+			}
+			mAdapter.add(line);
+		}
+		mStatus.setText(mResults.size() + " of " + index.size() + " hills");
+	}
+
+	@Override
+	protected void onListItemClick(ListView l, View v, int position, long id) {
+		if (position >= mResults.size()) return;
+		Intent infoActivity = new Intent(getBaseContext(),HillInfo.class);
+		Bundle b = new Bundle();
+		b.putInt("key", mResults.get(position).id);
+		infoActivity.putExtras(b);
+		startActivity(infoActivity);
+	}
+
+	private String distanceAsImperialOrMetric(double distance) {
+		if (typeunits) return (int)distance + "m";
+		else return (int)(distance*3.2808399) + "ft";
+	}
+}
@@ -0,0 +1,166 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+/*
+ * Feeds camera preview frames to a SkylineMatcher and nudges the compass adjustment towards
+ * whatever it finds. Frames come in preallocated buffers (setPreviewCallbackWithBuffer) so the
+ * preview doesn't allocate a new array every frame; a buffer being analysed is simply not handed
+ * back to the camera until the worker has finished with it.
+ *
+ * The work is kept to a budget: at most one frame every MIN_FRAME_INTERVAL_MS is looked at, and
+ * if a frame takes longer than FRAME_BUDGET_MS to analyse the next ones are sampled in fewer
+ * columns (and more again once it's comfortably quick).
+ */
+public class HorizonTracker implements Camera.PreviewCallback {
+
+	private static final int BUFFERS = 3;
+	private static final long MIN_FRAME_INTERVAL_MS = 250;
+	private static final long FRAME_BUDGET_MS = 30;
+	private static final int MIN_COLUMNS = 24;
+	private static final int MAX_COLUMNS = 96;
+
+	// how much of each estimate is applied, so one bad frame can't swing the labels around
+	private static final double GAIN = 0.2;
+
+	private final ShowMeHillsActivity smh;
+	private final SkylineMatcher matcher = new SkylineMatcher();
+	private final float[] edges = new float[MAX_COLUMNS];
+	private int columns = 48;
+
+	private Camera camera;
+	private int width;
+	private int height;
+	private long lastFrameTime = 0;
+
+	// buffers the worker is done with, handed back to the camera on the next frame
+	private final ConcurrentLinkedQueue<byte[]> returned = new ConcurrentLinkedQueue<byte[]>();
+
+	private Thread worker;
+	private byte[] pending;
+	private float[] pendingSkyline;
+	private double pendingHeading;
+	private double pendingPitch;
+
+	public HorizonTracker(ShowMeHillsActivity myapp) {
+		smh = myapp;
+	}
+
+	// call once the preview size is set and before startPreview
+	public void Start(Camera cam) {
+		camera = cam;
+		Camera.Parameters params = cam.getParameters();
+		Camera.Size sz = params.getPreviewSize();
+		width = sz.width;
+		height = sz.height;
+		int bufferSize = width * height * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
+		returned.clear();
+		for (int i = 0; i < BUFFERS; i++) {
+			cam.addCallbackBuffer(new byte[bufferSize]);
+		}
+		cam.setPreviewCallbackWithBuffer(this);
+
+		worker = new Thread(new Runnable() {
+			public void run() {
+				work();
+			}
+		}, "HorizonTracker");
+		worker.setPriority(Thread.MIN_PRIORITY);
+		worker.start();
+	}
+
+	public void Stop() {
+		if (camera != null) camera.setPreviewCallbackWithBuffer(null);
+		camera = null;
+		if (worker != null) worker.interrupt();
+		worker = null;
+	}
+
+	public void onPreviewFrame(byte[] data, Camera cam) {
+		StartupTrace.Mark(StartupTrace.Mark.FirstCameraFrame);
+		byte[] b;
+		while ((b = returned.poll()) != null) cam.addCallbackBuffer(b);
+		if (data == null) return;
+
+		long now = SystemClock.uptimeMillis();
+		float[] skyline = smh.GetSkyline();
+		synchronized (this) {
+			if (pending != null || skyline == null || now - lastFrameTime < MIN_FRAME_INTERVAL_MS) {
+				cam.addCallbackBuffer(data);
+				return;
+			}
+			lastFrameTime = now;
+			// the sensors as they were when this frame was taken
+			pending = data;
+			pendingSkyline = skyline;
+			pendingHeading = smh.GetHeading();
+			pendingPitch = smh.GetPitch();
+			notify();
+		}
+	}
+
+	private void work() {
+		while (!Thread.interrupted()) {
+			byte[] frame;
+			float[] skyline;
+			double heading, pitch;
+			synchronized (this) {
+				while (pending == null) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				frame = pending;
+				skyline = pendingSkyline;
+				heading = pendingHeading;
+				pitch = pendingPitch;
+			}
+
+			long start = SystemClock.uptimeMillis();
+			double offset = Double.NaN;
+			if (matcher.FindEdge(frame, width, height, columns, edges) > 0) {
+				offset = matcher.Match(edges, columns, heading, pitch, smh.hfov, smh.vfov, skyline);
+			}
+			long took = SystemClock.uptimeMillis() - start;
+
+			synchronized (this) {
+				pending = null;
+			}
+			returned.add(frame);
+
+			if (took > FRAME_BUDGET_MS && columns > MIN_COLUMNS) columns = Math.max(MIN_COLUMNS, columns * 3 / 4);
+			else if (took < FRAME_BUDGET_MS / 3 && columns < MAX_COLUMNS) columns = Math.min(MAX_COLUMNS, columns + 4);
+
+			if (!Double.isNaN(offset)) {
+				Log.d("showmehills", "skyline match: compass out by " + offset + " (" + took + "ms, " + columns + " columns)");
+				smh.AdjustCompass(offset * GAIN);
+			}
+		}
+	}
+}
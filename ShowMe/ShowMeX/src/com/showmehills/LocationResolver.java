@@ -37,9 +37,9 @@ public class LocationResolver implements LocationListener
 		this.provider = provider;
 		this.locationMgrImpl = locationMgrImpl;
 	}
+	// stays subscribed - RapidGPSLock decides how often it wants to hear from us
 	public void onLocationChanged(Location location) {
-		lm.removeUpdates(this);
-		locationMgrImpl.locationCallback(provider);
+		locationMgrImpl.locationCallback(provider, location);
 	}
 
 	public void onProviderDisabled(String provider) {
@@ -25,6 +25,7 @@ import android.content.Context;
 import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.drawable.Drawable;
+import com.google.android.maps.GeoPoint;
 import com.google.android.maps.ItemizedOverlay;
 import com.google.android.maps.MapView;
 import com.google.android.maps.OverlayItem;
@@ -74,4 +75,11 @@ public class MapOverlayCompassItem extends ItemizedOverlay<OverlayItem> {
 		populate();
 	}
 
+	// moves the arrow to a new fix
+	public void SetLocation(GeoPoint point) {
+		mOverlays.clear();
+		mOverlays.add(new OverlayItem(point, "me", "me"));
+		populate();
+	}
+
 }
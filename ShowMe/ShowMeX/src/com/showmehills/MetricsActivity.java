@@ -0,0 +1,67 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.showmehills;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/*
+ * Debug screen: everything in the metrics registry, the frame timings, the main thread stalls and
+ * the recent sessions in the perf ring as text, from the menu when the perf HUD is switched on.
+ */
+public class MetricsActivity extends Activity {
+
+	private TextView mText;
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		mText = new TextView(this);
+		mText.setTypeface(Typeface.MONOSPACE);
+		mText.setPadding(10, 10, 10, 10);
+		ScrollView sv = new ScrollView(this);
+		sv.addView(mText);
+		setContentView(sv);
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+
+		FrameTimer ft = FrameTimer.Get();
+		StringBuilder sb = new StringBuilder(Metrics.Get().Dump());
+		sb.append('\n').append(FrameTimer.SummaryHeader()).append('\n');
+		for (FrameTimer.Stage s : FrameTimer.Stage.values())
+		{
+			sb.append(ft.Summary(s)).append('\n');
+		}
+		sb.append("frames ").append(ft.GetFrames()).append(" dropped ").append(ft.GetDropped()).append('\n');
+		String stalls = ShowMeApplication.GetStalls();
+		sb.append("\nmain thread stalls\n").append(stalls.length() > 0 ? stalls : "none\n");
+		String perf = ShowMeApplication.GetPerf();
+		sb.append("\nperf ring\n").append(perf.length() > 0 ? perf : "none\n");
+		mText.setText(sb.toString());
+	}
+}
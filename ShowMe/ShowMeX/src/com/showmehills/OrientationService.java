@@ -0,0 +1,279 @@
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Environment;
+import android.os.Handler;
+import android.util.Log;
+import android.view.WindowManager;
+
+/*
+ * One per process: owns the accelerometer and magnetometer listeners, the OrientationFilter and
+ * the GPS, and passes what they find on to whichever activities are subscribed. The camera view
+ * and the map both subscribe while they're showing, so going from one to the other no longer
+ * starts the compass and the location fix from scratch.
+ *
+ * Everything here runs on the main thread. When the last subscriber goes the sensors and GPS are
+ * kept running for STOP_DELAY_MS, since switching activity pauses one before the next resumes;
+ * the filter and fusion state is kept even after that.
+ *
+ * With "record trace" on, every raw reading and fix is also written to showmehills/traces on the
+ * sd card for TraceReplay.
+ */
+public class OrientationService implements IShowMeHillsActivity, SensorEventListener {
+
+	public interface Subscriber {
+		// the location has moved enough to look up hills again
+		void UpdateMarkers();
+		// new compass/pitch readings
+		void OrientationChanged();
+	}
+
+	private static final long STOP_DELAY_MS = 3000;
+
+	private static OrientationService instance;
+
+	public static OrientationService Get(Context context) {
+		if (instance == null) instance = new OrientationService(context.getApplicationContext());
+		return instance;
+	}
+
+	private final Context context;
+	private final SensorManager mSensorManager;
+	private final Sensor accelerometer;
+	private final Sensor magnetometer;
+	private final RapidGPSLock mGPS;
+	private final Handler handler = new Handler();
+	private final ArrayList<Subscriber> subscribers = new ArrayList<Subscriber>();
+	private boolean running = false;
+	private boolean located = false;
+
+	private final OrientationFilter filter = new OrientationFilter();
+	// degrees added to the compass, set by calibration
+	float compassAdjustment = 0;
+	private boolean deadReckoning = false;
+	private MotionStateDetector.State mMotionState = MotionStateDetector.State.Panning;
+
+	private TraceRecorder trace;
+	private int traceRotation = -1;
+
+	// for the perf ring's sensor rate; sensorSecond is 0 when it starts counting afresh
+	private int sensorEvents = 0;
+	private long sensorSecond = 0;
+
+	private final Runnable stopper = new Runnable() {
+		public void run() {
+			Stop();
+		}
+	};
+
+	private OrientationService(Context c) {
+		context = c;
+		mSensorManager = (SensorManager)c.getSystemService(Context.SENSOR_SERVICE);
+		accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+		magnetometer = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+		mGPS = new RapidGPSLock(this);
+	}
+
+	public void Subscribe(Subscriber s) {
+		if (!subscribers.contains(s)) subscribers.add(s);
+		handler.removeCallbacks(stopper);
+		if (!running) {
+			Log.d("showmehills", "orientation service starting");
+			mGPS.switchOn();
+			running = true;
+		}
+		if (!located) {
+			// (needs the location manager that switchOn sets up)
+			mGPS.findLocation();
+			located = true;
+		}
+		// back to full rate - whoever's subscribing is about to be looked at
+		filter.ResetMotion();
+		mMotionState = filter.GetMotionState();
+		mGPS.SetStationary(false);
+		RegisterSensors(SensorManager.SENSOR_DELAY_GAME);
+	}
+
+	public void Unsubscribe(Subscriber s) {
+		subscribers.remove(s);
+		if (subscribers.isEmpty()) {
+			handler.removeCallbacks(stopper);
+			handler.postDelayed(stopper, STOP_DELAY_MS);
+		}
+	}
+
+	private void Stop() {
+		if (!subscribers.isEmpty() || !running) return;
+		Log.d("showmehills", "orientation service stopping");
+		mSensorManager.unregisterListener(this);
+		mGPS.switchOff();
+		running = false;
+		sensorSecond = 0;
+		SetRecording(false);
+	}
+
+	private void RegisterSensors(int rate) {
+		mSensorManager.unregisterListener(this);
+		mSensorManager.registerListener(this, accelerometer, rate);
+		mSensorManager.registerListener(this, magnetometer, rate);
+	}
+
+	public void SetSmoothing(int window) {
+		filter.SetSmoothing(window);
+	}
+
+	public void SetDeadReckoning(boolean on) {
+		deadReckoning = on;
+	}
+
+	// starts a new trace file, or closes the current one
+	public void SetRecording(boolean on) {
+		if (on == (trace != null)) return;
+		if (on) {
+			File dir = new File(Environment.getExternalStorageDirectory(), "showmehills/traces");
+			File f = new File(dir, "trace-" + System.currentTimeMillis() + ".smht");
+			try {
+				dir.mkdirs();
+				trace = new TraceRecorder(new FileOutputStream(f));
+				traceRotation = -1;
+				Log.d("showmehills", "recording trace to " + f);
+			} catch (IOException e) {
+				Log.e("showmehills", "can't record trace: " + e.getMessage());
+				trace = null;
+			}
+		} else {
+			trace.Close();
+			trace = null;
+		}
+		mGPS.SetTrace(trace);
+	}
+
+	// filtered heading of the camera in degrees, compass adjustment included
+	public double GetDirection() 
+	{ 
+		// Allow for (possibly large) negative direction and/or compass adjustment by adding
+		// two full circles before applying modulus to force a value between 0 and 360.
+		return (filter.GetDirection() + compassAdjustment + 720) % 360;
+	}
+	public int GetVariation() { return filter.GetVariation(); }
+	// filtered camera pitch, radians
+	public double GetElevation() { return filter.GetElevation(); }
+	// unfiltered heading of the top of the phone when it's lying flat, degrees
+	public double GetFlatBearing() { return filter.GetFlatBearing(); }
+
+	// null until there's been any fix at all
+	public Location GetLocation() {
+		return mGPS.getCurrentLocation();
+	}
+
+	public MotionStateDetector.State GetMotionState() {
+		return mMotionState;
+	}
+
+	// how long (ns) the phone has been lying still, 0 if it hasn't
+	public long GetStationaryTime() {
+		return filter.GetStationaryTime();
+	}
+
+	// from RapidGPSLock
+	public void UpdateMarkers() {
+		for (int i = 0; i < subscribers.size(); i++) subscribers.get(i).UpdateMarkers();
+	}
+
+	public LocationManager GetLocationManager() {
+		return (LocationManager)context.getSystemService(Context.LOCATION_SERVICE);
+	}
+
+	private int GetRotation() {
+		WindowManager wm = (WindowManager)context.getSystemService(Context.WINDOW_SERVICE);
+		return wm.getDefaultDisplay().getRotation();
+	}
+
+	public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+	// once a second, the sensor rate and the heap go in the perf ring
+	private void CountForPerfRing() {
+		sensorEvents++;
+		long now = System.nanoTime();
+		if (now - sensorSecond < 1000000000L) return;
+		if (sensorSecond != 0) {
+			PerfRing.Log(PerfRing.Type.SensorRate, (int)(sensorEvents * 1000000000L / (now - sensorSecond)), 0);
+			Runtime rt = Runtime.getRuntime();
+			PerfRing.Log(PerfRing.Type.Memory, (int)((rt.totalMemory() - rt.freeMemory()) / 1024), (int)(rt.maxMemory() / 1024));
+		}
+		sensorEvents = 0;
+		sensorSecond = now;
+	}
+
+	public void onSensorChanged(SensorEvent event) {
+		AllocationStats as = AllocationStats.Get();
+		long allocs = as.Start();
+		int type = event.sensor.getType();
+		int rotation = GetRotation();
+		if (trace != null) {
+			if (rotation != traceRotation) {
+				trace.Rotation(rotation);
+				traceRotation = rotation;
+			}
+			trace.Sensor(type, event.accuracy, event.timestamp, event.values);
+		}
+
+		FrameTimer ft = FrameTimer.Get();
+		long t = ft.Start();
+		boolean ready = filter.AddSample(type, event.accuracy, event.values, event.timestamp, rotation);
+		ft.Stop(FrameTimer.Stage.SensorFuse, t);
+
+		// walk on between fixes, assuming we're going the way the camera points
+		double stride = filter.GetStride();
+		if (stride > 0 && deadReckoning) mGPS.Step(stride, GetDirection());
+
+		MotionStateDetector.State ms = filter.GetMotionState();
+		if (ms != mMotionState) {
+			boolean still = (ms == MotionStateDetector.State.Stationary);
+			boolean wasStill = (mMotionState == MotionStateDetector.State.Stationary);
+			mMotionState = ms;
+			Log.d("showmehills", "motion: " + ms);
+			if (still != wasStill) {
+				RegisterSensors(still ? SensorManager.SENSOR_DELAY_NORMAL : SensorManager.SENSOR_DELAY_GAME);
+				mGPS.SetStationary(still);
+			}
+		}
+
+		as.Stop(AllocationStats.Path.Sensor, allocs);
+		CountForPerfRing();
+
+		if (ready) {
+			for (int i = 0; i < subscribers.size(); i++) subscribers.get(i).OrientationChanged();
+		}
+	}
+}
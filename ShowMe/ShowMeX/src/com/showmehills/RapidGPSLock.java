@@ -26,17 +26,32 @@ import java.util.List;
 import android.location.Location;
 import android.location.LocationManager;
 import android.location.Criteria;
+import android.util.Log;
 
-public class RapidGPSLock {
+/*
+ * Keeps every enabled location provider subscribed for as long as we're switched on. Rather than
+ * asking for every fix (and tearing the subscription down and up again on a timer), the providers
+ * are asked for updates no more often than LocationTracker decides suits how fast we're moving and
+ * how good the fixes are.
+ *
+ * Fixes from all providers go through LocationTracker and its LocationFusion, and what
+ * getCurrentLocation hands out is the fused position. Each is a new Location that is never changed
+ * afterwards, so it's simply swapped in (volatile) and any thread can read it without locking.
+ *
+ * Downstream (UpdateMarkers) only hears about a fix when LocationTracker says it's a significant
+ * change, so each real move is seen once, not once per provider per fix.
+ */
+public class RapidGPSLock implements LocationTracker.Source, LocationTracker.Listener {
 
 	private IShowMeHillsActivity mixContext;
 	private LocationManager mLocationManager;
-	private Location curLoc;
-	private String bestLocationProvider;
-	private Location locationAtLastDownload;	
+	private final LocationTracker tracker = new LocationTracker(this, this);
+	private volatile Location curLoc;
 	private LocationFinderState state;
 	private final LocationObserver lob;
 	private List<LocationResolver> locationResolvers;
+	// every fix we're given goes here too, if a trace is being recorded
+	private volatile TraceRecorder trace;
 
 	public enum LocationFinderState {
 		Active, // Providing Location Information
@@ -65,87 +80,117 @@ public class RapidGPSLock {
 		try {
 			requestBestLocationUpdates();
 			//temporary set the current location, until a good provider is found
-			curLoc = mLocationManager.getLastKnownLocation(mLocationManager.getBestProvider(new Criteria(), true));
+			Location lastKnown = mLocationManager.getLastKnownLocation(mLocationManager.getBestProvider(new Criteria(), true));
+			// (it may be hours old, and will be trusted accordingly)
+			if (lastKnown != null) seed(lastKnown.getProvider(), lastKnown);
 		} catch (Exception ex2) {
 			// ex2.printStackTrace();
-			curLoc = hardFix;
+			seed(hardFix.getProvider(), hardFix);
 		}
 	}
 	
-	public void locationCallback(String provider) 
+	public void locationCallback(String provider, Location l) 
 	{
-		if (mLocationManager == null) return;
-		Location foundLocation = mLocationManager.getLastKnownLocation(provider);
-		if (bestLocationProvider != null) 
-		{
-			Location bestLocation = mLocationManager.getLastKnownLocation(bestLocationProvider);
-			if (bestLocation != null && foundLocation.getAccuracy() < bestLocation.getAccuracy()) 
-			{
-				curLoc = foundLocation;
-				bestLocationProvider = provider;
-				mixContext.UpdateMarkers();
-			}
-		} else 
+		if (mLocationManager == null || l == null) return;
+		long now = System.currentTimeMillis();
+		record(false, provider, l, now);
+		if (tracker.AddFix(provider, l.getLatitude(), l.getLongitude(), l.hasAltitude(), l.getAltitude(),
+				l.getAccuracy(), l.hasSpeed(), l.getSpeed(), l.getTime(), now))
 		{
-			curLoc = foundLocation;
-			bestLocationProvider = provider;
-			mixContext.UpdateMarkers();
+			publish();
 		}
-		setLocationAtLastDownload(curLoc);	
 	}
 	
-	private void requestBestLocationUpdates() 
+	// One walking step from StepDetector, see LocationTracker.Step
+	public void Step(double stride, double heading)
 	{
-		if (mLocationManager == null) return;
-		for(LocationResolver locationResolver: locationResolvers)
-		{
-			mLocationManager.requestLocationUpdates(locationResolver.provider, 0, 0, locationResolver);
-		}
-		/*for (String p : mLocationManager.getAllProviders()) 
-		{
-			if(mLocationManager.isProviderEnabled(p))
-			{				
-				LocationResolver lr = new LocationResolver(mLocationManager, p, this);
-				Log.d("showmehills", "adding resolver (" + p + " "+ lr.hashCode()+")");
-				
-				locationResolvers.add(lr);
-				mLocationManager.requestLocationUpdates(p, 0, 0, lr);
-			}
-		}*/
+		tracker.Step(stride, heading, System.currentTimeMillis());
+		publish();
 	}
 	
-	public void setLocationAtLastDownload(Location locationAtLastDownload) 
+	// Told by the activity when the phone starts or stops lying still, see LocationTracker.SetStationary
+	public void SetStationary(boolean still)
 	{
-		this.locationAtLastDownload = locationAtLastDownload;
+		tracker.SetStationary(still);
 	}
 	
-	public void setPosition(Location location) {
-		synchronized (curLoc) 
+	public void SetTrace(TraceRecorder t)
+	{
+		trace = t;
+	}
+	
+	// from LocationTracker
+	public void SignificantMove(LocationFusion.Snapshot s)
+	{
+		publish();
+		mixContext.UpdateMarkers();
+	}
+	
+	// from LocationTracker
+	public void SetUpdateRate(long minTimeMs, float minDistanceM)
+	{
+		Log.d("showmehills", "location updates every " + minTimeMs + "ms / " + minDistanceM + "m");
+		if (LocationFinderState.Active.equals(state)) requestBestLocationUpdates();
+	}
+	
+	private void seed(String provider, Location l)
+	{
+		long now = System.currentTimeMillis();
+		record(true, provider, l, now);
+		if (tracker.Seed(provider, l.getLatitude(), l.getLongitude(), l.hasAltitude(), l.getAltitude(),
+				l.getAccuracy(), l.hasSpeed(), l.getSpeed(), l.getTime(), now))
 		{
-			curLoc = location;
+			publish();
 		}
-		Location lastLoc = getLocationAtLastDownload();
-		if (lastLoc == null) 
+	}
+	
+	private void record(boolean seed, String provider, Location l, long now)
+	{
+		PerfRing.Log(PerfRing.Type.Location, (int)(l.getAccuracy() * 10), PerfRing.ProviderCode(provider));
+		TraceRecorder t = trace;
+		if (t != null) t.Fix(seed, provider, l.getLatitude(), l.getLongitude(), l.hasAltitude(), l.getAltitude(),
+				l.getAccuracy(), l.hasSpeed(), l.getSpeed(), l.getTime(), now);
+	}
+	
+	// makes a new Location from the latest fused position for getCurrentLocation
+	private void publish()
+	{
+		LocationFusion.Snapshot snap = tracker.GetSnapshot();
+		if (snap == null) return;
+		Location cur = curLoc;
+		if (cur != null && cur.getTime() == snap.time && cur.getLatitude() == snap.latitude &&
+			cur.getLongitude() == snap.longitude && cur.getAccuracy() == snap.accuracy) return;
+		Location fused = new Location(snap.provider);
+		fused.setLatitude(snap.latitude);
+		fused.setLongitude(snap.longitude);
+		if (snap.hasAltitude) fused.setAltitude(snap.altitude);
+		fused.setAccuracy(snap.accuracy);
+		fused.setTime(snap.time);
+		if (tracker.HasSpeed()) fused.setSpeed(tracker.GetSpeed());
+		curLoc = fused;
+	}
+	
+	private void requestBestLocationUpdates() 
+	{
+		if (mLocationManager == null) return;
+		long time = tracker.GetUpdateTime();
+		float distance = tracker.GetUpdateDistance();
+		for(LocationResolver locationResolver: locationResolvers)
 		{
-			setLocationAtLastDownload(location);
+			mLocationManager.removeUpdates(locationResolver);
+			mLocationManager.requestLocationUpdates(locationResolver.provider, time, distance, locationResolver);
 		}
+	}
+	
+	public void setPosition(Location location) {
+		seed(location.getProvider(), location);
 	}	
 	
+	// null until there's been any fix at all
 	public Location getCurrentLocation() {
-		if (curLoc == null) {
-			return null;
-			//throw new RuntimeException("No GPS Found");
-		}
-		synchronized (curLoc) {
-			return curLoc;
-		}
+		return curLoc;
 	}
 	
-	public Location getLocationAtLastDownload() 
-	{
-		return locationAtLastDownload;
-	}
-
 	public void switchOn() {
 		if (!LocationFinderState.Active.equals(state)) {
 			mLocationManager = mixContext.GetLocationManager();
@@ -158,12 +203,17 @@ public class RapidGPSLock {
 					locationResolvers.add(lr);
 				}
 			}
-			state = LocationFinderState.Confused;
+			requestBestLocationUpdates();
+			state = LocationFinderState.Active;
 		}
 	}
 	
 	public void switchOff() {
 		if (mLocationManager != null) {
+			for(LocationResolver locationResolver: locationResolvers)
+			{
+				mLocationManager.removeUpdates(locationResolver);
+			}
 			mLocationManager.removeUpdates(getObserver());
 			state = LocationFinderState.Inactive;
 		}
@@ -176,26 +226,4 @@ public class RapidGPSLock {
 	private synchronized LocationObserver getObserver() {
 		return lob;
 	}
-	public void RenewLocation() {
-		if (mLocationManager == null) return;
-		
-		if(bestLocationProvider != null)
-		{
-			//remove all location updates
-			for(LocationResolver locationResolver: locationResolvers)
-			{
-				mLocationManager.removeUpdates(locationResolver);
-			}
-			
-			mLocationManager.removeUpdates(getObserver());
-			state=LocationFinderState.Confused;
-			requestBestLocationUpdates();
-			
-			state=LocationFinderState.Active;
-		}
-		else
-		{ //no location found
-			
-		}
-	}
 }
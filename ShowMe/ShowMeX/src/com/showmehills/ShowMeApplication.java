@@ -1,16 +1,179 @@
 package com.showmehills;
 
+import android.app.Activity;
 import android.app.Application;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import org.acra.*;
 import org.acra.annotation.*;
 
 
 @ReportsCrashes(formKey = "dGZ5b0dtQl9WRDNBMF9DXzJ3UGNZT2c6MQ") 
 public class ShowMeApplication extends Application {
+
+	// stalls longer than this (ms) on the main thread are recorded; 0 for no watchdog
+	public static final long DEFAULT_STALL_MS = 2000;
+
+	private static StallWatchdog sWatchdog;
+	private static volatile String sActivity = "none";
+	private static boolean sStallReported = false;
+	// from the "reportstalls" preference, off unless asked for
+	private static volatile boolean sReportStalls = false;
+
 	@Override
     public void onCreate() {
-        // The following line triggers the initialization of ACRA
-        ACRA.init(this);
+        StartupTrace.Begin();
         super.onCreate();
+        InitDiagnosticsLater(this);
     }
+
+	/*
+	 * ACRA, the perf ring and the stall watchdog aren't needed to get the camera up, so they're
+	 * started once the main thread first runs out of things to do. A crash before then goes to the
+	 * system's handler rather than a report, and the first frames aren't in the ring.
+	 */
+	public static void InitDiagnosticsLater(final Application app) {
+		Defer(new Runnable() {
+			public void run() {
+				OpenPerfRing(app);
+				// The following line triggers the initialization of ACRA
+				ACRA.init(app);
+				AddMetricsToCrashReports();
+				StartWatchdog(app);
+			}
+		});
+	}
+
+	// for the stall records: which screen was showing
+	public static void SetCurrentActivity(Activity a) {
+		sActivity = a.getClass().getSimpleName();
+	}
+
+	// from the "stallms" preference; the watchdog reads it itself when it starts
+	public static void SetStallThreshold(long ms) {
+		if (sWatchdog != null) sWatchdog.SetThreshold(ms);
+	}
+
+	public static void SetReportStalls(boolean on) {
+		sReportStalls = on;
+	}
+
+	public static long GetStallThreshold(SharedPreferences prefs) {
+		try {
+			return Long.parseLong(prefs.getString("stallms", "" + DEFAULT_STALL_MS));
+		} catch (NumberFormatException e) {
+			return DEFAULT_STALL_MS;
+		}
+	}
+
+	// the stalls seen so far, as text; empty if there's no watchdog
+	public static String GetStalls() {
+		return sWatchdog == null ? "" : sWatchdog.Dump();
+	}
+
+	private static void StartWatchdog(Application app) {
+		sReportStalls = PreferenceManager.getDefaultSharedPreferences(app).getBoolean("reportstalls", false);
+		final Handler handler = new Handler(Looper.getMainLooper());
+		final Thread main = Looper.getMainLooper().getThread();
+		sWatchdog = new StallWatchdog(main, new StallWatchdog.Target() {
+			public void Post(Runnable r) {
+				handler.post(r);
+			}
+
+			public String Describe() {
+				return "activity " + sActivity + "\n" + Metrics.Get().Dump();
+			}
+
+			public void Stalled(StallWatchdog.Stall s) {
+				PerfRing.Log(PerfRing.Type.Stall, (int)Math.min(s.ms, Integer.MAX_VALUE), 0);
+				Log.w("showmehills", "main thread stuck " + s.ms + "ms in " + sActivity + "\n" + s.stack);
+				// otherwise it only goes in a crash report; an ANR never reaches ACRA though, so if
+				// asked to, the first stall of a run is sent as a report of its own
+				if (!sReportStalls || sStallReported) return;
+				sStallReported = true;
+				try {
+					ErrorReporter reporter = ErrorReporter.getInstance();
+					reporter.putCustomData("metrics", Metrics.Get().Dump());
+					reporter.putCustomData("stalls", sWatchdog.Dump());
+					reporter.putCustomData("perf", GetPerf());
+					Exception e = new Exception("main thread stuck over " + sWatchdog.GetThreshold() + "ms in " + sActivity);
+					e.setStackTrace(main.getStackTrace());
+					reporter.handleSilentException(e);
+				} catch (Throwable t) {
+					Log.e("showmehills", "couldn't report stall: " + t.getMessage());
+				}
+			}
+		}, GetStallThreshold(PreferenceManager.getDefaultSharedPreferences(app)));
+		sWatchdog.Start();
+	}
+
+	private static void OpenPerfRing(Application app) {
+		try {
+			PerfRing.Set(PerfRing.Open(new File(app.getFilesDir(), "perf.ring"), PerfRing.DEFAULT_CAPACITY));
+		} catch (IOException e) {
+			Log.e("showmehills", "no perf ring: " + e.getMessage());
+		}
+	}
+
+	// the sessions in the perf ring to go in a report; the older ones only make it longer
+	private static final int PERF_SESSIONS = 3;
+	private static final int PERF_TAIL = 50;
+
+	/*
+	 * What the perf ring says about this run and the couple before it (in case one of those was
+	 * killed), and the last records, as text; empty if there's no ring.
+	 */
+	public static String GetPerf() {
+		PerfRing ring = PerfRing.Get();
+		if (ring == null) return "";
+		try {
+			List<PerfRingReader.Entry> all = PerfRingReader.Read(ring.Snapshot());
+			List<PerfRingReader.Entry> recent = new ArrayList<PerfRingReader.Entry>();
+			for (PerfRingReader.Entry e : all) {
+				if (e.session > ring.GetSession() - PERF_SESSIONS) recent.add(e);
+			}
+			return PerfRingReader.Summary(recent) + "\n" + PerfRingReader.Tail(recent, PERF_TAIL);
+		} catch (IOException e) {
+			return e.getMessage();
+		}
+	}
+
+	// runs r on this (the main) thread the next time it's idle, i.e. after the frames already queued
+	public static void Defer(final Runnable r) {
+		Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+			public boolean queueIdle() {
+				r.run();
+				return false;
+			}
+		});
+	}
+
+	/*
+	 * Puts a dump of the metrics registry, the stalls and the perf ring into the ACRA report as
+	 * custom data. Done at the moment of the crash, by getting in ahead of ACRA's handler, so it
+	 * costs nothing until then and isn't stale. Call after ACRA.init.
+	 */
+	public static void AddMetricsToCrashReports() {
+		final Thread.UncaughtExceptionHandler acra = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			public void uncaughtException(Thread thread, Throwable ex) {
+				try {
+					ErrorReporter.getInstance().putCustomData("metrics", Metrics.Get().Dump());
+					ErrorReporter.getInstance().putCustomData("stalls", GetStalls());
+					ErrorReporter.getInstance().putCustomData("perf", GetPerf());
+				} catch (Throwable t) {
+					// the report matters more than the metrics
+				}
+				if (acra != null) acra.uncaughtException(thread, ex);
+			}
+		});
+	}
 }
@@ -1,939 +1,936 @@
-/*
-    Copyright 2012 Nik Cain nik@showmehills.com
-    
-    This file is part of ShowMeHills.
-
-    ShowMeHills is free software: you can redistribute it and/or modify
-    it under the terms of the GNU General Public License as published by
-    the Free Software Foundation, either version 3 of the License, or
-    (at your option) any later version.
-
-    ShowMeHills is distributed in the hope that it will be useful,
-    but WITHOUT ANY WARRANTY; without even the implied warranty of
-    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
-    GNU General Public License for more details.
-
-    You should have received a copy of the GNU General Public License
-    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
- */
-
-package com.showmehills;
-
-/*
- * Main Activity. Implements a camera preview with an overlay. Listens for orientation changes and 
- * asks HillDatabase for hills that are in view. It then draws HillOverlayItem in the appropriate place.
- * The 'appropriate place' is dependent on two calibration factors - the first gives the field of view 
- * and the second adjusts the compass direction.
- * Tapping on the HillOverlayItem opens the HillInfo activity.
- * 
- * The field of view calibration seemed necessary as the hardware parameters of the phone didn't match 
- * reality. This approach seemed more failsafe for any camera, even though it introduces the element of
- * human error.
- * 
- * The compass adjustment is necessary since the compass on my HTC Desire HD is temperamental to the point
- * of unusable. Even with the adjustment it rarely works well. 
- */
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
-
-import com.google.analytics.tracking.android.EasyTracker;
-import com.showmehills.R;
-
-import android.app.Activity;
-import android.content.Context;
-import android.content.Intent;
-import android.content.SharedPreferences;
-import android.database.SQLException;
-import android.graphics.*;
-import android.hardware.*;
-import android.location.*;
-import android.os.Bundle;
-import android.os.PowerManager;
-import android.preference.PreferenceManager;
-import android.util.Log;
-import android.view.*;
-import android.view.View.OnTouchListener;
-import android.view.ViewGroup.LayoutParams;
-import android.widget.FrameLayout;
-
-public class ShowMeHillsActivity extends Activity implements IShowMeHillsActivity, SensorEventListener, OnTouchListener {
-
-	public float hfov = (float) 50.2;
-	public float vfov = (float) 20.0;
-	private SensorManager mSensorManager;
-	private RapidGPSLock mGPS;
-	private PowerManager.WakeLock wl;
-	Sensor accelerometer;
-	Sensor magnetometer;  
-	float[] mGravity;
-	float[] mGeomagnetic;
-
-	Timer timer;
-	private int GPSretryTime = 60;
-	private int CompassSmoothingWindow = 50;
-	
-	//private Location curLocation;
-	private String acc = "";
-	private boolean badsensor = false;
-	private boolean isCalibrated = false;
-	private double calibrationStep = -1;
-	private float compassAdjustment = 0;
-	private ArrayList<HillMarker> mMarkers = new ArrayList<HillMarker>();
-
-	float mRotationMatrixA[] = new float[9];
-	float mRotationMatrixB[] = new float[9];
-	float mOrientationVector[] = new float[9];
-	float mAzimuthVector[] = new float[4];
-	float mDeclination = 0;
-    private boolean mHasAccurateGravity = false;
-    private boolean mHasAccurateAccelerometer = false;
-
-	public int scrwidth = 10;
-	public int scrheight = 10;
-	private int mMainTextSize = 20;
-	public static CameraPreviewSurface cv;
-	public DrawOnTop mDraw;
-	private HillDatabase myDbHelper;
-	private filteredDirection fd = new filteredDirection();
-	private filteredElevation fe = new filteredElevation();
-	
-	// preferences
-	Float maxdistance = 30f;
-	Float textsize = 25f;
-	boolean showdir = false;
-	boolean showdist = false;
-	boolean typeunits = false; // true for metric, false for imperial
-	boolean showheight = false;
-	boolean showhelp = true;
-	String uniqueID = "nothere";
-	
-	// constants
-	private static final float TEXT_SIZE_DECREMENT = 1;
-	private static final float TEXT_SIZE_MIN = 7;
-	
-	private static final int ALPHA_LABEL_MAX = 255;
-	private static final int ALPHA_LINE_MAX = 205;
-	private static final int ALPHA_DECREMENT = 10;
-	private static final int ALPHA_STROKE_MIN = 200;
-	private static final int ALPHA_LABEL_MIN = 180;
-	private static final int ALPHA_LINE_MIN = 50;
-	
-	public class HillMarker
-	{
-		public HillMarker(int id, Rect loc) { location = loc; hillid=id; }
-		public Rect location;
-		public int hillid;
-	}
-	
-
-	public int GetRotation()
-	{
-		Display display = getWindowManager().getDefaultDisplay(); 
-		int rot = display.getRotation();
-		return rot;
-	}
-
-	private void getPrefs() {
-		// Get the xml/preferences.xml preferences
-		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-		String md = prefs.getString("distance", ""+maxdistance);
-		if (md == "") md = "30.0";
-		maxdistance = Float.parseFloat(md);
-		String ts = prefs.getString("textsize", ""+textsize);
-		if (ts == "") ts = "25.0";
-		textsize = Float.parseFloat(ts);
-
-		showdir = prefs.getBoolean("showdir", false);
-		showdist = prefs.getBoolean("showdist", false);
-		showheight = prefs.getBoolean("showalt", false);
-		typeunits = prefs.getString("distunits", "metric").equalsIgnoreCase("metric");
-		isCalibrated = prefs.getBoolean("isCalibrated", false);
-		hfov = prefs.getFloat("hfov", (float) 50.2);
-		compassAdjustment = prefs.getFloat("compassAdjustment", 0);
-		showhelp = prefs.getBoolean("showhelp", true);
-		CompassSmoothingWindow = Integer.parseInt(prefs.getString("smoothing", "50"));
-		uniqueID = prefs.getString("uniqueID", "nothere"); 
-        if (uniqueID == "nothere")
-        {
-            uniqueID = UUID.randomUUID().toString();
-
-	        SharedPreferences.Editor editor = prefs.edit();
-	        editor.putString("uniqueID", uniqueID);
-	        editor.commit(); 
-
-        }
-	}
-
-	@Override
-	protected void onResume() {
-		Log.d("showmehills", "onResume");
-
-		getPrefs();
-
-		fd = new filteredDirection();
-		fe = new filteredElevation();
-		super.onResume();
-
-		mSensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_GAME);
-		mSensorManager.registerListener(this, magnetometer, SensorManager.SENSOR_DELAY_GAME);	 
-		mGPS.switchOn();
-		wl.acquire();
-		if (timer != null)
-		{
-			timer.cancel();
-			timer = null;
-		}
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new LocationTimerTask(),GPSretryTime* 1000,GPSretryTime* 1000);
-		UpdateMarkers();
-		try {	 
-			myDbHelper.checkDataBase();	 
-		}catch(SQLException sqle){	 
-			throw sqle;	 
-		}
-	}
-
-	@Override
-	protected void onPause() {
-		Log.d("showmehills", "onPause");
-		timer.cancel();
-		timer = null;
-		mGPS.switchOff(); 
-		mSensorManager.unregisterListener(this);
-		wl.release();
-
-		super.onPause();
-		try {	 
-			myDbHelper.close();	 
-		}catch(SQLException sqle){	 
-			throw sqle;	 
-		}
-		
-	}
-	@Override
-	protected void onStop()
-	{
-		try {	 
-			mGPS.switchOff();
-			if (timer != null)
-			{
-				timer.cancel();
-				timer = null;
-			}
-			mSensorManager.unregisterListener(this);
-			//wl.release();
-			myDbHelper.close();	 
-		}catch(SQLException sqle){	 
-			throw sqle;	 
-		}
-		super.onStop();
-
-	    EasyTracker.getInstance().activityStop(this); // Add this method.
-
-	}
-
-	@Override
-	public void onCreate(Bundle savedInstanceState) {  
-
-		super.onCreate(savedInstanceState);
-
-	    EasyTracker.getInstance().activityStart(this); // Add this method.
-
-        requestWindowFeature(Window.FEATURE_NO_TITLE);
-        getWindow().addFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN);
-        
-        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        wl = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK, "My Tag");
-        //wl.acquire();
-        mGPS = new RapidGPSLock(this);
-        mGPS.switchOn();
-        mGPS.findLocation();
-
-		if (timer != null)
-		{
-			timer.cancel();
-			timer = null;
-		}
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new LocationTimerTask(),GPSretryTime* 1000,GPSretryTime* 1000);
-
-		mSensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
-
-		accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-		magnetometer = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-
-		myDbHelper = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath)); 
-		/*try { 
-			myDbHelper.createDataBase(); 
-		} catch (IOException ioe) {	 
-			throw new Error("Unable to create database");	 
-		}*/	 
-	
-		Display display = getWindowManager().getDefaultDisplay(); 
-		scrwidth = display.getWidth();
-		scrheight = display.getHeight();
-
-		cv = new CameraPreviewSurface( this.getApplicationContext(), this);
-		FrameLayout rl = new FrameLayout( this.getApplicationContext());		
-		setContentView(rl);
-		
-		mDraw = new DrawOnTop(this);        
-		addContentView(mDraw, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
-
-		rl.addView(cv);            
-        cv.setOnTouchListener((OnTouchListener) this); 
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-		if (prefs.getBoolean("showhelp", true))
-		{
-			Intent myHelpIntent = new Intent(getBaseContext(), Help.class);
-			startActivityForResult(myHelpIntent, 0);
-		}
-	}
-
-	@Override
-	public boolean onCreateOptionsMenu(Menu menu) {
-		// Inflate menu from XML resource
-		MenuInflater inflater = getMenuInflater();
-		inflater.inflate(R.menu.preferences_menu, menu);
-
-		return super.onCreateOptionsMenu(menu);
-	}
-
-	@Override
-	public boolean onOptionsItemSelected(MenuItem item) {
-		// Handle all of the possible menu actions.
-		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-		SharedPreferences.Editor editor = prefs.edit();
-		if (item.getItemId() == R.id.preferences_menutitem) {
-			Intent settingsActivity = new Intent(getBaseContext(),AppPreferences.class);
-			startActivity(settingsActivity);
-		} else if (item.getItemId() == R.id.mapoverlay) {
-			Location curLocation = mGPS.getCurrentLocation();
-			if (curLocation != null)
-			{
-				myDbHelper.SetDirections(curLocation);
-				editor.putFloat("longitude", (float)curLocation.getLongitude());
-				editor.putFloat("latitude", (float)curLocation.getLatitude());
-				editor.commit();
-			}
-			Intent myIntent = new Intent(getBaseContext(), MapOverlay.class);
-			startActivityForResult(myIntent, 0);
-		} else if (item.getItemId() == R.id.help) {
-			Intent myHelpIntent = new Intent(getBaseContext(), Help.class);
-			startActivityForResult(myHelpIntent, 0);
-		} else if (item.getItemId() == R.id.about) {
-			Intent myAboutIntent = new Intent(getBaseContext(), About.class);
-			startActivityForResult(myAboutIntent, 0);
-		} else if (item.getItemId() == R.id.exit) {
-			finish();
-		} else if (item.getItemId() == R.id.fovcalibrate) {
-			calibrationStep = -1;
-			isCalibrated = false;
-			editor.putBoolean("isCalibrated", false);
-			editor.commit();
-		}
-		return super.onOptionsItemSelected(item);
-	}
-
-	public void UpdateMarkers()
-	{
-		Location curLocation = mGPS.getCurrentLocation();
-		if (curLocation != null)
-		{
-			myDbHelper.SetDirections(curLocation);
-		}
-	}
-	
-	class filteredDirection
-	{
-		double dir;
-		double sinevalues[] = new double[CompassSmoothingWindow];
-		double cosvalues[] = new double[CompassSmoothingWindow];
-		int index = 0;
-		int outlierCount = 0;
-		
-		void AddLatest( double d )
-		{
-			sinevalues[index] = Math.sin(d);
-			cosvalues[index] = Math.cos(d);
-			index++;
-			if (index > CompassSmoothingWindow - 1) index = 0;
-			double sumc = 0; 
-			double sums = 0;
-			for (int a = 0; a < CompassSmoothingWindow; a++) 
-			{
-				sumc += cosvalues[a];
-				sums += sinevalues[a];
-			}
-			dir = Math.atan2(sums/CompassSmoothingWindow,sumc/CompassSmoothingWindow);
-		}
-		
-		double getDirection() 
-		{ 
-			// Allow for (possibly large) negative direction and/or compass adjustment by adding
-			// two full circles before applying modulus to force a value between 0 and 360.
-			return (Math.toDegrees(dir) + compassAdjustment + 720) % 360;
-		}
-
-		int GetVariation()
-		{
-			double Q = 0;
-			double sumc = 0; 
-			double sums = 0;
-			for (int a = 0; a < CompassSmoothingWindow; a++)
-			{
-				sumc += cosvalues[a];
-				sums += sinevalues[a];
-			}
-			double avgc = sumc/CompassSmoothingWindow;
-			double avgs = sums/CompassSmoothingWindow;
-
-			sumc = 0; 
-			sums = 0;
-			for (int a = 0; a < CompassSmoothingWindow; a++)
-			{
-				sumc += Math.pow(cosvalues[a] - avgc, 2);
-				sums += Math.pow(sinevalues[a] - avgs, 2);
-			}
-			Q = (sumc/(CompassSmoothingWindow-1)) + (sums/(CompassSmoothingWindow-1));
-			
-			return (int)(Q*1000);
-		}
-	}
-	
-	class filteredElevation
-	{
-		int AVERAGINGWINDOW = 10;
-		double dir;
-		double sinevalues[] = new double[AVERAGINGWINDOW];
-		double cosvalues[] = new double[AVERAGINGWINDOW];
-		int index = 0;
-		void AddLatest( double d )
-		{
-			sinevalues[index] = Math.sin(d);
-			cosvalues[index] = Math.cos(d);
-			index++;
-			if (index > AVERAGINGWINDOW - 1) index = 0;
-			double sumc = 0; 
-			double sums = 0;
-			for (int a = 0; a < AVERAGINGWINDOW; a++) 
-			{
-				sumc += cosvalues[a];
-				sums += sinevalues[a];
-			}
-			dir = Math.atan2(sums/AVERAGINGWINDOW,sumc/AVERAGINGWINDOW);
-		}
-		double getDirection() { return dir; }
-	}
-
-	class tmpHill {
-		Hills h;
-		double ratio;
-		int toppt;
-	};
-	class DrawOnTop extends View {
-
-		private Paint strokePaint = new Paint();
-		private Paint textPaint = new Paint();
-		private Paint paint = new Paint();
-		private Paint transpRedPaint = new Paint();
-		private Paint variationPaint = new Paint();
-
-		int subwidth;
-		int subheight;
-		int gap;
-		int txtgap;
-		int vtxtgap;
-		RectF fovrect;
-
-		ArrayList<tmpHill> hillsToPlot;
-				
-		public DrawOnTop(Context context) {     
-			super(context);      
-
-			textPaint.setTextAlign(Paint.Align.CENTER);
-			textPaint.setTypeface(Typeface.DEFAULT_BOLD);
-
-			strokePaint.setTextAlign(Paint.Align.CENTER);
-			strokePaint.setTypeface(Typeface.DEFAULT_BOLD);
-			strokePaint.setStyle(Paint.Style.STROKE);
-			strokePaint.setStrokeWidth(2);
-
-			paint.setARGB(255, 255, 255, 255);
-			transpRedPaint.setARGB(100,255,0,0);
-
-			subwidth = (int)(scrwidth*0.7);
-			subheight = (int)(scrheight*0.7);
-			gap = (scrwidth - subwidth) / 2;
-			txtgap = gap+(subwidth/30);
-			vtxtgap = (int)(subheight / 10);
-
-			hillsToPlot = new ArrayList<tmpHill>();
-			fovrect = new RectF(gap,vtxtgap,scrwidth-gap,vtxtgap*11);
-		}
-
-		@Override     
-		protected void onDraw(Canvas canvas) { 
-			if (!isCalibrated)
-			{
-				drawCalibrationInstructions(canvas);
-				return;
-			}
-
-			ArrayList<Hills> localhills = myDbHelper.localhills;
-			
-			int topPt = calculateHillsCanFitOnCanvas((int)(scrheight/1.6), localhills);
-			
-			drawHillLabelLines(canvas, topPt);
-			
-			drawHillLabelText(canvas, topPt);
-
-			drawLocationAndOrientationStatus(canvas);
-			
-			super.onDraw(canvas);     
-		}
-
-		private int calculateHillsCanFitOnCanvas(int topPt, ArrayList<Hills> localhills) {
-			Float drawtextsize = textsize;
-			hillsToPlot.clear();
-			mMarkers.clear();
-			for (int h = 0; h < localhills.size() && topPt > 0; h++)
-			{
-				Hills h1 = localhills.get(h);
-
-				// this is the angle of the peak from our line of sight
-				double offset = fd.getDirection() - h1.direction;
-				double offset2 = fd.getDirection() - (360+h1.direction);
-				double offset3 = 360+fd.getDirection() - (h1.direction);
-				double ratio = 0;
-				// is it in our line of sight
-				boolean inlineofsight=false;
-				if (Math.abs(offset) * 2 < hfov)
-				{
-					ratio = offset / hfov * -1;
-					inlineofsight = true;
-				}
-				if (Math.abs(offset2) * 2 < hfov)
-				{
-					ratio = offset2 / hfov * -1;
-					inlineofsight = true;
-				}
-				if (Math.abs(offset3) * 2 < hfov)
-				{
-					ratio = offset3 / hfov * -1;
-					inlineofsight = true;
-				}
-				if (inlineofsight)
-				{
-					tmpHill th = new tmpHill();
-
-					th.h = h1;
-					th.ratio = ratio;
-					th.toppt = topPt;
-					hillsToPlot.add(th);
-
-					topPt -= (showdir || showdist || showheight && th.h.height > 0)?(1 + drawtextsize*2):drawtextsize;
-					
-					if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
-					{
-						drawtextsize -= TEXT_SIZE_DECREMENT;
-					}
-				}
-			}
-			
-			// Fudge-factor because we don't know exactly how high label text will display until we draw it later.
-			// A tiny font at the top needs to be moved down slightly to avoid being clipped; larger fonts seem OK.
-			topPt -= Math.max(0, 13 - drawtextsize);
-			return topPt;
-		}
-
-		private void drawHillLabelLines(Canvas canvas, int toppt) {
-			int alpha = ALPHA_LINE_MAX;
-			// draw lines first
-			for (int i = 0; i < hillsToPlot.size(); i++)
-			{
-				textPaint.setARGB(alpha, 255, 255, 255);				
-				strokePaint.setARGB(alpha, 0, 0, 0);
-				tmpHill th = hillsToPlot.get(i);
-				double vratio = Math.toDegrees(th.h.visualElevation - fe.getDirection());
-				int yloc = (int)((scrheight * vratio / vfov) + (scrheight/2));
-				int xloc = ((int)(scrwidth * th.ratio) + (scrwidth/2));
-				canvas.drawLine(xloc, yloc, xloc, th.toppt - toppt, strokePaint);
-				canvas.drawLine(xloc, yloc, xloc, th.toppt - toppt, textPaint);
-				canvas.drawLine(xloc-20, th.toppt - toppt, xloc+20, th.toppt - toppt, strokePaint);
-				canvas.drawLine(xloc-20, th.toppt - toppt, xloc+20, th.toppt - toppt, textPaint);
-
-				if (alpha - ALPHA_DECREMENT >= ALPHA_LINE_MIN)
-				{
-					alpha -= ALPHA_DECREMENT;
-				}
-			}
-		}
-
-		private void drawHillLabelText(Canvas canvas, int toppt) {
-			boolean moreinfo;
-			Float drawtextsize = textsize;
-			int alpha = ALPHA_LABEL_MAX;
-			// draw text over top
-			for (int i = 0; i < hillsToPlot.size(); i++)
-			{
-				textPaint.setARGB(alpha, 255, 255, 255);				
-				strokePaint.setARGB(Math.min(alpha, ALPHA_STROKE_MIN), 0, 0, 0);
-
-				textPaint.setTextSize(drawtextsize);
-				strokePaint.setTextSize(drawtextsize);
-				
-				tmpHill th = hillsToPlot.get(i);
-				moreinfo = (showdir || showdist || showheight && th.h.height > 0);
-				int xloc = ((int)(scrwidth * th.ratio) + (scrwidth/2));
-				
-				Rect bnds = new Rect();
-				strokePaint.getTextBounds(th.h.hillname,0,th.h.hillname.length(),bnds);
-				bnds.left += xloc - (textPaint.measureText(th.h.hillname) / 2.0);
-				bnds.right += xloc - (textPaint.measureText(th.h.hillname) / 2.0);
-				bnds.top += th.toppt - 5 - toppt;
-				if (moreinfo) bnds.top -= drawtextsize;
-				bnds.bottom += th.toppt-5 - toppt;
-
-				// draws bounding box of touch region to select hill
-				//canvas.drawRect(bnds, strokePaint);
-				
-				mMarkers.add(new HillMarker(th.h.id, bnds));
-				canvas.drawText(th.h.hillname, xloc, th.toppt - ((moreinfo)?drawtextsize:0) - 5 - toppt, strokePaint);
-				canvas.drawText(th.h.hillname, xloc, th.toppt - ((moreinfo)?drawtextsize:0) - 5 - toppt, textPaint);
-				
-				if (showdir || showdist || showheight) 
-				{
-					boolean hascontents = false;
-					String marker = " (";						
-					if (showdir)
-					{
-						hascontents = true;
-						marker += Math.floor(10*th.h.direction)/10 + "\u00B0";
-					}
-					if (showdist) 
-					{
-						hascontents = true;
-						double multip = (typeunits)?1:0.621371;
-						marker += (showdir ? " " : "") + Math.floor(10*th.h.distance*multip)/10;
-						if (typeunits) marker += "km"; else marker += "miles";
-					}
-					if (showheight) 
-					{
-						if (th.h.height > 0)
-						{
-							hascontents = true;
-							marker += ((showdir || showdist) ? " " : "") + distanceAsImperialOrMetric(th.h.height);
-						}
-					}
-					marker += ")";
-					if (hascontents)
-					{
-						canvas.drawText(marker, xloc, th.toppt-5 - toppt, strokePaint);
-						canvas.drawText(marker, xloc, th.toppt-5 - toppt, textPaint);
-					}
-				}
-
-				if (alpha - ALPHA_DECREMENT >= ALPHA_LABEL_MIN)
-				{
-					alpha -= ALPHA_DECREMENT;
-				}
-
-				if (drawtextsize - TEXT_SIZE_DECREMENT >= TEXT_SIZE_MIN)
-				{
-					drawtextsize -= TEXT_SIZE_DECREMENT;
-				}
-			}
-		}
-
-		private void drawLocationAndOrientationStatus(Canvas canvas) {
-			textPaint.setTextSize(mMainTextSize);
-			strokePaint.setTextSize(mMainTextSize);
-			textPaint.setARGB(255, 255, 255, 255);				
-			strokePaint.setARGB(255, 0, 0, 0);
-			
-			String compadj = (compassAdjustment>=0)?"+":"";
-			compadj += String.format("%.01f", compassAdjustment);
-			
-			String basetext = "" + (int)fd.getDirection() + (char)0x00B0;
-			basetext +=" (adj:"+compadj+")";
-			basetext +=" FOV: "+String.format("%.01f", hfov);
-
-			if (badsensor)
-			{
-				canvas.drawText( "Recalibrate sensor!", 10, 80, paint);	
-			}
-
-			Location curLocation = mGPS.getCurrentLocation();
-			if (curLocation != null)
-			{
-				acc = "+/- " + distanceAsImperialOrMetric(curLocation.getAccuracy());				
-			}
-			else
-			{
-				acc = "?";
-			}
-
-			basetext +=" Location " + acc;
-			canvas.drawText( basetext, scrwidth/2, scrheight-70, strokePaint);
-			canvas.drawText( basetext, scrwidth/2, scrheight-70, textPaint);	
-
-			basetext = "";
-			
-			if (curLocation == null) basetext = "No GPS position yet";
-			else if (curLocation.getAccuracy() > 200) basetext = "Warning - GPS position too inaccurate";
-			
-			if (basetext != "")
-			{
-				canvas.drawText( basetext, scrwidth/2, scrheight/2, strokePaint);
-				canvas.drawText( basetext, scrwidth/2, scrheight/2, textPaint);	
-			}
-			
-			int va = fd.GetVariation();
-			variationPaint.setARGB(255, 255, 0, 0);
-			variationPaint.setStrokeWidth(4);
-			int dashlength = scrheight / 10;
-			for (int i = 0; i < 360; i+=15)
-			{
-				if (i > va) variationPaint.setARGB(255, 0, 255, 0);
-				canvas.drawLine((scrwidth/10)+(dashlength/5*(float)Math.sin( Math.toRadians(i))),  
-								scrheight-(scrheight/5)-(dashlength/5*(float)Math.cos( Math.toRadians(i))),  
-								(scrwidth/10)+(dashlength*(float)Math.sin( Math.toRadians(i))), 
-								scrheight-(scrheight/5)-(dashlength*(float)Math.cos( Math.toRadians(i))), 
-								variationPaint);
-			}
-		}
-
-		private void drawCalibrationInstructions(Canvas canvas) {
-			// adjust text to fit any screen - lol, so hacky :-D
-			boolean happyWithSize = false;
-			do
-			{
-				textPaint.setTextSize(mMainTextSize);
-				float sz = textPaint.measureText("screen, wait for stabilisation, and tap again.");
-				if (sz > scrwidth*0.7 )
-				{
-					mMainTextSize--;
-				}
-				else if (sz < scrwidth*0.6)
-				{
-					mMainTextSize++;
-				}
-				else
-				{
-					happyWithSize = true;
-				}
-			} while (!happyWithSize);
-			
-			textPaint.setTextAlign(Paint.Align.LEFT);
-			textPaint.setARGB(255, 255, 255, 255);				
-			paint.setARGB(100, 0, 0, 0);
-
-			// left, top, right, bottom
-			canvas.drawRoundRect(fovrect, 50,50,paint);
-			canvas.drawText( "To calibrate, view an object at the very", txtgap, vtxtgap*3, textPaint);
-			canvas.drawText( "left edge of the screen, and wait for", txtgap, vtxtgap*4, textPaint);
-			canvas.drawText( "the direction sensor to stabilise. Then", txtgap, vtxtgap*5, textPaint);
-			canvas.drawText( "tap the screen (gently, so you don't move", txtgap, vtxtgap*6, textPaint);
-			canvas.drawText( "the view!). Then turn around until the ", txtgap, vtxtgap*7, textPaint);
-			canvas.drawText( "object is at the very right edge of the ", txtgap, vtxtgap*8, textPaint);
-			canvas.drawText( "screen, wait for stabilisation, and tap again.", txtgap, vtxtgap*9, textPaint);
-			
-			canvas.drawText( "Dir: " + (int)fd.getDirection() + (char)0x00B0 + " SD: "+fd.GetVariation(), scrwidth/2, scrheight-(vtxtgap*2), textPaint);
-
-			textPaint.setTextAlign(Paint.Align.CENTER);
-			if (calibrationStep == -1)
-			{
-				canvas.drawRect(0,0, 10, scrheight, transpRedPaint);
-			}
-			else
-			{
-				canvas.drawRect(scrwidth-10,0, scrwidth, scrheight, transpRedPaint);
-			}
-			int va = fd.GetVariation();
-			variationPaint.setARGB(255, 255, 0, 0);
-			variationPaint.setStrokeWidth(4);
-			int dashlength = scrheight / 10;
-			for (int i = 0; i < 360; i+=15)
-			{
-				if (i > va) variationPaint.setARGB(255, 0, 255, 0);
-				canvas.drawLine((scrwidth/10)+(dashlength/5*(float)Math.sin( Math.toRadians(i))),  
-								scrheight-(scrheight/5)-(dashlength/5*(float)Math.cos( Math.toRadians(i))),  
-								(scrwidth/10)+(dashlength*(float)Math.sin( Math.toRadians(i))), 
-								scrheight-(scrheight/5)-(dashlength*(float)Math.cos( Math.toRadians(i))), 
-								variationPaint);
-			}
-		}    
-	}
-
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-	
-	public void onSensorChanged(SensorEvent event) {		
-		// some phones never set the sensormanager as reliable, even when readings are ok
-		// That means if we try to block it, those phones will never get a compass reading.
-		// So we let any readings through until we know we can get accurate readings. Once We know that 
-		// we'll block the inaccurate ones
-		if (event.accuracy == SensorManager.SENSOR_STATUS_UNRELIABLE) {
-			if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER && mHasAccurateAccelerometer) return;
-			if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD && mHasAccurateGravity) return;
-		}
-		else
-		{
-			if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) mHasAccurateAccelerometer = true;
-			if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) mHasAccurateGravity = true;
-		}
-
-
-		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER)  mGravity = event.values;
-		if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) mGeomagnetic = event.values;
-
-		if (mGravity != null && mGeomagnetic != null) {
-
-			float[] rotationMatrixA = mRotationMatrixA;
-			if (SensorManager.getRotationMatrix(rotationMatrixA, null, mGravity, mGeomagnetic)) {
-				Matrix tmpA = new Matrix();
-				tmpA.setValues(rotationMatrixA);
-				tmpA.postRotate( -mDeclination );
-				tmpA.getValues(rotationMatrixA);
-				
-				float[] rotationMatrixB = mRotationMatrixB;
-
-				switch (GetRotation())
-				{
-				// portrait - normal
-				case Surface.ROTATION_0: SensorManager.remapCoordinateSystem(rotationMatrixA,
-						SensorManager.AXIS_X, SensorManager.AXIS_Z,
-						rotationMatrixB);
-				break;
-				// rotated left (landscape)
-				case Surface.ROTATION_90: SensorManager.remapCoordinateSystem(rotationMatrixA,
-						//SensorManager.AXIS_Z, SensorManager.AXIS_MINUS_X,
-						SensorManager.AXIS_X, SensorManager.AXIS_Z,
-						rotationMatrixB);
-				break;
-				// upside down
-				case Surface.ROTATION_180: SensorManager.remapCoordinateSystem(rotationMatrixA,
-						SensorManager.AXIS_X, SensorManager.AXIS_Z,
-						rotationMatrixB); 
-				break;
-				// rotated right (landscape)
-				case Surface.ROTATION_270: SensorManager.remapCoordinateSystem(rotationMatrixA,
-						SensorManager.AXIS_MINUS_Z, SensorManager.AXIS_X,
-						rotationMatrixB); 
-				break;
-
-				default:  break;
-				}
-
-				float[] dv = new float[3]; 
-				SensorManager.getOrientation(rotationMatrixB, dv);
-				
-				fd.AddLatest(dv[0]); 
-				fe.AddLatest((double)dv[1]);
-			}
-			mDraw.invalidate();		
-		}
-	}
-
-	public boolean onTouch(View v, MotionEvent event) {
-		if (!isCalibrated)
-		{
-			if (calibrationStep == -1)
-			{
-				calibrationStep = fd.getDirection();
-
-				Log.d("showmehills", "1st cal pt="+calibrationStep);
-			}
-			else
-			{
-				double curdir = fd.getDirection();
-				if (calibrationStep - curdir < 0) calibrationStep += 360;
-				hfov = (float)(calibrationStep - curdir);
-				Log.d("showmehills", "2nd cal pt="+curdir);
-				Log.d("showmehills", "Setting hfov calibration="+hfov);
-				isCalibrated = true;
-				calibrationStep = 0;
-				SharedPreferences customSharedPreference = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-		        SharedPreferences.Editor editor = customSharedPreference.edit();
-		        editor.putFloat("hfov", hfov);
-		        editor.putBoolean("isCalibrated", true);
-		        editor.commit(); 		        
-			}
-			return false;
-		}
-		Iterator<HillMarker> itr = mMarkers.iterator();
-	    while (itr.hasNext()) {
-	    	HillMarker m = itr.next();
-	    	if (m.location.contains((int)event.getX(), (int)event.getY()))
-			{
-	    		Intent infoActivity = new Intent(getBaseContext(),HillInfo.class);
-	    		Bundle b = new Bundle();
-
-	    		b.putInt("key", m.hillid);
-
-	    		infoActivity.putExtras(b);
-				startActivity(infoActivity);
-			}
-		}
-
-		return false;
-	}
-	
-	@Override
-    public boolean onKeyDown(int keyCode, KeyEvent event) {
-		super.onKeyDown(keyCode, event);
-        switch(keyCode)
-        {
-        case KeyEvent.KEYCODE_VOLUME_UP:
-        	compassAdjustment+=0.1;
-            return true;
-        case KeyEvent.KEYCODE_VOLUME_DOWN:
-        	compassAdjustment-=0.1;
-            return true;
-        }
-
-        return super.onKeyDown(keyCode, event);
-    }
-	
-	@Override
-	public boolean onKeyUp(int keyCode, KeyEvent event) {
-		if (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN  )
-		{
-			SharedPreferences customSharedPreference = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
-	        SharedPreferences.Editor editor = customSharedPreference.edit();
-	        editor.putFloat("compassAdjustment", compassAdjustment);
-	        editor.commit();
-	      return true;
-		}
-	   return super.onKeyUp(keyCode, event);
-	   }
-
-	class LocationTimerTask extends TimerTask 
-	{
-		@Override
-		public void run() 
-		{
-			Log.d("showmehills", "renew GPS search");
-			runOnUiThread(new Runnable() {
-				  public void run() {
-					  mGPS.RenewLocation();
-				  }
-			});
-		}
-	}
-
-
-	public LocationManager GetLocationManager() {
-		return (LocationManager)getSystemService(Context.LOCATION_SERVICE);
-	}
-
-	private String distanceAsImperialOrMetric(double distance) {
-		if (typeunits) return (int)distance + "m";
-		else return (int)(distance*3.2808399) + "ft";
-	}
-}
-
-
+/*
+    Copyright 2012 Nik Cain nik@showmehills.com
+    
+    This file is part of ShowMeHills.
+
+    ShowMeHills is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    ShowMeHills is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with ShowMeHills.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.showmehills;
+
+/*
+ * Main Activity. Implements a camera preview with an overlay. Listens for orientation changes and 
+ * asks HillDatabase for hills that are in view. It then draws HillOverlayItem in the appropriate place.
+ * The 'appropriate place' is dependent on two calibration factors - the first gives the field of view 
+ * and the second adjusts the compass direction.
+ * Tapping on the HillOverlayItem opens the HillInfo activity.
+ * 
+ * The field of view calibration seemed necessary as the hardware parameters of the phone didn't match 
+ * reality. This approach seemed more failsafe for any camera, even though it introduces the element of
+ * human error.
+ * 
+ * The compass adjustment is necessary since the compass on my HTC Desire HD is temperamental to the point
+ * of unusable. Even with the adjustment it rarely works well. 
+ */
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.UUID;
+
+import com.google.analytics.tracking.android.EasyTracker;
+import com.showmehills.R;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.SQLException;
+import android.graphics.*;
+import android.hardware.*;
+import android.location.*;
+import android.os.Bundle;
+import android.os.Environment;
+import android.os.PowerManager;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.*;
+import android.view.View.OnTouchListener;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.FrameLayout;
+
+public class ShowMeHillsActivity extends Activity implements OrientationService.Subscriber, OnTouchListener {
+
+	public float hfov = (float) 50.2;
+	public float vfov = (float) 20.0;
+	private OrientationService mOrientation;
+	private PowerManager.WakeLock wl;
+
+	private int CompassSmoothingWindow = 50;
+	
+	//private Location curLocation;
+	private boolean badsensor = false;
+	private boolean isCalibrated = false;
+	private double calibrationStep = -1;
+	private ArrayList<HillMarker> mMarkers = new ArrayList<HillMarker>();
+	// markers from earlier frames, to be used again
+	private ArrayList<HillMarker> mMarkerPool = new ArrayList<HillMarker>();
+
+
+	public int scrwidth = 10;
+	public int scrheight = 10;
+	private int mMainTextSize = 20;
+	public static CameraPreviewSurface cv;
+	public DrawOnTop mDraw;
+	private HillDatabase myDbHelper;
+	
+	// preferences
+	Float maxdistance = 30f;
+	Float textsize = 25f;
+	boolean showdir = false;
+	boolean showdist = false;
+	boolean typeunits = false; // true for metric, false for imperial
+	boolean showheight = false;
+	boolean showhelp = true;
+	boolean hideoccluded = false;
+	boolean showskyline = true;
+	boolean autocompass = false;
+	boolean deadreckoning = false;
+	boolean perfhud = false;
+	boolean allocstats = false;
+	
+	// analytics start once the camera and labels are up; see startTracking
+	private boolean mStarted = false;
+	private boolean mTracking = false;
+	
+	// still this long (ns) and nobody's looking - let the screen go off as it normally would
+	private static final long WAKE_LOCK_RELEASE_NS = 60000000000L;
+	String uniqueID = "nothere";
+	
+	// constants
+	private static final int ALPHA_LABEL_MAX = 255;
+	private static final int ALPHA_LINE_MAX = 205;
+	private static final int ALPHA_DECREMENT = 10;
+	private static final int ALPHA_STROKE_MIN = 200;
+	private static final int ALPHA_LABEL_MIN = 180;
+	private static final int ALPHA_LINE_MIN = 50;
+	private static final int ALPHA_OCCLUDED = 90;
+	
+	public class HillMarker
+	{
+		public HillMarker() { location = new Rect(); }
+		public final Rect location;
+		public int hillid;
+	}
+	
+
+	public int GetRotation()
+	{
+		Display display = getWindowManager().getDefaultDisplay(); 
+		int rot = display.getRotation();
+		return rot;
+	}
+
+	private void getPrefs() {
+		// Get the xml/preferences.xml preferences
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+		String md = prefs.getString("distance", ""+maxdistance);
+		if (md == "") md = "30.0";
+		maxdistance = Float.parseFloat(md);
+		String ts = prefs.getString("textsize", ""+textsize);
+		if (ts == "") ts = "25.0";
+		textsize = Float.parseFloat(ts);
+
+		showdir = prefs.getBoolean("showdir", false);
+		showdist = prefs.getBoolean("showdist", false);
+		showheight = prefs.getBoolean("showalt", false);
+		typeunits = prefs.getString("distunits", "metric").equalsIgnoreCase("metric");
+		isCalibrated = prefs.getBoolean("isCalibrated", false);
+		hfov = prefs.getFloat("hfov", (float) 50.2);
+		mOrientation.compassAdjustment = prefs.getFloat("compassAdjustment", 0);
+		showhelp = prefs.getBoolean("showhelp", true);
+		hideoccluded = prefs.getBoolean("hideoccluded", false);
+		showskyline = prefs.getBoolean("showskyline", true);
+		autocompass = prefs.getBoolean("autocompass", false);
+		deadreckoning = prefs.getBoolean("deadreckoning", false);
+		perfhud = prefs.getBoolean("perfhud", false);
+		FrameTimer.Get().SetEnabled(perfhud);
+		Metrics.Get().SetEnabled(perfhud);
+		allocstats = prefs.getBoolean("allocstats", false);
+		AllocationStats.Get().SetEnabled(allocstats);
+		ShowMeApplication.SetStallThreshold(ShowMeApplication.GetStallThreshold(prefs));
+		ShowMeApplication.SetReportStalls(prefs.getBoolean("reportstalls", false));
+		CompassSmoothingWindow = Integer.parseInt(prefs.getString("smoothing", "50"));
+		mOrientation.SetSmoothing(CompassSmoothingWindow);
+		mOrientation.SetDeadReckoning(deadreckoning);
+		mOrientation.SetRecording(prefs.getBoolean("recordtrace", false));
+		uniqueID = prefs.getString("uniqueID", "nothere"); 
+        if (uniqueID == "nothere")
+        {
+            uniqueID = UUID.randomUUID().toString();
+
+	        SharedPreferences.Editor editor = prefs.edit();
+	        editor.putString("uniqueID", uniqueID);
+	        editor.commit(); 
+
+        }
+	}
+
+	@Override
+	protected void onResume() {
+		Log.d("showmehills", "onResume");
+		ShowMeApplication.SetCurrentActivity(this);
+
+		getPrefs();
+
+		super.onResume();
+
+		mOrientation.Subscribe(this);
+		wl.acquire();
+		HillDatabase.LookForElevationTiles();
+		UpdateMarkers();
+		// (reopens it after onPause; on first run the background open does that)
+		if (!myDbHelper.IsOpening())
+		{
+			try {	 
+				myDbHelper.checkDataBase();	 
+			}catch(SQLException sqle){	 
+				throw sqle;	 
+			}
+		}
+	}
+
+	@Override
+	protected void onPause() {
+		Log.d("showmehills", "onPause");
+		mOrientation.Unsubscribe(this);
+		if (wl.isHeld()) wl.release();
+		if (perfhud) exportFrameTimings();
+
+		super.onPause();
+		try {	 
+			myDbHelper.close();	 
+		}catch(SQLException sqle){	 
+			throw sqle;	 
+		}
+		
+	}
+	@Override
+	protected void onStart()
+	{
+		super.onStart();
+		mStarted = true;
+		ShowMeApplication.Defer(startTracking);
+	}
+
+	@Override
+	protected void onStop()
+	{
+		try {	 
+			//wl.release();
+			myDbHelper.close();	 
+		}catch(SQLException sqle){	 
+			throw sqle;	 
+		}
+		super.onStop();
+
+		mStarted = false;
+		if (mTracking)
+		{
+			EasyTracker.getInstance().activityStop(this);
+			mTracking = false;
+		}
+	}
+
+	// deferred from onStart to the first idle moment, unless we've been stopped in the meantime
+	private final Runnable startTracking = new Runnable() {
+		public void run() {
+			if (!mStarted || mTracking) return;
+			EasyTracker.getInstance().activityStart(ShowMeHillsActivity.this);
+			mTracking = true;
+			StartupTrace.Mark(StartupTrace.Mark.Deferred);
+		}
+	};
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {  
+
+		// normally already done by the Application, but not every flavour's Application does
+		StartupTrace.Begin();
+		StartupTrace.Mark(StartupTrace.Mark.ActivityCreate);
+		super.onCreate(savedInstanceState);
+
+        requestWindowFeature(Window.FEATURE_NO_TITLE);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN);
+        
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wl = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK, "My Tag");
+        //wl.acquire();
+        mOrientation = OrientationService.Get(this);
+
+		myDbHelper = new HillDatabase(this, getString(R.string.dbname), getString(R.string.dbpath)); 
+		Runnable updateLater = new Runnable() {
+			public void run() {
+				runOnUiThread(new Runnable() {
+					public void run() {
+						UpdateMarkers();
+					}
+				});
+			}
+		};
+		// the asset copy takes a while on first run; get it going while the camera opens, and
+		// look the hills up as soon as it's done rather than waiting for the next fix
+		myDbHelper.OpenInBackground(updateLater);
+		// likewise once a category filter has something to filter with
+		myDbHelper.SetWhenCategoriesLoaded(updateLater);
+		/*try { 
+			myDbHelper.createDataBase(); 
+		} catch (IOException ioe) {	 
+			throw new Error("Unable to create database");	 
+		}*/	 
+	
+		Display display = getWindowManager().getDefaultDisplay(); 
+		scrwidth = display.getWidth();
+		scrheight = display.getHeight();
+
+		cv = new CameraPreviewSurface( this.getApplicationContext(), this);
+		FrameLayout rl = new FrameLayout( this.getApplicationContext());		
+		setContentView(rl);
+		
+		mDraw = new DrawOnTop(this);        
+		addContentView(mDraw, new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
+
+		rl.addView(cv);            
+		StartupTrace.Mark(StartupTrace.Mark.ContentView);
+        cv.setOnTouchListener((OnTouchListener) this); 
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+		if (prefs.getBoolean("showhelp", true))
+		{
+			Intent myHelpIntent = new Intent(getBaseContext(), Help.class);
+			startActivityForResult(myHelpIntent, 0);
+		}
+	}
+
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		// Inflate menu from XML resource
+		MenuInflater inflater = getMenuInflater();
+		inflater.inflate(R.menu.preferences_menu, menu);
+
+		return super.onCreateOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu) {
+		// the metrics screen goes with the perf HUD (a flavour's own menu might not have it)
+		MenuItem metrics = menu.findItem(R.id.metrics);
+		if (metrics != null) metrics.setVisible(perfhud);
+		return super.onPrepareOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		// Handle all of the possible menu actions.
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+		SharedPreferences.Editor editor = prefs.edit();
+		if (item.getItemId() == R.id.preferences_menutitem) {
+			Intent settingsActivity = new Intent(getBaseContext(),AppPreferences.class);
+			startActivity(settingsActivity);
+		} else if (item.getItemId() == R.id.mapoverlay) {
+			Location curLocation = mOrientation.GetLocation();
+			if (curLocation != null)
+			{
+				myDbHelper.SetDirections(curLocation);
+				editor.putFloat("longitude", (float)curLocation.getLongitude());
+				editor.putFloat("latitude", (float)curLocation.getLatitude());
+				editor.commit();
+			}
+			Intent myIntent = new Intent(getBaseContext(), MapOverlay.class);
+			startActivityForResult(myIntent, 0);
+		} else if (item.getItemId() == R.id.search) {
+			Intent mySearchIntent = new Intent(getBaseContext(), HillSearch.class);
+			Location curLocation = mOrientation.GetLocation();
+			if (curLocation != null)
+			{
+				Bundle b = new Bundle();
+				b.putDouble("latitude", curLocation.getLatitude());
+				b.putDouble("longitude", curLocation.getLongitude());
+				b.putDouble("altitude", myDbHelper.GetObserverAltitude(curLocation));
+				mySearchIntent.putExtras(b);
+			}
+			startActivity(mySearchIntent);
+		} else if (item.getItemId() == R.id.help) {
+			Intent myHelpIntent = new Intent(getBaseContext(), Help.class);
+			startActivityForResult(myHelpIntent, 0);
+		} else if (item.getItemId() == R.id.about) {
+			Intent myAboutIntent = new Intent(getBaseContext(), About.class);
+			startActivityForResult(myAboutIntent, 0);
+		} else if (item.getItemId() == R.id.metrics) {
+			startActivity(new Intent(getBaseContext(), MetricsActivity.class));
+		} else if (item.getItemId() == R.id.exit) {
+			finish();
+		} else if (item.getItemId() == R.id.fovcalibrate) {
+			calibrationStep = -1;
+			isCalibrated = false;
+			editor.putBoolean("isCalibrated", false);
+			editor.commit();
+		}
+		return super.onOptionsItemSelected(item);
+	}
+
+	public void UpdateMarkers()
+	{
+		Location curLocation = mOrientation.GetLocation();
+		if (curLocation != null)
+		{
+			myDbHelper.SetDirections(curLocation);
+		}
+	}
+	
+	// for HorizonTracker, which runs on its own thread
+	public float[] GetSkyline() { return myDbHelper.GetSkyline(mOrientation.GetDirection()); }
+	public double GetHeading() { return mOrientation.GetDirection(); }
+	public double GetPitch() { return mOrientation.GetElevation(); }
+	
+	public void AdjustCompass(final double degrees)
+	{
+		runOnUiThread(new Runnable() {
+			public void run() {
+				mOrientation.compassAdjustment += degrees;
+			}
+		});
+	}
+	
+	class DrawOnTop extends View {
+
+		private Paint strokePaint = new Paint();
+		private Paint textPaint = new Paint();
+		private Paint paint = new Paint();
+		private Paint transpRedPaint = new Paint();
+		private Paint variationPaint = new Paint();
+		private Paint skylinePaint = new Paint();
+		private Paint hudPaint = new Paint();
+		private Paint hudBackPaint = new Paint();
+		
+		// line segments for the skyline, enough for all of it
+		private float[] skylinePts = new float[4 * TerrainOcclusion.BINS];
+		// drawLocationAndOrientationStatus's text, and the chars it's drawn from
+		private final StringBuilder statusText = new StringBuilder(80);
+		private char[] statusChars = new char[80];
+
+		int subwidth;
+		int subheight;
+		int gap;
+		int txtgap;
+		int vtxtgap;
+		RectF fovrect;
+
+		LabelLayout mLayout = new LabelLayout();
+		ArrayList<Hills> onScreenHills = new ArrayList<Hills>();
+				
+		public DrawOnTop(Context context) {     
+			super(context);      
+
+			textPaint.setTextAlign(Paint.Align.CENTER);
+			textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+			strokePaint.setTextAlign(Paint.Align.CENTER);
+			strokePaint.setTypeface(Typeface.DEFAULT_BOLD);
+			strokePaint.setStyle(Paint.Style.STROKE);
+			strokePaint.setStrokeWidth(2);
+
+			paint.setARGB(255, 255, 255, 255);
+			transpRedPaint.setARGB(100,255,0,0);
+			skylinePaint.setARGB(160, 255, 220, 0);
+			skylinePaint.setStrokeWidth(3);
+			hudPaint.setARGB(255, 255, 255, 0);
+			hudPaint.setTypeface(Typeface.MONOSPACE);
+			hudBackPaint.setARGB(160, 0, 0, 0);
+
+			subwidth = (int)(scrwidth*0.7);
+			subheight = (int)(scrheight*0.7);
+			gap = (scrwidth - subwidth) / 2;
+			txtgap = gap+(subwidth/30);
+			vtxtgap = (int)(subheight / 10);
+
+			fovrect = new RectF(gap,vtxtgap,scrwidth-gap,vtxtgap*11);
+		}
+
+		@Override     
+		protected void onDraw(Canvas canvas) { 
+			if (!isCalibrated)
+			{
+				drawCalibrationInstructions(canvas);
+				return;
+			}
+
+			AllocationStats as = AllocationStats.Get();
+			as.StartFrame();
+			long drawStart = System.nanoTime();
+			FrameTimer ft = FrameTimer.Get();
+			long frame = ft.Start();
+			ArrayList<Hills> localhills = myDbHelper.localhills;
+			myDbHelper.CheckOcclusion();
+			
+			int topPt = calculateHillsCanFitOnCanvas((int)(scrheight/1.6), localhills);
+			
+			// so tapping a label can open HillInfo straight from the cache
+			onScreenHills.clear();
+			ArrayList<LabelLayout.Label> labels = mLayout.GetLabels();
+			for (int i = 0; i < labels.size(); i++) onScreenHills.add(labels.get(i).h);
+			myDbHelper.PrefetchDetails(onScreenHills);
+			
+			drawSkyline(canvas);
+			
+			long t = ft.Start();
+			drawHillLabelLines(canvas, topPt);
+			ft.Stop(FrameTimer.Stage.LineDraw, t);
+			
+			t = ft.Start();
+			drawHillLabelText(canvas, topPt);
+			ft.Stop(FrameTimer.Stage.TextDraw, t);
+			if (!labels.isEmpty() && StartupTrace.Mark(StartupTrace.Mark.FirstLabelledFrame))
+			{
+				Log.d("showmehills", StartupTrace.Summary());
+			}
+
+			t = ft.Start();
+			drawLocationAndOrientationStatus(canvas);
+			ft.Stop(FrameTimer.Stage.StatusDraw, t);
+			
+			// the HUD's own strings aren't counted
+			as.StopFrame();
+			if (perfhud || allocstats) drawPerfHud(canvas);
+			
+			super.onDraw(canvas);     
+			ft.Stop(FrameTimer.Stage.Frame, frame);
+			PerfRing.Log(PerfRing.Type.Frame, (int)((System.nanoTime() - drawStart) / 1000), 0);
+		}
+
+		private int calculateHillsCanFitOnCanvas(int topPt, ArrayList<Hills> localhills) {
+			// hfov changes while calibrating, so the layout gets the settings afresh every frame
+			mLayout.hfov = hfov;
+			mLayout.textSize = textsize;
+			mLayout.showdir = showdir;
+			mLayout.showdist = showdist;
+			mLayout.showheight = showheight;
+			mLayout.metric = typeunits;
+			mLayout.hideoccluded = hideoccluded;
+			for (int i = 0; i < mMarkers.size(); i++) mMarkerPool.add(mMarkers.get(i));
+			mMarkers.clear();
+			
+			FrameTimer ft = FrameTimer.Get();
+			long t = ft.Start();
+			mLayout.Filter(localhills, mOrientation.GetDirection());
+			ft.Stop(FrameTimer.Stage.FovFilter, t);
+			
+			t = ft.Start();
+			topPt = mLayout.Stack(topPt);
+			ft.Stop(FrameTimer.Stage.Layout, t);
+			return topPt;
+		}
+
+		// the skyline worked out from the elevation tiles, to line up against the real one
+		private void drawSkyline(Canvas canvas) {
+			if (!showskyline) return;
+			double heading = mOrientation.GetDirection();
+			float[] skyline = myDbHelper.GetSkyline(heading);
+			if (skyline == null) return;
+			
+			// just the slice of the table that's in view
+			int bins = skyline.length;
+			int first = (int)Math.floor((heading - hfov/2) * bins / 360.0);
+			int last = (int)Math.ceil((heading + hfov/2) * bins / 360.0);
+			int n = 0;
+			float px = 0, py = 0;
+			boolean havePrev = false;
+			for (int b = first; b <= last && n + 4 <= skylinePts.length; b++)
+			{
+				float a = skyline[((b % bins) + bins) % bins];
+				if (Float.isNaN(a))
+				{
+					havePrev = false;
+					continue;
+				}
+				float x = (float)((scrwidth * (b * 360.0 / bins - heading) / hfov) + (scrwidth/2));
+				float y = (float)((scrheight * Math.toDegrees(a - mOrientation.GetElevation()) / vfov) + (scrheight/2));
+				if (havePrev)
+				{
+					skylinePts[n++] = px;
+					skylinePts[n++] = py;
+					skylinePts[n++] = x;
+					skylinePts[n++] = y;
+				}
+				px = x;
+				py = y;
+				havePrev = true;
+			}
+			if (n > 0) canvas.drawLines(skylinePts, 0, n, skylinePaint);
+		}
+
+		private void drawHillLabelLines(Canvas canvas, int toppt) {
+			int alpha = ALPHA_LINE_MAX;
+			ArrayList<LabelLayout.Label> labels = mLayout.GetLabels();
+			// draw lines first
+			for (int i = 0; i < labels.size(); i++)
+			{
+				LabelLayout.Label th = labels.get(i);
+				// hills behind nearer ground are dimmed
+				int a = (th.h.occluded) ? Math.min(alpha, ALPHA_OCCLUDED) : alpha;
+				textPaint.setARGB(a, 255, 255, 255);				
+				strokePaint.setARGB(a, 0, 0, 0);
+				double vratio = Math.toDegrees(th.h.visualElevation - mOrientation.GetElevation());
+				int yloc = (int)((scrheight * vratio / vfov) + (scrheight/2));
+				int xloc = ((int)(scrwidth * th.ratio) + (scrwidth/2));
+				canvas.drawLine(xloc, yloc, xloc, th.toppt - toppt, strokePaint);
+				canvas.drawLine(xloc, yloc, xloc, th.toppt - toppt, textPaint);
+				canvas.drawLine(xloc-20, th.toppt - toppt, xloc+20, th.toppt - toppt, strokePaint);
+				canvas.drawLine(xloc-20, th.toppt - toppt, xloc+20, th.toppt - toppt, textPaint);
+
+				if (alpha - ALPHA_DECREMENT >= ALPHA_LINE_MIN)
+				{
+					alpha -= ALPHA_DECREMENT;
+				}
+			}
+		}
+
+		private void drawHillLabelText(Canvas canvas, int toppt) {
+			boolean moreinfo;
+			int alpha = ALPHA_LABEL_MAX;
+			ArrayList<LabelLayout.Label> labels = mLayout.GetLabels();
+			// draw text over top
+			for (int i = 0; i < labels.size(); i++)
+			{
+				LabelLayout.Label th = labels.get(i);
+				float drawtextsize = th.textSize;
+				int a = (th.h.occluded) ? Math.min(alpha, ALPHA_OCCLUDED) : alpha;
+				textPaint.setARGB(a, 255, 255, 255);				
+				strokePaint.setARGB(Math.min(a, ALPHA_STROKE_MIN), 0, 0, 0);
+
+				textPaint.setTextSize(drawtextsize);
+				strokePaint.setTextSize(drawtextsize);
+				
+				moreinfo = mLayout.MoreInfo(th.h);
+				int xloc = ((int)(scrwidth * th.ratio) + (scrwidth/2));
+				
+				HillMarker marker = mMarkerPool.isEmpty() ? new HillMarker() : mMarkerPool.remove(mMarkerPool.size() - 1);
+				marker.hillid = th.h.id;
+				Rect bnds = marker.location;
+				strokePaint.getTextBounds(th.h.hillname,0,th.h.hillname.length(),bnds);
+				bnds.left += xloc - (textPaint.measureText(th.h.hillname) / 2.0);
+				bnds.right += xloc - (textPaint.measureText(th.h.hillname) / 2.0);
+				bnds.top += th.toppt - 5 - toppt;
+				if (moreinfo) bnds.top -= drawtextsize;
+				bnds.bottom += th.toppt-5 - toppt;
+
+				// draws bounding box of touch region to select hill
+				//canvas.drawRect(bnds, strokePaint);
+				
+				mMarkers.add(marker);
+				canvas.drawText(th.h.hillname, xloc, th.toppt - ((moreinfo)?drawtextsize:0) - 5 - toppt, strokePaint);
+				canvas.drawText(th.h.hillname, xloc, th.toppt - ((moreinfo)?drawtextsize:0) - 5 - toppt, textPaint);
+				
+				String details = mLayout.Details(th.h);
+				if (details != null)
+				{
+					canvas.drawText(details, xloc, th.toppt-5 - toppt, strokePaint);
+					canvas.drawText(details, xloc, th.toppt-5 - toppt, textPaint);
+				}
+
+				if (alpha - ALPHA_DECREMENT >= ALPHA_LABEL_MIN)
+				{
+					alpha -= ALPHA_DECREMENT;
+				}
+			}
+		}
+
+		private void drawLocationAndOrientationStatus(Canvas canvas) {
+			textPaint.setTextSize(mMainTextSize);
+			strokePaint.setTextSize(mMainTextSize);
+			textPaint.setARGB(255, 255, 255, 255);				
+			strokePaint.setARGB(255, 0, 0, 0);
+			
+			// built in place every frame, so nothing here makes new strings
+			StringBuilder sb = statusText;
+			sb.setLength(0);
+			LabelLayout.AppendInt(sb, (int)mOrientation.GetDirection()).append((char)0x00B0);
+			sb.append(" (adj:");
+			if (mOrientation.compassAdjustment >= 0) sb.append('+');
+			LabelLayout.AppendTenths(sb, mOrientation.compassAdjustment).append(')');
+			sb.append(" FOV: ");
+			LabelLayout.AppendTenths(sb, hfov);
+
+			if (badsensor)
+			{
+				canvas.drawText( "Recalibrate sensor!", 10, 80, paint);	
+			}
+
+			Location curLocation = mOrientation.GetLocation();
+			sb.append(" Location ");
+			if (curLocation != null)
+			{
+				sb.append("+/- ");
+				LabelLayout.AppendHeight(sb, curLocation.getAccuracy(), typeunits);
+			}
+			else
+			{
+				sb.append('?');
+			}
+
+			int len = sb.length();
+			if (statusChars.length < len) statusChars = new char[len * 2];
+			sb.getChars(0, len, statusChars, 0);
+			canvas.drawText( statusChars, 0, len, scrwidth/2, scrheight-70, strokePaint);
+			canvas.drawText( statusChars, 0, len, scrwidth/2, scrheight-70, textPaint);	
+
+			String basetext = "";
+			
+			if (curLocation == null) basetext = "No GPS position yet";
+			else if (curLocation.getAccuracy() > 200) basetext = "Warning - GPS position too inaccurate";
+			
+			if (basetext != "")
+			{
+				canvas.drawText( basetext, scrwidth/2, scrheight/2, strokePaint);
+				canvas.drawText( basetext, scrwidth/2, scrheight/2, textPaint);	
+			}
+			
+			int va = mOrientation.GetVariation();
+			variationPaint.setARGB(255, 255, 0, 0);
+			variationPaint.setStrokeWidth(4);
+			int dashlength = scrheight / 10;
+			for (int i = 0; i < 360; i+=15)
+			{
+				if (i > va) variationPaint.setARGB(255, 0, 255, 0);
+				canvas.drawLine((scrwidth/10)+(dashlength/5*(float)Math.sin( Math.toRadians(i))),  
+								scrheight-(scrheight/5)-(dashlength/5*(float)Math.cos( Math.toRadians(i))),  
+								(scrwidth/10)+(dashlength*(float)Math.sin( Math.toRadians(i))), 
+								scrheight-(scrheight/5)-(dashlength*(float)Math.cos( Math.toRadians(i))), 
+								variationPaint);
+			}
+		}
+
+		// timings so far, p50/p95/p99 per stage, and/or allocation counts, top left
+		private void drawPerfHud(Canvas canvas) {
+			FrameTimer ft = FrameTimer.Get();
+			FrameTimer.Stage[] stages = FrameTimer.Stage.values();
+			float size = mMainTextSize * 0.7f;
+			hudPaint.setTextSize(size);
+			float x = 10;
+			float y = size * 2;
+			String header = FrameTimer.SummaryHeader();
+			int lines = (perfhud ? stages.length + 6 : 0) + (allocstats ? 4 : 0);
+			canvas.drawRect(0, 0, hudPaint.measureText(header) + 2 * x, y + size * (lines - 0.5f), hudBackPaint);
+			y -= size;
+			if (perfhud)
+			{
+				y += size;
+				canvas.drawText(header, x, y, hudPaint);
+				for (int i = 0; i < stages.length; i++)
+				{
+					y += size;
+					canvas.drawText(ft.Summary(stages[i]), x, y, hudPaint);
+				}
+				y += size;
+				canvas.drawText("frames " + ft.GetFrames() + " dropped " + ft.GetDropped(), x, y, hudPaint);
+
+				// and the hill query, which runs when we move rather than every frame
+				Metrics m = Metrics.Get();
+				y += size;
+				canvas.drawText(Metrics.Summary("Source", GeoEngine.SOURCE_TIME), x, y, hudPaint);
+				y += size;
+				canvas.drawText(Metrics.Summary("Math", GeoEngine.MATH_TIME), x, y, hudPaint);
+				y += size;
+				canvas.drawText(Metrics.Summary("Sort", GeoEngine.SORT_TIME), x, y, hudPaint);
+				y += size;
+				canvas.drawText("rows " + m.Counter("query.last.returned").Get() + " kept " + m.Counter("query.last.kept").Get() +
+						" failed " + m.Counter("query.failures").Get(), x, y, hudPaint);
+			}
+			if (allocstats)
+			{
+				AllocationStats as = AllocationStats.Get();
+				AllocationStats.Path f = AllocationStats.Path.Frame;
+				AllocationStats.Path e = AllocationStats.Path.Sensor;
+				y += size;
+				canvas.drawText("alloc/frame " + as.GetLast(f) + " max " + as.GetMax(f) + " (" + as.GetAllocating(f) + "/" + as.GetCount(f) + ")", x, y, hudPaint);
+				y += size;
+				canvas.drawText("alloc/event " + as.GetLast(e) + " max " + as.GetMax(e) + " (" + as.GetAllocating(e) + "/" + as.GetCount(e) + ")", x, y, hudPaint);
+				y += size;
+				canvas.drawText("alloc " + as.GetAllocsPerSec() + "/s " + as.GetBytesPerSec() / 1024 + "KB/s", x, y, hudPaint);
+				y += size;
+				LatencyHistogram g = as.GetGcFrames();
+				canvas.drawText("gc " + as.GetGcs() + " (" + as.GetGcsPerSec() + "/s) frame p50 " + g.Percentile(0.5) / 1000000 +
+						"ms max " + g.Max() / 1000000 + "ms", x, y, hudPaint);
+			}
+		}
+
+		private void drawCalibrationInstructions(Canvas canvas) {
+			// adjust text to fit any screen - lol, so hacky :-D
+			boolean happyWithSize = false;
+			do
+			{
+				textPaint.setTextSize(mMainTextSize);
+				float sz = textPaint.measureText("screen, wait for stabilisation, and tap again.");
+				if (sz > scrwidth*0.7 )
+				{
+					mMainTextSize--;
+				}
+				else if (sz < scrwidth*0.6)
+				{
+					mMainTextSize++;
+				}
+				else
+				{
+					happyWithSize = true;
+				}
+			} while (!happyWithSize);
+			
+			textPaint.setTextAlign(Paint.Align.LEFT);
+			textPaint.setARGB(255, 255, 255, 255);				
+			paint.setARGB(100, 0, 0, 0);
+
+			// left, top, right, bottom
+			canvas.drawRoundRect(fovrect, 50,50,paint);
+			canvas.drawText( "To calibrate, view an object at the very", txtgap, vtxtgap*3, textPaint);
+			canvas.drawText( "left edge of the screen, and wait for", txtgap, vtxtgap*4, textPaint);
+			canvas.drawText( "the direction sensor to stabilise. Then", txtgap, vtxtgap*5, textPaint);
+			canvas.drawText( "tap the screen (gently, so you don't move", txtgap, vtxtgap*6, textPaint);
+			canvas.drawText( "the view!). Then turn around until the ", txtgap, vtxtgap*7, textPaint);
+			canvas.drawText( "object is at the very right edge of the ", txtgap, vtxtgap*8, textPaint);
+			canvas.drawText( "screen, wait for stabilisation, and tap again.", txtgap, vtxtgap*9, textPaint);
+			
+			canvas.drawText( "Dir: " + (int)mOrientation.GetDirection() + (char)0x00B0 + " SD: "+mOrientation.GetVariation(), scrwidth/2, scrheight-(vtxtgap*2), textPaint);
+
+			textPaint.setTextAlign(Paint.Align.CENTER);
+			if (calibrationStep == -1)
+			{
+				canvas.drawRect(0,0, 10, scrheight, transpRedPaint);
+			}
+			else
+			{
+				canvas.drawRect(scrwidth-10,0, scrwidth, scrheight, transpRedPaint);
+			}
+			int va = mOrientation.GetVariation();
+			variationPaint.setARGB(255, 255, 0, 0);
+			variationPaint.setStrokeWidth(4);
+			int dashlength = scrheight / 10;
+			for (int i = 0; i < 360; i+=15)
+			{
+				if (i > va) variationPaint.setARGB(255, 0, 255, 0);
+				canvas.drawLine((scrwidth/10)+(dashlength/5*(float)Math.sin( Math.toRadians(i))),  
+								scrheight-(scrheight/5)-(dashlength/5*(float)Math.cos( Math.toRadians(i))),  
+								(scrwidth/10)+(dashlength*(float)Math.sin( Math.toRadians(i))), 
+								scrheight-(scrheight/5)-(dashlength*(float)Math.cos( Math.toRadians(i))), 
+								variationPaint);
+			}
+		}    
+	}
+
+	public void OrientationChanged()
+	{
+		if (mOrientation.GetStationaryTime() > WAKE_LOCK_RELEASE_NS)
+		{
+			if (wl.isHeld()) wl.release();
+		}
+		else if (!wl.isHeld()) wl.acquire();
+		mDraw.invalidate();
+	}
+
+	public boolean onTouch(View v, MotionEvent event) {
+		if (!isCalibrated)
+		{
+			if (calibrationStep == -1)
+			{
+				calibrationStep = mOrientation.GetDirection();
+
+				Log.d("showmehills", "1st cal pt="+calibrationStep);
+			}
+			else
+			{
+				double curdir = mOrientation.GetDirection();
+				if (calibrationStep - curdir < 0) calibrationStep += 360;
+				hfov = (float)(calibrationStep - curdir);
+				Log.d("showmehills", "2nd cal pt="+curdir);
+				Log.d("showmehills", "Setting hfov calibration="+hfov);
+				isCalibrated = true;
+				calibrationStep = 0;
+				SharedPreferences customSharedPreference = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+		        SharedPreferences.Editor editor = customSharedPreference.edit();
+		        editor.putFloat("hfov", hfov);
+		        editor.putBoolean("isCalibrated", true);
+		        editor.commit(); 		        
+			}
+			return false;
+		}
+		Iterator<HillMarker> itr = mMarkers.iterator();
+	    while (itr.hasNext()) {
+	    	HillMarker m = itr.next();
+	    	if (m.location.contains((int)event.getX(), (int)event.getY()))
+			{
+	    		Intent infoActivity = new Intent(getBaseContext(),HillInfo.class);
+	    		Bundle b = new Bundle();
+
+	    		b.putInt("key", m.hillid);
+
+	    		infoActivity.putExtras(b);
+				startActivity(infoActivity);
+			}
+		}
+
+		return false;
+	}
+	
+	@Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+		super.onKeyDown(keyCode, event);
+        switch(keyCode)
+        {
+        case KeyEvent.KEYCODE_VOLUME_UP:
+        	mOrientation.compassAdjustment+=0.1;
+            return true;
+        case KeyEvent.KEYCODE_VOLUME_DOWN:
+        	mOrientation.compassAdjustment-=0.1;
+            return true;
+        }
+
+        return super.onKeyDown(keyCode, event);
+    }
+	
+	@Override
+	public boolean onKeyUp(int keyCode, KeyEvent event) {
+		if (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN  )
+		{
+			SharedPreferences customSharedPreference = PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+	        SharedPreferences.Editor editor = customSharedPreference.edit();
+	        editor.putFloat("compassAdjustment", mOrientation.compassAdjustment);
+	        editor.commit();
+	      return true;
+		}
+	   return super.onKeyUp(keyCode, event);
+	   }
+
+	// the timings since the last export, to showmehills/perf on the sd card
+	private void exportFrameTimings()
+	{
+		FrameTimer ft = FrameTimer.Get();
+		if (ft.GetFrames() == 0) return;
+		File dir = new File(Environment.getExternalStorageDirectory(), "showmehills/perf");
+		File f = new File(dir, "frames-" + System.currentTimeMillis() + ".csv");
+		try {
+			dir.mkdirs();
+			FileWriter out = new FileWriter(f);
+			try {
+				ft.WriteCsv(out);
+			} finally {
+				out.close();
+			}
+			ft.Reset();
+			Log.d("showmehills", "frame timings written to " + f);
+		} catch (IOException e) {
+			Log.e("showmehills", "can't write frame timings: " + e.getMessage());
+		}
+	}
+}
+
+